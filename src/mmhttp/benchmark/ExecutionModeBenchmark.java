@@ -0,0 +1,141 @@
+//- Copyright ©2009 Micah Martin.  All Rights Reserved
+//- MMHTTP and all included source files are distributed under terms of the GNU LGPL.
+
+package mmhttp.benchmark;
+
+import mmhttp.protocol.Request;
+import mmhttp.protocol.Response;
+import mmhttp.protocol.ResponseParser;
+import mmhttp.protocol.SimpleResponse;
+import mmhttp.server.Responder;
+import mmhttp.server.Server;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Compares the ways a Server can execute connections when Responders block.  The Responder sleeps to simulate a JDBC
+ * call while many clients make keep-alive requests concurrently.
+ *
+ * Run with: ant benchmark -Dbenchmark=ExecutionModeBenchmark -Dargs="clients requestsPerClient responderMillis"
+ */
+public class ExecutionModeBenchmark
+{
+  private static final byte[] REQUEST = "GET /blocking HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes();
+
+  public static void main(String[] args) throws Exception
+  {
+    int clients = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+    int requestsPerClient = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+    int responderMillis = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+    System.out.println(clients + " clients, " + requestsPerClient + " requests each, Responder blocks " + responderMillis + " ms");
+
+    run("thread per connection", newServer(responderMillis), clients, requestsPerClient);
+
+    Server virtual = newServer(responderMillis);
+    virtual.virtualThreads = true;
+    if(Server.supportsVirtualThreads())
+      run("virtual threads", virtual, clients, requestsPerClient);
+    else
+      System.out.println("virtual threads: not supported by this JVM (" + System.getProperty("java.version") + ")");
+
+    Server nonBlocking = newServer(responderMillis);
+    nonBlocking.nonBlocking = true;
+    run("non-blocking, " + nonBlocking.workerThreads + " workers", nonBlocking, clients, requestsPerClient);
+  }
+
+  private static Server newServer(int responderMillis) throws Exception
+  {
+    ServerSocket probe = new ServerSocket(0);
+    Server server = new Server(probe.getLocalPort());
+    probe.close();
+    server.maxRequestsPerConnection = Integer.MAX_VALUE;
+    server.register("blocking", new BlockingResponder(responderMillis));
+    return server;
+  }
+
+  private static void run(String mode, final Server server, int clients, final int requestsPerClient) throws Exception
+  {
+    server.start();
+    try
+    {
+      makeRequests(server.port, Math.min(clients, 50), requestsPerClient);
+
+      final AtomicInteger failures = new AtomicInteger();
+      long start = System.nanoTime();
+      List<Thread> threads = makeRequests(server.port, clients, requestsPerClient, failures);
+      for(Thread thread : threads)
+        thread.join();
+      long elapsed = System.nanoTime() - start;
+
+      int requests = clients * requestsPerClient - failures.get();
+      double seconds = elapsed / 1e9;
+      System.out.printf("%-30s %8.0f requests/sec  %8.2f ms/request  %d failures%n", mode + ":", requests / seconds, elapsed / 1e6 / requestsPerClient, failures.get());
+    }
+    finally
+    {
+      server.stop();
+    }
+  }
+
+  private static void makeRequests(int port, int clients, int requestsPerClient) throws Exception
+  {
+    for(Thread thread : makeRequests(port, clients, requestsPerClient, new AtomicInteger()))
+      thread.join();
+  }
+
+  private static List<Thread> makeRequests(final int port, int clients, final int requestsPerClient, final AtomicInteger failures)
+  {
+    List<Thread> threads = new ArrayList<Thread>();
+    for(int i = 0; i < clients; i++)
+    {
+      Thread thread = new Thread()
+      {
+        public void run()
+        {
+          try
+          {
+            Socket socket = new Socket("localhost", port);
+            OutputStream output = socket.getOutputStream();
+            InputStream input = socket.getInputStream();
+            for(int j = 0; j < requestsPerClient; j++)
+            {
+              output.write(REQUEST);
+              if(new ResponseParser(input).getStatus() != 200)
+                failures.incrementAndGet();
+            }
+            socket.close();
+          }
+          catch(Exception e)
+          {
+            failures.addAndGet(requestsPerClient);
+          }
+        }
+      };
+      thread.start();
+      threads.add(thread);
+    }
+    return threads;
+  }
+
+  private static class BlockingResponder implements Responder
+  {
+    private int millis;
+
+    public BlockingResponder(int millis)
+    {
+      this.millis = millis;
+    }
+
+    public Response makeResponse(Server server, Request request) throws Exception
+    {
+      Thread.sleep(millis);
+      return new SimpleResponse(200, "done");
+    }
+  }
+}
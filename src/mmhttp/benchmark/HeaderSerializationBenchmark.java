@@ -0,0 +1,70 @@
+//- Copyright ©2009 Micah Martin.  All Rights Reserved
+//- MMHTTP and all included source files are distributed under terms of the GNU LGPL.
+
+package mmhttp.benchmark;
+
+import mmhttp.protocol.Response;
+import mmhttp.protocol.SimpleResponse;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+
+/**
+ * Compares Response.makeHttpHeaderBytes() with the StringBuffer serialization it replaced, on the headers of a small
+ * response as the Expediter would send it.  The StringBuffer serialization is reproduced below as it was.
+ *
+ * Run with: ant benchmark -Dbenchmark=HeaderSerializationBenchmark -Dargs="iterations"
+ */
+public class HeaderSerializationBenchmark
+{
+  private static volatile Object sink;
+
+  public static void main(String[] args) throws Exception
+  {
+    int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+    SimpleResponse response = new SimpleResponse(200, "{\"status\":\"ok\"}");
+    response.setContentType("application/json");
+    response.addHeader("Server", "MMHTTP");
+    response.addHeader("Connection", "keep-alive");
+    response.addHeader("Content-Type", response.getContentType());
+    response.addHeader("Content-Length", String.valueOf(response.getContentSize()));
+    response.setMaxAge(60);
+
+    Map<String, String> headers = new HashMap<String, String>();
+    for(String name : new String[]{"Server", "Connection", "Content-Type", "Content-Length", "Cache-Control"})
+      headers.put(name, response.getHeader(name));
+
+    for(int round = 1; round <= 5; round++)
+    {
+      long start = System.nanoTime();
+      for(int i = 0; i < iterations; i++)
+        sink = stringBufferHeaders(response.getStatus(), headers).getBytes();
+      long strings = System.nanoTime() - start;
+
+      start = System.nanoTime();
+      for(int i = 0; i < iterations; i++)
+        sink = response.makeHttpHeaderBytes();
+      long bytes = System.nanoTime() - start;
+
+      System.out.printf("round %d:  StringBuffer %6.0f ns/response   bytes %6.0f ns/response%n", round, (double) strings / iterations, (double) bytes / iterations);
+    }
+  }
+
+  /**
+   * Response.makeHttpHeaders() before HeaderWriter.
+   */
+  private static String stringBufferHeaders(int status, Map<String, String> headers)
+  {
+    StringBuffer text = new StringBuffer();
+    text.append("HTTP/1.1 ").append(status).append(" ").append(Response.getReasonPhrase(status)).append("\r\n");
+    for(Iterator<String> iterator = headers.keySet().iterator(); iterator.hasNext();)
+    {
+      String key = iterator.next();
+      text.append(key).append(": ").append(headers.get(key)).append("\r\n");
+    }
+    text.append("\r\n");
+    return text.toString();
+  }
+}
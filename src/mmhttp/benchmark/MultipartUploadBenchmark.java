@@ -0,0 +1,235 @@
+//- Copyright ©2009 Micah Martin.  All Rights Reserved
+//- MMHTTP and all included source files are distributed under terms of the GNU LGPL.
+
+package mmhttp.benchmark;
+
+import mmhttp.protocol.PartHandler;
+import mmhttp.protocol.Request;
+import mmhttp.protocol.RequestBuilder;
+import mmhttp.protocol.Response;
+import mmhttp.protocol.ResponseParser;
+import mmhttp.protocol.SimpleResponse;
+import mmhttp.protocol.UploadedFile;
+import mmhttp.server.Responder;
+import mmhttp.server.Server;
+import mmsocketserver.StreamReader;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.util.Random;
+
+/**
+ * Uploads large files to a Server with RequestBuilder.addInputAsPart(), and measures how fast the multipart content is
+ * parsed.  The files are sent to a Responder that is a PartHandler, and so reads them as they arrive, and to one that
+ * takes them as UploadedFiles, in temp files.
+ *
+ * For comparison, the same content is also scanned in memory, by Request and by the StreamReader.copyBytesUpTo() it
+ * used before.
+ *
+ * Run with: ant benchmark -Dbenchmark=MultipartUploadBenchmark -Dargs="megabytes rounds"
+ */
+public class MultipartUploadBenchmark
+{
+  private static final String BOUNDARY = "----------" + 1234567890 + "BoUnDaRy";
+  private static final byte[] PATTERN = new byte[64 * 1024];
+
+  static
+  {
+    new Random(0).nextBytes(PATTERN);
+  }
+
+  public static void main(String[] args) throws Exception
+  {
+    int megabytes = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+    int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+    int size = megabytes * 1024 * 1024;
+    System.out.println(megabytes + " MB files, " + rounds + " rounds");
+
+    ServerSocket probe = new ServerSocket(0);
+    Server server = new Server(probe.getLocalPort());
+    probe.close();
+    server.register("stream", new StreamingResponder());
+    server.register("file", new UploadedFileResponder());
+    server.start();
+    try
+    {
+      for(int round = 1; round <= rounds; round++)
+      {
+        double streamed = upload(server, "stream", size);
+        double filed = upload(server, "file", size);
+        System.out.printf("round %d:  upload to PartHandler %7.1f MB/s   upload to temp file %7.1f MB/s%n", round, streamed, filed);
+      }
+    }
+    finally
+    {
+      server.stop();
+    }
+
+    int contentSize = Math.min(size, 32 * 1024 * 1024);
+    byte[] body = multipartBody(contentSize);
+    for(int round = 1; round <= rounds; round++)
+    {
+      double request = parseWithRequest(body, contentSize);
+      double streamReader = parseWithStreamReader(body, contentSize);
+      System.out.printf("round %d:  in memory, Request %7.1f MB/s   StreamReader.copyBytesUpTo %7.1f MB/s%n", round, request, streamReader);
+    }
+  }
+
+  private static double upload(Server server, String resource, int size) throws Exception
+  {
+    RequestBuilder builder = new RequestBuilder("/" + resource);
+    builder.setHostAndPort("localhost", server.port);
+    builder.addInputAsPart("file", new PatternInputStream(size), size, "application/octet-stream", "file");
+
+    long start = System.nanoTime();
+    ResponseParser response = ResponseParser.performHttpRequest("localhost", server.port, builder);
+    long elapsed = System.nanoTime() - start;
+
+    if(!String.valueOf(size).equals(response.getBody()))
+      throw new Exception("The upload went wrong: " + response.getStatus() + " " + response.getBody());
+    return megabytesPerSecond(size, elapsed);
+  }
+
+  private static double parseWithRequest(byte[] body, int contentSize) throws Exception
+  {
+    String head = "POST /stream HTTP/1.1\r\n" +
+      "Content-Length: " + body.length + "\r\n" +
+      "Content-Type: multipart/form-data; boundary=" + BOUNDARY + "\r\n" +
+      "\r\n";
+    ByteArrayOutputStream text = new ByteArrayOutputStream();
+    text.write(head.getBytes());
+    text.write(body);
+    ByteArrayInputStream input = new ByteArrayInputStream(text.toByteArray());
+
+    long start = System.nanoTime();
+    Request request = new Request(input);
+    request.setPartHandler(new StreamingResponder());
+    request.parse();
+    long elapsed = System.nanoTime() - start;
+
+    check(contentSize, request.getInput("file"));
+    return megabytesPerSecond(body.length, elapsed);
+  }
+
+  private static double parseWithStreamReader(byte[] body, int contentSize) throws Exception
+  {
+    long start = System.nanoTime();
+    StreamReader reader = new StreamReader(new BufferedInputStream(new ByteArrayInputStream(body)));
+    reader.readUpTo("--" + BOUNDARY);
+    reader.readLine();
+    while(!"".equals(reader.readLine()))
+      ;
+    CountingOutputStream output = new CountingOutputStream();
+    reader.copyBytesUpTo("\r\n--" + BOUNDARY, output);
+    long elapsed = System.nanoTime() - start;
+
+    check(contentSize, String.valueOf(output.count));
+    return megabytesPerSecond(body.length, elapsed);
+  }
+
+  private static void check(int contentSize, Object result) throws Exception
+  {
+    if(!String.valueOf(contentSize).equals(result))
+      throw new Exception("The content was parsed wrong: " + result);
+  }
+
+  private static byte[] multipartBody(int size) throws Exception
+  {
+    ByteArrayOutputStream body = new ByteArrayOutputStream(size + 1024);
+    body.write(("--" + BOUNDARY + "\r\n" +
+      "Content-Disposition: form-data; name=\"file\"; filename=\"file\"\r\n" +
+      "Content-Type: application/octet-stream\r\n" +
+      "\r\n").getBytes());
+    InputStream content = new PatternInputStream(size);
+    byte[] buffer = new byte[PATTERN.length];
+    int count;
+    while((count = content.read(buffer)) != -1)
+      body.write(buffer, 0, count);
+    body.write(("\r\n--" + BOUNDARY + "--\r\n").getBytes());
+    return body.toByteArray();
+  }
+
+  private static double megabytesPerSecond(long bytes, long nanos)
+  {
+    return bytes / (1024.0 * 1024.0) / (nanos / 1e9);
+  }
+
+  /**
+   * Random bytes, repeated, so the content is large without taking up memory.
+   */
+  private static class PatternInputStream extends InputStream
+  {
+    private long remaining;
+    private int offset;
+
+    private PatternInputStream(long size)
+    {
+      remaining = size;
+    }
+
+    public int read()
+    {
+      byte[] single = new byte[1];
+      return read(single, 0, 1) == -1 ? -1 : single[0] & 0xff;
+    }
+
+    public int read(byte[] bytes, int off, int length)
+    {
+      if(remaining == 0)
+        return -1;
+      int count = (int) Math.min(Math.min(length, remaining), PATTERN.length - offset);
+      System.arraycopy(PATTERN, offset, bytes, off, count);
+      offset = (offset + count) % PATTERN.length;
+      remaining -= count;
+      return count;
+    }
+  }
+
+  private static class CountingOutputStream extends OutputStream
+  {
+    private long count;
+
+    public void write(int b)
+    {
+      count++;
+    }
+
+    public void write(byte[] bytes, int offset, int length)
+    {
+      count += length;
+    }
+  }
+
+  private static class StreamingResponder implements Responder, PartHandler
+  {
+    public Object handlePart(String name, String filename, String contentType, InputStream content) throws Exception
+    {
+      byte[] buffer = new byte[64 * 1024];
+      long size = 0;
+      int count;
+      while((count = content.read(buffer)) != -1)
+        size += count;
+      return String.valueOf(size);
+    }
+
+    public Response makeResponse(Server server, Request request) throws Exception
+    {
+      return new SimpleResponse(200, (String) request.getInput("file"));
+    }
+  }
+
+  private static class UploadedFileResponder implements Responder
+  {
+    public Response makeResponse(Server server, Request request) throws Exception
+    {
+      UploadedFile file = (UploadedFile) request.getInput("file");
+      long size = file.getSize();
+      file.delete();
+      return new SimpleResponse(200, String.valueOf(size));
+    }
+  }
+}
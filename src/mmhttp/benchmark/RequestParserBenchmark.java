@@ -0,0 +1,119 @@
+//- Copyright ©2009 Micah Martin.  All Rights Reserved
+//- MMHTTP and all included source files are distributed under terms of the GNU LGPL.
+
+package mmhttp.benchmark;
+
+import mmhttp.protocol.Request;
+import mmsocketserver.StreamReader;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.util.HashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Compares Request.parse() with the regular expression parser it replaced, on the head of a request a browser would
+ * typically send.  The regular expression parser is reproduced below as it was.
+ *
+ * Run with: ant benchmark -Dbenchmark=RequestParserBenchmark -Dargs="iterations"
+ */
+public class RequestParserBenchmark
+{
+  private static final byte[] BROWSER_REQUEST = ("GET /FrontPage.SuiteAcceptanceTests?suite&format=html HTTP/1.1\r\n" +
+    "Host: localhost:8080\r\n" +
+    "Connection: keep-alive\r\n" +
+    "Cache-Control: max-age=0\r\n" +
+    "sec-ch-ua: \"Chromium\";v=\"118\", \"Google Chrome\";v=\"118\", \"Not=A?Brand\";v=\"99\"\r\n" +
+    "sec-ch-ua-mobile: ?0\r\n" +
+    "sec-ch-ua-platform: \"macOS\"\r\n" +
+    "Upgrade-Insecure-Requests: 1\r\n" +
+    "User-Agent: Mozilla/5.0 (Macintosh; Intel Mac OS X 10_15_7) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/118.0.0.0 Safari/537.36\r\n" +
+    "Accept: text/html,application/xhtml+xml,application/xml;q=0.9,image/avif,image/webp,image/apng,*/*;q=0.8,application/signed-exchange;v=b3;q=0.7\r\n" +
+    "Sec-Fetch-Site: same-origin\r\n" +
+    "Sec-Fetch-Mode: navigate\r\n" +
+    "Sec-Fetch-User: ?1\r\n" +
+    "Sec-Fetch-Dest: document\r\n" +
+    "Referer: http://localhost:8080/FrontPage\r\n" +
+    "Accept-Encoding: gzip, deflate, br\r\n" +
+    "Accept-Language: en-US,en;q=0.9\r\n" +
+    "Cookie: _ga=GA1.1.1234567890.1697000000; session=abcdef0123456789abcdef0123456789\r\n" +
+    "\r\n").getBytes();
+
+  private static volatile Object sink;
+
+  public static void main(String[] args) throws Exception
+  {
+    int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+    System.out.println(BROWSER_REQUEST.length + " byte request head, " + iterations + " iterations per round");
+
+    for(int round = 1; round <= 5; round++)
+    {
+      long regex = time(new RegexParse(), iterations);
+      long bytes = time(new ByteParse(), iterations);
+      System.out.printf("round %d:  regular expressions %7.0f ns/request   byte parser %7.0f ns/request%n", round, (double) regex / iterations, (double) bytes / iterations);
+    }
+  }
+
+  private static long time(Parse parse, int iterations) throws Exception
+  {
+    long start = System.nanoTime();
+    for(int i = 0; i < iterations; i++)
+      sink = parse.parse(new ByteArrayInputStream(BROWSER_REQUEST));
+    return System.nanoTime() - start;
+  }
+
+  private interface Parse
+  {
+    Object parse(ByteArrayInputStream input) throws Exception;
+  }
+
+  private static class ByteParse implements Parse
+  {
+    public Object parse(ByteArrayInputStream input) throws Exception
+    {
+      Request request = new Request(input);
+      request.parse();
+      return request;
+    }
+  }
+
+  /**
+   * The request line and header parsing of Request before RequestHeadParser.
+   */
+  private static class RegexParse implements Parse
+  {
+    private static final Pattern requestLinePattern = Pattern.compile("(\\p{Upper}+?) ([^\\s]+)(?: (HTTP/\\d+\\.\\d+))?");
+    private static final Pattern requestUriPattern = Pattern.compile("([^?]+)\\??(.*)");
+    private static final Pattern queryStringPattern = Pattern.compile("([^=]*)=?([^&]*)&?");
+    private static final Pattern headerPattern = Pattern.compile("([^:]*): (.*)");
+
+    public Object parse(ByteArrayInputStream input) throws Exception
+    {
+      StreamReader reader = new StreamReader(new BufferedInputStream(input));
+      HashMap<String, Object> inputs = new HashMap<String, Object>();
+
+      Matcher match = requestLinePattern.matcher(reader.readLine());
+      if(!match.find())
+        throw new Exception("The request string is malformed and can not be parsed");
+      Matcher uriMatch = requestUriPattern.matcher(match.group(2));
+      uriMatch.find();
+      String resource = uriMatch.group(1).substring(1);
+      Matcher queryMatch = queryStringPattern.matcher(uriMatch.group(2));
+      while(queryMatch.find())
+        inputs.put(queryMatch.group(1), Request.decodeContent(queryMatch.group(2)));
+
+      HashMap<String, String> headers = new HashMap<String, String>();
+      String line = reader.readLine();
+      while(!"".equals(line))
+      {
+        Matcher headerMatch = headerPattern.matcher(line);
+        if(headerMatch.find())
+          headers.put(headerMatch.group(1).toLowerCase(), headerMatch.group(2));
+        line = reader.readLine();
+      }
+      inputs.put(resource, headers);
+      return inputs;
+    }
+  }
+}
@@ -0,0 +1,46 @@
+//- Copyright ©2009 Micah Martin.  All Rights Reserved
+//- MMHTTP and all included source files are distributed under terms of the GNU LGPL.
+
+package mmhttp.protocol;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A ResponseSender that can send parts of arrays, files, and several buffers at once without the bytes being copied
+ * into a new array first.  Responses use these methods through ResponseSenderUtil.bulk(), which adapts plain
+ * ResponseSenders, so implementing this interface is optional.
+ *
+ * @see ResponseSenderUtil#bulk
+ */
+public interface BulkResponseSender extends ResponseSender
+{
+  /**
+   * Sends length bytes of the array starting at offset.  The array may be reused once this returns.
+   */
+  public void send(byte[] bytes, int offset, int length) throws Exception;
+
+  /**
+   * Sends count bytes of the file, starting at position.  Where possible the bytes are moved straight from the file to
+   * the socket by the operating system, never entering the Java heap.  Returns once the bytes are sent; the file may
+   * then be closed.
+   *
+   * @see ResponseSenderUtil#copy
+   */
+  public void send(FileChannel file, long position, long count) throws Exception;
+
+  /**
+   * Sends the remaining bytes of each buffer, in order, as if they were one array.  Where possible they are written to
+   * the socket with a single gathering write, so separate header and body arrays needn't be copied together first.
+   * Returns once the buffers may be reused.
+   *
+   * @see ResponseSenderUtil#send
+   */
+  public void send(ByteBuffer... buffers) throws Exception;
+
+  /**
+   * Implementations may hold sent bytes in a buffer, to be written together.  This writes whatever is being held.
+   * close() implies a flush.
+   */
+  public void flush() throws Exception;
+}
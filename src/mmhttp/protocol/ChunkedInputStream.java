@@ -0,0 +1,166 @@
+//- Copyright ©2009 Micah Martin.  All Rights Reserved
+//- MMHTTP and all included source files are distributed under terms of the GNU LGPL.
+
+package mmhttp.protocol;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+
+/**
+ * An entity body sent with Transfer-Encoding: chunked, decoded as it's read.  Each chunk is preceded by a line giving
+ * its size in hex, and a chunk of size 0 ends the body, followed by any trailers and an empty line.  Chunk extensions
+ * are ignored.
+ *
+ * The input is read a byte at a time between chunks, so it should be buffered.
+ *
+ * @see ChunkedOutputStream
+ */
+class ChunkedInputStream extends EntityBodyInputStream
+{
+  static final int MAX_LINE_LENGTH = 4096;
+  static final int MAX_TRAILERS = 100;
+
+  private InputStream input;
+  private long chunkRemaining;
+  private boolean started;
+  private boolean finished;
+  private long bytesRead;
+  private HashMap<String, String> trailers = new HashMap<String, String>();
+
+  ChunkedInputStream(InputStream input)
+  {
+    this.input = input;
+  }
+
+  public int read() throws IOException
+  {
+    if(!hasChunk())
+      return -1;
+    int b = input.read();
+    if(b == -1)
+      throw endedEarly();
+    bytesRead++;
+    chunkRemaining--;
+    return b;
+  }
+
+  public int read(byte[] bytes, int offset, int length) throws IOException
+  {
+    if(length == 0)
+      return 0;
+    if(!hasChunk())
+      return -1;
+    int count = input.read(bytes, offset, (int) Math.min(length, chunkRemaining));
+    if(count == -1)
+      throw endedEarly();
+    bytesRead += count;
+    chunkRemaining -= count;
+    return count;
+  }
+
+  public int available() throws IOException
+  {
+    return (int) Math.min(input.available(), chunkRemaining);
+  }
+
+  long getBytesRead()
+  {
+    return bytesRead;
+  }
+
+  HashMap<String, String> getTrailers()
+  {
+    return trailers;
+  }
+
+  /**
+   * @param line - a chunk size line, without its line break
+   * @return the size of the chunk, or -1 if the line is malformed
+   */
+  static long parseChunkSize(String line)
+  {
+    int end = line.indexOf(';');
+    if(end == -1)
+      end = line.length();
+    while(end > 0 && (line.charAt(end - 1) == ' ' || line.charAt(end - 1) == '\t'))
+      end--;
+    // 15 hex digits can't overflow a long.
+    if(end == 0 || end > 15)
+      return -1;
+    long size = 0;
+    for(int i = 0; i < end; i++)
+    {
+      int digit = Character.digit(line.charAt(i), 16);
+      if(digit == -1)
+        return -1;
+      size = size * 16 + digit;
+    }
+    return size;
+  }
+
+  private boolean hasChunk() throws IOException
+  {
+    if(chunkRemaining > 0)
+      return true;
+    if(finished)
+      return false;
+    if(started && readLine().length() > 0)
+      throw new IOException("A chunk of the entity body is longer than its size");
+    started = true;
+    String line = readLine();
+    chunkRemaining = parseChunkSize(line);
+    if(chunkRemaining == -1)
+      throw new IOException("The chunk size is invalid: " + line);
+    if(chunkRemaining == 0)
+    {
+      readTrailers();
+      finished = true;
+      return false;
+    }
+    return true;
+  }
+
+  private void readTrailers() throws IOException
+  {
+    for(String line = readLine(); line.length() > 0; line = readLine())
+    {
+      if(trailers.size() == MAX_TRAILERS)
+        throw new IOException("The entity body has too many trailers");
+      int colon = line.indexOf(':');
+      if(colon > 0)
+        trailers.put(line.substring(0, colon).trim().toLowerCase(), line.substring(colon + 1).trim());
+    }
+  }
+
+  /**
+   * @return the next line, which must end with CRLF, without its line break
+   */
+  private String readLine() throws IOException
+  {
+    StringBuffer line = new StringBuffer();
+    while(true)
+    {
+      int b = input.read();
+      if(b == -1)
+        throw endedEarly();
+      bytesRead++;
+      if(b == '\n')
+      {
+        int length = line.length();
+        if(length == 0 || line.charAt(length - 1) != '\r')
+          throw new IOException("A line of the chunked entity body doesn't end with CRLF");
+        line.setLength(length - 1);
+        return line.toString();
+      }
+      if(line.length() == MAX_LINE_LENGTH)
+        throw new IOException("A line of the chunked entity body is too long");
+      line.append((char) b);
+    }
+  }
+
+  private IOException endedEarly()
+  {
+    return new IOException("The chunked entity body ended before its last chunk");
+  }
+}
@@ -0,0 +1,101 @@
+//- Copyright ©2009 Micah Martin.  All Rights Reserved
+//- MMHTTP and all included source files are distributed under terms of the GNU LGPL.
+
+package mmhttp.protocol;
+
+import mmhttp.util.BufferPool;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+public class ChunkedInputStreamTest extends Assert
+{
+  @Test
+  public void shouldDecodeChunksAndTrailers() throws Exception
+  {
+    String text = "5\r\nhello\r\n1;name=value\r\n \r\nA \r\n0123456789\r\n0\r\nChecksum: abc\r\nExpires:  never \r\n\r\n";
+    ChunkedInputStream input = chunked(text);
+
+    assertEquals("hello 0123456789", read(input));
+    assertEquals("abc", input.getTrailers().get("checksum"));
+    assertEquals("never", input.getTrailers().get("expires"));
+    assertEquals(text.length(), input.getBytesRead());
+  }
+
+  @Test
+  public void shouldLeaveWhatFollowsTheBody() throws Exception
+  {
+    InputStream underlying = new BufferedInputStream(new ByteArrayInputStream("3\r\nabc\r\n0\r\n\r\nGET /next".getBytes()));
+
+    assertEquals("abc", read(new ChunkedInputStream(underlying)));
+    assertEquals("GET /next", read(underlying));
+  }
+
+  @Test
+  public void shouldSkipTheRestUpToALimit() throws Exception
+  {
+    assertFalse(chunked("5\r\nhello\r\n5\r\nworld\r\n0\r\n\r\n").skipRest(9, BufferPool.getShared()));
+    ChunkedInputStream input = chunked("5\r\nhello\r\n5\r\nworld\r\n0\r\nA: b\r\n\r\n");
+    assertTrue(input.skipRest(10, BufferPool.getShared()));
+    assertEquals(-1, input.read());
+    assertEquals("b", input.getTrailers().get("a"));
+  }
+
+  @Test
+  public void shouldParseChunkSizes() throws Exception
+  {
+    assertEquals(0, ChunkedInputStream.parseChunkSize("0"));
+    assertEquals(255, ChunkedInputStream.parseChunkSize("ff"));
+    assertEquals(26, ChunkedInputStream.parseChunkSize("1A ; ext=\"x\""));
+    assertEquals(0xfffffffffffffffL, ChunkedInputStream.parseChunkSize("fffffffffffffff"));
+    assertEquals(-1, ChunkedInputStream.parseChunkSize(""));
+    assertEquals(-1, ChunkedInputStream.parseChunkSize("-1"));
+    assertEquals(-1, ChunkedInputStream.parseChunkSize("+1"));
+    assertEquals(-1, ChunkedInputStream.parseChunkSize(" 1"));
+    assertEquals(-1, ChunkedInputStream.parseChunkSize("1g"));
+    assertEquals(-1, ChunkedInputStream.parseChunkSize("1000000000000000"));
+  }
+
+  @Test
+  public void shouldComplainAboutMalformedChunks() throws Exception
+  {
+    checkMalformed("xyz\r\n", "The chunk size is invalid: xyz");
+    checkMalformed("3\r\nabcd\r\n0\r\n\r\n", "A chunk of the entity body is longer than its size");
+    checkMalformed("3\nabc\r\n0\r\n\r\n", "A line of the chunked entity body doesn't end with CRLF");
+    checkMalformed("5\r\nabc", "The chunked entity body ended before its last chunk");
+    checkMalformed("3\r\nabc\r\n", "The chunked entity body ended before its last chunk");
+  }
+
+  private void checkMalformed(String text, String message) throws Exception
+  {
+    try
+    {
+      read(chunked(text));
+      fail("should have thrown");
+    }
+    catch(IOException e)
+    {
+      assertEquals(message, e.getMessage());
+    }
+  }
+
+  private static ChunkedInputStream chunked(String text)
+  {
+    return new ChunkedInputStream(new BufferedInputStream(new ByteArrayInputStream(text.getBytes())));
+  }
+
+  private static String read(InputStream input) throws IOException
+  {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    byte[] buffer = new byte[3];
+    int count;
+    while((count = input.read(buffer)) != -1)
+      output.write(buffer, 0, count);
+    return output.toString();
+  }
+}
@@ -0,0 +1,71 @@
+//- Copyright ©2009 Micah Martin.  All Rights Reserved
+//- MMHTTP and all included source files are distributed under terms of the GNU LGPL.
+
+package mmhttp.protocol;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Sends each write through the BulkResponseSender as one chunk of the chunked transfer coding.  The chunk's bytes are
+ * sent between its size line and CRLF without being copied.  Closing the stream doesn't end the chunks; the last chunk
+ * and the trailer are left to the response.
+ */
+class ChunkedOutputStream extends OutputStream
+{
+  private static final byte[] CRLF = {'\r', '\n'};
+
+  private BulkResponseSender sender;
+  private byte[] single = new byte[1];
+
+  ChunkedOutputStream(BulkResponseSender sender)
+  {
+    this.sender = sender;
+  }
+
+  public void write(int b) throws IOException
+  {
+    single[0] = (byte) b;
+    write(single, 0, 1);
+  }
+
+  public void write(byte[] bytes, int offset, int length) throws IOException
+  {
+    if(length == 0)
+      return;
+    byte[] sizeLine = (Integer.toHexString(length) + "\r\n").getBytes();
+    try
+    {
+      sender.send(ByteBuffer.wrap(sizeLine), ByteBuffer.wrap(bytes, offset, length), ByteBuffer.wrap(CRLF));
+    }
+    catch(IOException e)
+    {
+      throw e;
+    }
+    catch(Exception e)
+    {
+      throw new IOException(e);
+    }
+  }
+
+  public void flush() throws IOException
+  {
+    try
+    {
+      sender.flush();
+    }
+    catch(IOException e)
+    {
+      throw e;
+    }
+    catch(Exception e)
+    {
+      throw new IOException(e);
+    }
+  }
+
+  public void close()
+  {
+  }
+}
@@ -3,7 +3,7 @@
 
 package mmhttp.protocol;
 
-import java.nio.ByteBuffer;
+import java.io.OutputStream;
 
 /**
  * This a special type of Response that supports HTTP 1.1 Chunking.
@@ -19,11 +19,14 @@ import java.nio.ByteBuffer;
  * information necessary for the recipient to verify that it
  * has received the full message.
  * </pre></i>
- * 
+ *
+ * With a content encoding, the data added is compressed into the chunks.  flush() then also pushes out the compressed
+ * data held back by the compressor.
  */
 public class ChunkedResponse extends Response
 {
-	private ResponseSender sender;
+	private BulkResponseSender sender;
+	private OutputStream chunks;
 	private int bytesSent = 0;
 	private boolean isReadyToSend = false;
 
@@ -35,9 +38,12 @@ public class ChunkedResponse extends Response
    */
 	public void readyToSend(ResponseSender sender) throws Exception
 	{
-		this.sender = sender;
+		this.sender = ResponseSenderUtil.bulk(sender);
 		addStandardHeaders();
-		sender.send(makeHttpHeaders().getBytes());
+		this.sender.send(makeHttpHeaderBuffer());
+		chunks = new ChunkedOutputStream(this.sender);
+		if(getContentEncoding() != null)
+			chunks = Compression.newOutputStream(chunks, getContentEncoding());
 		isReadyToSend = true;
 		synchronized(this)
 		{
@@ -58,11 +64,6 @@ public class ChunkedResponse extends Response
 		addHeader("Transfer-Encoding", "chunked");
 	}
 
-	private static String asHex(int value)
-	{
-		return Integer.toHexString(value);
-	}
-
   /**
    * Sends a chunk of text to the client.  The string will be converted to bytes prior to transfer.
    *
@@ -85,13 +86,21 @@ public class ChunkedResponse extends Response
 	{
 		if(bytes == null || bytes.length == 0)
 			return;
-		String sizeLine = asHex(bytes.length) + CRLF;
-		ByteBuffer chunk = ByteBuffer.allocate(sizeLine.length() + bytes.length + 2);
-		chunk.put(sizeLine.getBytes()).put(bytes).put(CRLF.getBytes());
-		sender.send(chunk.array());
+		chunks.write(bytes);
 		bytesSent += bytes.length;
 	}
 
+  /**
+   * Chunks may be held by the ResponseSender to be written together with later chunks.  Call this to deliver the
+   * chunks added so far to the client right away, for example before a pause in the data.
+   *
+   * @throws Exception
+   */
+	public void flush() throws Exception
+	{
+		chunks.flush();
+	}
+
   /**
    * Trailing headers are sent to the client after all the chunks have been delievered.  This method does not enforce
    * this requirement so you must make sure not to use this methon until after calling closeChunks().
@@ -115,6 +124,7 @@ public class ChunkedResponse extends Response
    */
 	public void closeChunks() throws Exception
 	{
+		chunks.close();
 		sender.send( ("0" + CRLF).getBytes() );
 	}
 
@@ -160,4 +170,9 @@ public class ChunkedResponse extends Response
 	{
 		return bytesSent;
 	}
+
+	protected boolean isContentSizeKnown()
+	{
+		return false;
+	}
 }
@@ -142,4 +142,24 @@ public class ChunkedResponseTest extends TestCase implements ResponseSender
 
 		assertSubString("\uba80\uba81\uba82\uba83", buffer.toString());
 	}
+
+	public void testFlushIsPassedToTheSender() throws Exception
+	{
+		final int[] flushes = new int[1];
+		MockResponseSender sender = new MockResponseSender()
+		{
+			public void flush() throws Exception
+			{
+				flushes[0]++;
+			}
+		};
+		ChunkedResponse flushed = new ChunkedResponse();
+		flushed.readyToSend(sender);
+		flushed.add("some data");
+		flushed.flush();
+
+		assertEquals(1, flushes[0]);
+		assertTrue(sender.sentData().endsWith("9\r\nsome data\r\n"));
+		flushed.closeAll();
+	}
 }
@@ -0,0 +1,258 @@
+//- Copyright ©2009 Micah Martin.  All Rights Reserved
+//- MMHTTP and all included source files are distributed under terms of the GNU LGPL.
+
+package mmhttp.protocol;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Content-Encoding negotiation and the gzip and deflate codings.
+ *
+ * negotiate() decides, from the request's Accept-Encoding header and the response's type and size, whether a response
+ * should be compressed, and tells the response which coding to use.  The responses compress themselves as they are
+ * sent: SimpleResponse compresses its content up front and sends the compressed length, while InputStreamResponse and
+ * ChunkedResponse compress as they stream, in chunks.
+ *
+ * Files may instead have been compressed ahead of time, with gzip or brotli.  See findPrecompressed().
+ *
+ * @see Response#setContentEncoding
+ */
+public class Compression
+{
+  public static final String GZIP = "gzip";
+  public static final String DEFLATE = "deflate";
+  public static final String BROTLI = "br";
+
+  private static final int BUFFER_SIZE = 8 * 1024;
+
+  /**
+   * Compresses the response, if the client accepts gzip or deflate and the response is worth compressing: its status
+   * carries content, its type is textual, and its content, when its size is known in advance, is at least threshold
+   * bytes.  Streamed responses are sent chunked once compressed, so only HTTP/1.1 requests have their responses
+   * compressed.  Responses that already have a Content-Encoding are left alone.
+   *
+   * Adds Accept-Encoding to the Vary header of any response that could have been compressed for another client.
+   *
+   * @param request
+   * @param response
+   * @param threshold - minimum size, in bytes, of content worth compressing
+   */
+  public static void negotiate(Request request, Response response, int threshold)
+  {
+    int status = response.getStatus();
+    if(status < 200 || status == 204 || status == 304)
+      return;
+    if(response.getHeader("Content-Encoding") != null || !isCompressible(response.getContentType()))
+      return;
+    if(response.isContentSizeKnown() && response.getContentSize() < threshold)
+      return;
+    varyOnAcceptEncoding(response);
+    String encoding = chooseEncoding(request.getHeader("Accept-Encoding"));
+    if(encoding != null && "HTTP/1.1".equals(request.getHttpVersion()))
+      response.setContentEncoding(encoding);
+  }
+
+  /**
+   * Adds Accept-Encoding to the response's Vary header, keeping whatever else the response already varies on.
+   *
+   * @param response
+   */
+  public static void varyOnAcceptEncoding(Response response)
+  {
+    String vary = response.getHeader("Vary");
+    if(vary == null || vary.trim().length() == 0)
+    {
+      response.addHeader("Vary", "Accept-Encoding");
+      return;
+    }
+    for(String field : vary.split(","))
+    {
+      String name = field.trim();
+      if(name.equals("*") || name.equalsIgnoreCase("Accept-Encoding"))
+        return;
+    }
+    response.addHeader("Vary", vary + ", Accept-Encoding");
+  }
+
+  /**
+   * Picks the coding the client prefers among gzip and deflate, favoring gzip when the client has no preference.
+   *
+   * @param acceptEncoding - the value of the Accept-Encoding header, perhaps null
+   * @return GZIP, DEFLATE, or null if the client accepts neither
+   */
+  public static String chooseEncoding(String acceptEncoding)
+  {
+    return chooseEncoding(acceptEncoding, GZIP, DEFLATE);
+  }
+
+  /**
+   * Picks the coding the client prefers among those available.  When the client has no preference, the first available
+   * coding wins.
+   *
+   * @param acceptEncoding - the value of the Accept-Encoding header, perhaps null
+   * @param available - codings, in order of preference
+   * @return one of the available codings, or null if the client accepts none of them
+   */
+  public static String chooseEncoding(String acceptEncoding, String... available)
+  {
+    if(acceptEncoding == null)
+      return null;
+    float[] qualities = new float[available.length];
+    Arrays.fill(qualities, -1);
+    float any = -1;
+    for(String coding : acceptEncoding.split(","))
+    {
+      String name = coding;
+      float quality = 1;
+      int semicolon = coding.indexOf(';');
+      if(semicolon != -1)
+      {
+        name = coding.substring(0, semicolon);
+        quality = parseQuality(coding.substring(semicolon + 1));
+      }
+      name = name.trim().toLowerCase();
+      if("x-gzip".equals(name))
+        name = GZIP;
+      if("*".equals(name))
+        any = quality;
+      for(int i = 0; i < available.length; i++)
+      {
+        if(available[i].equals(name))
+          qualities[i] = quality;
+      }
+    }
+    String choice = null;
+    float best = 0;
+    for(int i = 0; i < available.length; i++)
+    {
+      float quality = qualities[i] == -1 ? any : qualities[i];
+      if(quality > best)
+      {
+        choice = available[i];
+        best = quality;
+      }
+    }
+    return choice;
+  }
+
+  /**
+   * Finds a precompressed copy of the file: its sibling with the extension of the coding, as in "app.js.gz" or
+   * "app.js.br" for "app.js".  Copies older than the file are ignored; they're likely out of date.
+   *
+   * @param file
+   * @param encoding - GZIP or BROTLI
+   * @return the precompressed file, or null if there isn't one
+   */
+  public static File findPrecompressed(File file, String encoding)
+  {
+    String extension;
+    if(GZIP.equals(encoding))
+      extension = ".gz";
+    else if(BROTLI.equals(encoding))
+      extension = ".br";
+    else
+      return null;
+    File sibling = new File(file.getPath() + extension);
+    if(sibling.isFile() && sibling.lastModified() >= file.lastModified())
+      return sibling;
+    return null;
+  }
+
+  private static float parseQuality(String parameter)
+  {
+    parameter = parameter.trim();
+    if(!parameter.startsWith("q="))
+      return 1;
+    try
+    {
+      return Float.parseFloat(parameter.substring(2).trim());
+    }
+    catch(NumberFormatException e)
+    {
+      return 0;
+    }
+  }
+
+  /**
+   * Images, video, audio and archives are compressed already.  Text, and the textual application types, are not.
+   *
+   * @param contentType
+   * @return true if the type of content usually compresses well
+   */
+  public static boolean isCompressible(String contentType)
+  {
+    if(contentType == null)
+      return false;
+    String type = contentType.toLowerCase();
+    int semicolon = type.indexOf(';');
+    if(semicolon != -1)
+      type = type.substring(0, semicolon);
+    type = type.trim();
+    return type.startsWith("text/") ||
+      type.endsWith("+xml") ||
+      type.endsWith("+json") ||
+      type.equals("application/json") ||
+      type.equals("application/javascript") ||
+      type.equals("application/x-javascript") ||
+      type.equals("application/xml") ||
+      type.equals("application/xhtml+xml") ||
+      type.equals("image/svg+xml");
+  }
+
+  /**
+   * @param bytes
+   * @param encoding - GZIP or DEFLATE
+   * @return the compressed bytes
+   * @throws IOException
+   */
+  public static byte[] compress(byte[] bytes, String encoding) throws IOException
+  {
+    ByteArrayOutputStream compressed = new ByteArrayOutputStream(Math.max(64, bytes.length / 4));
+    OutputStream output = newOutputStream(compressed, encoding);
+    output.write(bytes);
+    output.close();
+    return compressed.toByteArray();
+  }
+
+  /**
+   * Creates a stream that compresses what's written to it.  flush() pushes out everything written so far, at a small
+   * cost in compression, so that streamed responses reach the client as they're produced.  close() finishes the
+   * compressed data and closes the output.
+   *
+   * @param output
+   * @param encoding - GZIP or DEFLATE
+   * @return compressing OutputStream
+   * @throws IOException
+   */
+  public static DeflaterOutputStream newOutputStream(OutputStream output, String encoding) throws IOException
+  {
+    if(GZIP.equals(encoding))
+      return new GZIPOutputStream(output, BUFFER_SIZE, true);
+    else if(DEFLATE.equals(encoding))
+    {
+      return new DeflaterOutputStream(output, new Deflater(), BUFFER_SIZE, true)
+      {
+        public void close() throws IOException
+        {
+          try
+          {
+            super.close();
+          }
+          finally
+          {
+            def.end();
+          }
+        }
+      };
+    }
+    else
+      throw new IllegalArgumentException("Unsupported content encoding: " + encoding);
+  }
+}
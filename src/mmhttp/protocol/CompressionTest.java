@@ -0,0 +1,240 @@
+//- Copyright ©2009 Micah Martin.  All Rights Reserved
+//- MMHTTP and all included source files are distributed under terms of the GNU LGPL.
+
+package mmhttp.protocol;
+
+import mmhttp.util.FileUtil;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.net.Socket;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+public class CompressionTest extends Assert implements ResponseSender
+{
+  private static final String TEXT = "Text compresses well, since text repeats itself.  Text compresses well.\n";
+
+  private ByteArrayOutputStream output;
+  private MockRequest request;
+
+  public void send(byte[] bytes) throws Exception
+  {
+    output.write(bytes);
+  }
+
+  public void close() throws Exception
+  {
+  }
+
+  public Socket getSocket() throws Exception
+  {
+    return null;
+  }
+
+  @Before
+  public void setUp() throws Exception
+  {
+    output = new ByteArrayOutputStream();
+    request = new MockRequest();
+    request.setHttpVersion("HTTP/1.1");
+    request.addHeader("Accept-Encoding", "gzip, deflate");
+  }
+
+  private static String repeat(String text, int times)
+  {
+    StringBuffer buffer = new StringBuffer();
+    for(int i = 0; i < times; i++)
+      buffer.append(text);
+    return buffer.toString();
+  }
+
+  private String head() throws Exception
+  {
+    String text = output.toString("ISO-8859-1");
+    return text.substring(0, text.indexOf("\r\n\r\n") + 2);
+  }
+
+  private byte[] body()
+  {
+    byte[] bytes = output.toByteArray();
+    int start = 0;
+    while(!(bytes[start] == '\r' && bytes[start + 1] == '\n' && bytes[start + 2] == '\r' && bytes[start + 3] == '\n'))
+      start++;
+    start += 4;
+    byte[] body = new byte[bytes.length - start];
+    System.arraycopy(bytes, start, body, 0, body.length);
+    return body;
+  }
+
+  private static byte[] dechunk(byte[] chunked)
+  {
+    ByteArrayOutputStream data = new ByteArrayOutputStream();
+    int position = 0;
+    while(true)
+    {
+      int lineEnd = position;
+      while(chunked[lineEnd] != '\r')
+        lineEnd++;
+      int size = Integer.parseInt(new String(chunked, position, lineEnd - position), 16);
+      position = lineEnd + 2;
+      if(size == 0)
+        return data.toByteArray();
+      data.write(chunked, position, size);
+      position += size + 2;
+    }
+  }
+
+  private static String decompress(byte[] bytes, String encoding) throws Exception
+  {
+    InputStream input = new ByteArrayInputStream(bytes);
+    input = Compression.GZIP.equals(encoding) ? new GZIPInputStream(input) : new InflaterInputStream(input);
+    ByteArrayOutputStream text = new ByteArrayOutputStream();
+    FileUtil.copyBytes(input, text);
+    return text.toString("UTF-8");
+  }
+
+  @Test
+  public void shouldChooseTheEncodingTheClientPrefers() throws Exception
+  {
+    assertEquals(null, Compression.chooseEncoding(null));
+    assertEquals(null, Compression.chooseEncoding("identity"));
+    assertEquals("gzip", Compression.chooseEncoding("gzip"));
+    assertEquals("gzip", Compression.chooseEncoding("deflate, gzip, br"));
+    assertEquals("deflate", Compression.chooseEncoding("deflate"));
+    assertEquals("deflate", Compression.chooseEncoding("gzip;q=0.5, deflate"));
+    assertEquals("deflate", Compression.chooseEncoding("GZIP; q=0, *"));
+    assertEquals("gzip", Compression.chooseEncoding("*"));
+    assertEquals(null, Compression.chooseEncoding("*;q=0"));
+  }
+
+  @Test
+  public void shouldChooseAmongAvailableEncodings() throws Exception
+  {
+    assertEquals("br", Compression.chooseEncoding("gzip, deflate, br", "br", "gzip"));
+    assertEquals("gzip", Compression.chooseEncoding("gzip, deflate", "br", "gzip"));
+    assertEquals("gzip", Compression.chooseEncoding("br;q=0.8, gzip", "br", "gzip"));
+    assertEquals(null, Compression.chooseEncoding("deflate", "br", "gzip"));
+  }
+
+  @Test
+  public void shouldKnowWhichTypesAreCompressible() throws Exception
+  {
+    assertTrue(Compression.isCompressible("text/html; charset=utf-8"));
+    assertTrue(Compression.isCompressible("application/json"));
+    assertTrue(Compression.isCompressible("application/atom+xml"));
+    assertTrue(Compression.isCompressible("image/svg+xml"));
+    assertFalse(Compression.isCompressible("image/png"));
+    assertFalse(Compression.isCompressible("application/zip"));
+    assertFalse(Compression.isCompressible(null));
+  }
+
+  @Test
+  public void shouldCompressLargeTextualResponses() throws Exception
+  {
+    SimpleResponse response = new SimpleResponse(200, repeat(TEXT, 100));
+    Compression.negotiate(request, response, 1024);
+
+    assertEquals("gzip", response.getContentEncoding());
+    assertEquals("Accept-Encoding", response.getHeader("Vary"));
+  }
+
+  @Test
+  public void shouldAddToAnExistingVaryHeader() throws Exception
+  {
+    SimpleResponse response = new SimpleResponse(200, repeat(TEXT, 100));
+    response.addHeader("Vary", "Cookie");
+    Compression.negotiate(request, response, 1024);
+    assertEquals("Cookie, Accept-Encoding", response.getHeader("Vary"));
+
+    Compression.varyOnAcceptEncoding(response);
+    assertEquals("Cookie, Accept-Encoding", response.getHeader("Vary"));
+
+    response.addHeader("Vary", "*");
+    Compression.varyOnAcceptEncoding(response);
+    assertEquals("*", response.getHeader("Vary"));
+  }
+
+  @Test
+  public void shouldLeaveSomeResponsesAlone() throws Exception
+  {
+    SimpleResponse small = new SimpleResponse(200, TEXT);
+    Compression.negotiate(request, small, 1024);
+    assertEquals(null, small.getContentEncoding());
+    assertEquals(null, small.getHeader("Vary"));
+
+    SimpleResponse image = new SimpleResponse(200, repeat(TEXT, 100));
+    image.setContentType("image/png");
+    Compression.negotiate(request, image, 1024);
+    assertEquals(null, image.getContentEncoding());
+
+    SimpleResponse notModified = new SimpleResponse(304, repeat(TEXT, 100));
+    Compression.negotiate(request, notModified, 1024);
+    assertEquals(null, notModified.getContentEncoding());
+
+    request.setHttpVersion("HTTP/1.0");
+    SimpleResponse oldClient = new SimpleResponse(200, repeat(TEXT, 100));
+    Compression.negotiate(request, oldClient, 1024);
+    assertEquals(null, oldClient.getContentEncoding());
+    assertEquals("Accept-Encoding", oldClient.getHeader("Vary"));
+  }
+
+  @Test
+  public void shouldAlwaysConsiderChunkedResponses() throws Exception
+  {
+    ChunkedResponse response = new ChunkedResponse();
+    Compression.negotiate(request, response, 1024);
+
+    assertEquals("gzip", response.getContentEncoding());
+  }
+
+  @Test
+  public void shouldSendSimpleResponsesCompressed() throws Exception
+  {
+    String content = repeat(TEXT, 100);
+    SimpleResponse response = new SimpleResponse(200, content);
+    response.setContentEncoding("gzip");
+    response.readyToSend(this);
+
+    byte[] body = body();
+    assertTrue(body.length < content.length() / 10);
+    assertTrue(head().contains("Content-Encoding: gzip\r\n"));
+    assertTrue(head().contains("Content-Length: " + body.length + "\r\n"));
+    assertEquals(content, decompress(body, "gzip"));
+  }
+
+  @Test
+  public void shouldSendInputStreamResponsesCompressedInChunks() throws Exception
+  {
+    String content = repeat(TEXT, 1000);
+    InputStreamResponse response = new InputStreamResponse();
+    response.setBody(new ByteArrayInputStream(content.getBytes("UTF-8")), content.length());
+    response.setContentEncoding("deflate");
+    response.readyToSend(this);
+
+    assertTrue(head().contains("Transfer-Encoding: chunked\r\n"));
+    assertFalse(head().contains("Content-Length"));
+    assertEquals(content, decompress(dechunk(body()), "deflate"));
+  }
+
+  @Test
+  public void shouldSendChunkedResponsesCompressed() throws Exception
+  {
+    ChunkedResponse response = new ChunkedResponse();
+    response.setContentEncoding("gzip");
+    response.readyToSend(this);
+    response.add(repeat(TEXT, 10));
+    response.flush();
+    int flushed = output.size();
+    response.add(repeat(TEXT, 10));
+    response.closeAll();
+
+    assertTrue(flushed > head().length());
+    assertTrue(head().contains("Content-Encoding: gzip\r\n"));
+    assertEquals(repeat(TEXT, 20), decompress(dechunk(body()), "gzip"));
+  }
+}
@@ -0,0 +1,74 @@
+//- Copyright ©2009 Micah Martin.  All Rights Reserved
+//- MMHTTP and all included source files are distributed under terms of the GNU LGPL.
+
+package mmhttp.protocol;
+
+import mmhttp.util.BufferPool;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An entity body framed by Content-Length.  The stream ends after that many bytes.
+ */
+class ContentLengthInputStream extends EntityBodyInputStream
+{
+  private InputStream input;
+  private long length;
+  private long remaining;
+
+  /**
+   * @param input
+   * @param length - the Content-Length
+   */
+  ContentLengthInputStream(InputStream input, long length)
+  {
+    this.input = input;
+    this.length = length;
+    remaining = length;
+  }
+
+  public int read() throws IOException
+  {
+    if(remaining == 0)
+      return -1;
+    int b = input.read();
+    if(b == -1)
+      throw endedShort();
+    remaining--;
+    return b;
+  }
+
+  public int read(byte[] bytes, int offset, int length) throws IOException
+  {
+    if(length == 0)
+      return 0;
+    if(remaining == 0)
+      return -1;
+    int count = input.read(bytes, offset, (int) Math.min(length, remaining));
+    if(count == -1)
+      throw endedShort();
+    remaining -= count;
+    return count;
+  }
+
+  public int available() throws IOException
+  {
+    return (int) Math.min(input.available(), remaining);
+  }
+
+  long getBytesRead()
+  {
+    return length - remaining;
+  }
+
+  boolean skipRest(long limit, BufferPool pool) throws IOException
+  {
+    return remaining <= limit && super.skipRest(limit, pool);
+  }
+
+  private IOException endedShort()
+  {
+    return new IOException("The entity body ended " + remaining + " bytes short of its Content-Length");
+  }
+}
@@ -0,0 +1,59 @@
+//- Copyright ©2009 Micah Martin.  All Rights Reserved
+//- MMHTTP and all included source files are distributed under terms of the GNU LGPL.
+
+package mmhttp.protocol;
+
+import mmhttp.util.BufferPool;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+
+/**
+ * The entity body of a request, as framed by its Content-Length or its chunks.  The stream ends with the body, leaving
+ * whatever follows, such as the connection's next request, in the underlying stream.  Closing it doesn't close the
+ * underlying stream.
+ *
+ * @see ContentLengthInputStream
+ * @see ChunkedInputStream
+ */
+abstract class EntityBodyInputStream extends InputStream
+{
+  /**
+   * @return the number of bytes read from the underlying stream so far, framing included
+   */
+  abstract long getBytesRead();
+
+  /**
+   * @return the trailers that followed the body, with lower case names.  Empty until the body has been read to its end.
+   */
+  HashMap<String, String> getTrailers()
+  {
+    return new HashMap<String, String>();
+  }
+
+  /**
+   * Reads, and ignores, the rest of the body, unless there's more than limit bytes of it.
+   *
+   * @param limit
+   * @param pool - lends the buffer the body is read into
+   * @return true if the body was read to its end
+   * @throws IOException
+   */
+  boolean skipRest(long limit, BufferPool pool) throws IOException
+  {
+    byte[] buffer = pool.acquire();
+    try
+    {
+      long skipped = 0;
+      int count;
+      while(skipped <= limit && (count = read(buffer, 0, (int) Math.min(buffer.length, limit - skipped + 1))) != -1)
+        skipped += count;
+      return skipped <= limit;
+    }
+    finally
+    {
+      pool.release(buffer);
+    }
+  }
+}
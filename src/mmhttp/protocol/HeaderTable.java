@@ -0,0 +1,147 @@
+//- Copyright ©2009 Micah Martin.  All Rights Reserved
+//- MMHTTP and all included source files are distributed under terms of the GNU LGPL.
+
+package mmhttp.protocol;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+
+/**
+ * The headers of a request as they arrived: the raw bytes of the header lines and where each name and value lies
+ * within them.  A header is found by comparing its name with the raw bytes, and only its value is decoded, once.  The
+ * headers are put in a HashMap only when they're all asked for.
+ *
+ * When a header is repeated, the last value wins, as it would in a HashMap.
+ *
+ * @see RequestHeadParser
+ */
+class HeaderTable
+{
+  private static final String[] KNOWN_HEADERS = {"accept", "accept-charset", "accept-encoding", "accept-language",
+    "authorization", "cache-control", "connection", "content-length", "content-type", "cookie", "dnt", "expect", "host",
+    "if-match", "if-modified-since", "if-none-match", "if-range", "keep-alive", "origin", "pragma", "range", "referer",
+    "sec-fetch-dest", "sec-fetch-mode", "sec-fetch-site", "sec-fetch-user", "te", "transfer-encoding", "upgrade",
+    "upgrade-insecure-requests", "user-agent", "via", "x-forwarded-for", "x-requested-with"};
+  private static final String[][] knownHeadersByLength = indexByLength(KNOWN_HEADERS);
+
+  private byte[] bytes;
+  private int[] entries;
+  private int count;
+  private String[] values;
+
+  /**
+   * @param bytes - the header lines
+   * @param entries - for each header, the start and end of its name and then of its value within bytes
+   * @param count - the number of headers
+   */
+  HeaderTable(byte[] bytes, int[] entries, int count)
+  {
+    this.bytes = bytes;
+    this.entries = entries;
+    this.count = count;
+    values = new String[count];
+  }
+
+  /**
+   * @param name - in any case
+   * @return the value of the header, or null if the request doesn't have it
+   */
+  String get(String name)
+  {
+    for(int i = count - 1; i >= 0; i--)
+    {
+      if(nameMatches(i, name))
+        return value(i);
+    }
+    return null;
+  }
+
+  /**
+   * @return the number of headers, counting repeated headers once each time they appear
+   */
+  int size()
+  {
+    return count;
+  }
+
+  /**
+   * @return the headers keyed by lower case name
+   */
+  HashMap<String, String> toMap()
+  {
+    HashMap<String, String> headers = new HashMap<String, String>();
+    for(int i = 0; i < count; i++)
+      headers.put(name(i), value(i));
+    return headers;
+  }
+
+  private boolean nameMatches(int index, String name)
+  {
+    int start = entries[index * 4];
+    int end = entries[index * 4 + 1];
+    if(end - start != name.length())
+      return false;
+    for(int i = start; i < end; i++)
+    {
+      int b = bytes[i];
+      if(b >= 'A' && b <= 'Z')
+        b += 'a' - 'A';
+      int c = name.charAt(i - start);
+      if(c >= 'A' && c <= 'Z')
+        c += 'a' - 'A';
+      if(b != c)
+        return false;
+    }
+    return true;
+  }
+
+  private String name(int index)
+  {
+    int start = entries[index * 4];
+    int length = entries[index * 4 + 1] - start;
+    if(length < knownHeadersByLength.length)
+    {
+      for(String known : knownHeadersByLength[length])
+      {
+        if(nameMatches(index, known))
+          return known;
+      }
+    }
+    return new String(bytes, start, length, StandardCharsets.UTF_8).toLowerCase();
+  }
+
+  private String value(int index)
+  {
+    if(values[index] == null)
+    {
+      int start = entries[index * 4 + 2];
+      values[index] = new String(bytes, start, entries[index * 4 + 3] - start, StandardCharsets.UTF_8);
+    }
+    return values[index];
+  }
+
+  private static String[][] indexByLength(String[] names)
+  {
+    int longest = 0;
+    for(String name : names)
+      longest = Math.max(longest, name.length());
+    String[][] index = new String[longest + 1][];
+    for(int length = 0; length <= longest; length++)
+    {
+      int count = 0;
+      for(String name : names)
+      {
+        if(name.length() == length)
+          count++;
+      }
+      index[length] = new String[count];
+      count = 0;
+      for(String name : names)
+      {
+        if(name.length() == length)
+          index[length][count++] = name;
+      }
+    }
+    return index;
+  }
+}
@@ -0,0 +1,205 @@
+//- Copyright ©2009 Micah Martin.  All Rights Reserved
+//- MMHTTP and all included source files are distributed under terms of the GNU LGPL.
+
+package mmhttp.protocol;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+
+/**
+ * Writes the status line and headers of a Response as bytes, without going through a String.  Status lines are encoded
+ * once per status code.  The headers every response carries, Server, Connection and Content-Type among them, have
+ * their names and usual values encoded once as well.
+ *
+ * Each thread has its own HeaderWriter, and its buffer is reused from one response to the next.
+ *
+ * @see Response#makeHttpHeaderBytes
+ */
+class HeaderWriter
+{
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+  private static final byte[] COLON = {':', ' '};
+  private static final byte[] CRLF = {'\r', '\n'};
+  private static final int INITIAL_SIZE = 1024;
+  private static final int MAX_KEPT_SIZE = 16 * 1024;
+
+  private static final byte[][] statusLines = new byte[600][];
+  private static final HashMap<String, KnownHeader> knownHeaders = new HashMap<String, KnownHeader>();
+
+  static
+  {
+    for(int status = 100; status < statusLines.length; status++)
+    {
+      String reason = Response.getReasonPhrase(status);
+      if(!"Unknown Status".equals(reason))
+        statusLines[status] = encodeStatusLine(status, reason);
+    }
+    addKnownHeader("Server");
+    addKnownHeader("Date");
+    addKnownHeader("Connection", "keep-alive", "close");
+    addKnownHeader("Content-Type", Response.DEFAULT_CONTENT_TYPE);
+    addKnownHeader("Transfer-Encoding", "chunked");
+  }
+
+  private static final ThreadLocal<HeaderWriter> writers = new ThreadLocal<HeaderWriter>()
+  {
+    protected HeaderWriter initialValue()
+    {
+      return new HeaderWriter();
+    }
+  };
+
+  private byte[] bytes = new byte[INITIAL_SIZE];
+  private int length;
+
+  /**
+   * @return the calling thread's HeaderWriter, emptied
+   */
+  static HeaderWriter forThisThread()
+  {
+    HeaderWriter writer = writers.get();
+    writer.clear();
+    return writer;
+  }
+
+  void clear()
+  {
+    if(bytes.length > MAX_KEPT_SIZE)
+      bytes = new byte[INITIAL_SIZE];
+    length = 0;
+  }
+
+  void writeStatusLine(int status)
+  {
+    byte[] line = status >= 0 && status < statusLines.length ? statusLines[status] : null;
+    if(line == null)
+      line = encodeStatusLine(status, Response.getReasonPhrase(status));
+    write(line);
+  }
+
+  void writeHeader(String name, String value)
+  {
+    KnownHeader known = knownHeaders.get(name);
+    if(known != null)
+      write(known.line(value));
+    else
+    {
+      writeString(name);
+      write(COLON);
+      writeString(value);
+      write(CRLF);
+    }
+  }
+
+  /**
+   * Writes the blank line that ends the headers.
+   */
+  void writeEnd()
+  {
+    write(CRLF);
+  }
+
+  /**
+   * @return a view of the bytes written, valid until this writer is next used
+   */
+  ByteBuffer toByteBuffer()
+  {
+    return ByteBuffer.wrap(bytes, 0, length);
+  }
+
+  private void write(byte[] source)
+  {
+    ensureCapacity(source.length);
+    System.arraycopy(source, 0, bytes, length, source.length);
+    length += source.length;
+  }
+
+  private void writeString(String value)
+  {
+    int count = value.length();
+    ensureCapacity(count);
+    int start = length;
+    for(int i = 0; i < count; i++)
+    {
+      char c = value.charAt(i);
+      if(c >= 0x80)
+      {
+        length = start;
+        write(value.getBytes(UTF8));
+        return;
+      }
+      bytes[length++] = (byte) c;
+    }
+  }
+
+  private void ensureCapacity(int count)
+  {
+    if(length + count > bytes.length)
+    {
+      byte[] bigger = new byte[Math.max(length + count, bytes.length * 2)];
+      System.arraycopy(bytes, 0, bigger, 0, length);
+      bytes = bigger;
+    }
+  }
+
+  private static byte[] encodeStatusLine(int status, String reason)
+  {
+    return ("HTTP/1.1 " + status + " " + reason + "\r\n").getBytes(UTF8);
+  }
+
+  private static void addKnownHeader(String name, String... commonValues)
+  {
+    knownHeaders.put(name, new KnownHeader(name, commonValues));
+  }
+
+  /**
+   * A header whose name, and common values, are encoded in advance.  The last uncommon value encoded is remembered
+   * too, since it's usually the next one asked for.  The Server header rarely changes, and the Date header changes once
+   * a second.
+   */
+  private static class KnownHeader
+  {
+    private final String name;
+    private final HashMap<String, byte[]> commonLines = new HashMap<String, byte[]>();
+    private volatile EncodedLine last;
+
+    private KnownHeader(String name, String[] commonValues)
+    {
+      this.name = name;
+      for(String value : commonValues)
+        commonLines.put(value, encode(value));
+    }
+
+    private byte[] line(String value)
+    {
+      byte[] line = commonLines.get(value);
+      if(line != null)
+        return line;
+      EncodedLine encoded = last;
+      if(encoded == null || !encoded.value.equals(value))
+      {
+        encoded = new EncodedLine(value, encode(value));
+        last = encoded;
+      }
+      return encoded.line;
+    }
+
+    private byte[] encode(String value)
+    {
+      return (name + ": " + value + "\r\n").getBytes(UTF8);
+    }
+  }
+
+  private static class EncodedLine
+  {
+    private final String value;
+    private final byte[] line;
+
+    private EncodedLine(String value, byte[] line)
+    {
+      this.value = value;
+      this.line = line;
+    }
+  }
+}
@@ -0,0 +1,97 @@
+//- Copyright ©2009 Micah Martin.  All Rights Reserved
+//- MMHTTP and all included source files are distributed under terms of the GNU LGPL.
+
+package mmhttp.protocol;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+public class HeaderWriterTest extends Assert
+{
+  private HeaderWriter writer;
+
+  @Before
+  public void setUp() throws Exception
+  {
+    writer = HeaderWriter.forThisThread();
+  }
+
+  private String written() throws Exception
+  {
+    ByteBuffer bytes = writer.toByteBuffer();
+    return new String(bytes.array(), bytes.position(), bytes.remaining(), "UTF-8");
+  }
+
+  @Test
+  public void shouldWriteStatusLines() throws Exception
+  {
+    writer.writeStatusLine(404);
+    writer.writeStatusLine(299);
+
+    assertEquals("HTTP/1.1 404 Not Found\r\nHTTP/1.1 299 Unknown Status\r\n", written());
+  }
+
+  @Test
+  public void shouldWriteKnownAndOtherHeaders() throws Exception
+  {
+    writer.writeHeader("Connection", "keep-alive");
+    writer.writeHeader("Server", "MMHTTP");
+    writer.writeHeader("Server", "Other");
+    writer.writeHeader("X-Thing", "value");
+    writer.writeEnd();
+
+    assertEquals("Connection: keep-alive\r\nServer: MMHTTP\r\nServer: Other\r\nX-Thing: value\r\n\r\n", written());
+  }
+
+  @Test
+  public void shouldEncodeOtherCharactersAsUtf8() throws Exception
+  {
+    writer.writeHeader("X-Name", "café");
+
+    assertEquals("X-Name: café\r\n", written());
+    assertEquals(15, writer.toByteBuffer().remaining());
+  }
+
+  @Test
+  public void shouldGrowAndBeReused() throws Exception
+  {
+    StringBuffer value = new StringBuffer();
+    while(value.length() < 5000)
+      value.append("0123456789");
+    writer.writeHeader("X-Big", value.toString());
+    assertEquals("X-Big: " + value + "\r\n", written());
+
+    writer = HeaderWriter.forThisThread();
+    assertEquals(0, writer.toByteBuffer().remaining());
+  }
+
+  @Test
+  public void shouldMakeResponseHeaders() throws Exception
+  {
+    SimpleResponse response = new SimpleResponse(200, "hello");
+    response.addHeader("Connection", "close");
+    response.addStandardHeaders();
+
+    String headers = response.makeHttpHeaders();
+    assertTrue(headers.startsWith("HTTP/1.1 200 OK\r\n"));
+    assertTrue(headers.contains("Connection: close\r\n"));
+    assertTrue(headers.contains("Content-Type: text/html; charset=utf-8\r\n"));
+    assertTrue(headers.contains("Content-Length: 5\r\n"));
+    assertTrue(headers.endsWith("\r\n\r\n"));
+  }
+
+  @Test
+  public void shouldGiveResponseHeaderBytesTheirOwnArray() throws Exception
+  {
+    SimpleResponse response = new SimpleResponse(200, "hello");
+    byte[] bytes = response.makeHttpHeaderBytes();
+    String headers = new String(bytes, "UTF-8");
+    new SimpleResponse(404, "other").makeHttpHeaderBytes();
+
+    assertEquals(headers, new String(bytes, "UTF-8"));
+    assertEquals(headers, response.makeHttpHeaders());
+  }
+}
@@ -0,0 +1,80 @@
+//- Copyright ©2009 Micah Martin.  All Rights Reserved
+//- MMHTTP and all included source files are distributed under terms of the GNU LGPL.
+
+package mmhttp.protocol;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * Formats dates for HTTP headers, as in "Sun, 06 Nov 1994 08:49:37 GMT".
+ *
+ * A server-wide clock keeps the current date formatted.  It's formatted again at most once per second, by whichever
+ * thread first notices the second has changed, and published without locking.  Every Response gets its Date header
+ * from the clock.  Other dates are formatted with a SimpleDateFormat kept by each thread, since SimpleDateFormat is not
+ * thread safe and expensive to create.
+ */
+public class HttpDate
+{
+  private static volatile Tick current;
+
+  private static final ThreadLocal<SimpleDateFormat> formats = new ThreadLocal<SimpleDateFormat>()
+  {
+    protected SimpleDateFormat initialValue()
+    {
+      return Response.makeStandardHttpDateFormat();
+    }
+  };
+
+  /**
+   * @return the current date.  The same String is returned throughout each second.
+   */
+  public static String now()
+  {
+    return tick(System.currentTimeMillis() / 1000).text;
+  }
+
+  /**
+   * @param date
+   * @return the date, to the second, formatted for an HTTP header
+   */
+  public static String format(Date date)
+  {
+    return format(date.getTime());
+  }
+
+  /**
+   * @param millis - since the epoch
+   * @return the date, to the second, formatted for an HTTP header
+   */
+  public static String format(long millis)
+  {
+    Tick tick = current;
+    if(tick != null && tick.second == millis / 1000)
+      return tick.text;
+    return formats.get().format(new Date(millis));
+  }
+
+  private static Tick tick(long second)
+  {
+    Tick tick = current;
+    if(tick == null || tick.second != second)
+    {
+      tick = new Tick(second, formats.get().format(new Date(second * 1000)));
+      current = tick;
+    }
+    return tick;
+  }
+
+  private static class Tick
+  {
+    private final long second;
+    private final String text;
+
+    private Tick(long second, String text)
+    {
+      this.second = second;
+      this.text = text;
+    }
+  }
+}
@@ -0,0 +1,43 @@
+//- Copyright ©2009 Micah Martin.  All Rights Reserved
+//- MMHTTP and all included source files are distributed under terms of the GNU LGPL.
+
+package mmhttp.protocol;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Date;
+
+public class HttpDateTest extends Assert
+{
+  @Test
+  public void shouldFormatDatesForHeaders() throws Exception
+  {
+    assertEquals("Sun, 06 Nov 1994 08:49:37 GMT", HttpDate.format(784111777000L));
+    assertEquals("Sun, 06 Nov 1994 08:49:37 GMT", HttpDate.format(new Date(784111777999L)));
+  }
+
+  @Test
+  public void shouldKeepTheCurrentDate() throws Exception
+  {
+    String before = HttpDate.format(System.currentTimeMillis());
+    String now = HttpDate.now();
+    String after = HttpDate.format(System.currentTimeMillis());
+
+    assertTrue(now.equals(before) || now.equals(after));
+    assertTrue(now.endsWith(" GMT"));
+  }
+
+  @Test
+  public void shouldAddTheDateToResponses() throws Exception
+  {
+    SimpleResponse response = new SimpleResponse(200);
+    response.setLastModifiedHeader(new Date(784111777000L));
+    response.setExpiresHeader(new Date(784111837000L));
+    response.getBytes();
+
+    assertNotNull(response.getHeader("Date"));
+    assertEquals("Sun, 06 Nov 1994 08:49:37 GMT", response.getHeader("Last-Modified"));
+    assertEquals("Sun, 06 Nov 1994 08:50:37 GMT", response.getHeader("Expires"));
+  }
+}
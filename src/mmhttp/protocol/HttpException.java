@@ -3,11 +3,27 @@
 
 package mmhttp.protocol;
 
+/**
+ * A request the server can't accept.  The client is answered with the status, 400 Bad Request unless given another.
+ */
 public class HttpException extends Exception
 {
+	private int status = 400;
+
 	public HttpException(String message)
 	{
 		super(message);
 	}
 
+	public HttpException(String message, int status)
+	{
+		super(message);
+		this.status = status;
+	}
+
+	public int getStatus()
+	{
+		return status;
+	}
+
 }
@@ -0,0 +1,266 @@
+//- Copyright ©2009 Micah Martin.  All Rights Reserved
+//- MMHTTP and all included source files are distributed under terms of the GNU LGPL.
+
+package mmhttp.protocol;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+
+/**
+ * Assembles a Request from ByteBuffers as they arrive, for transports that can't afford to block a thread on each
+ * connection.  The parser keeps its state between calls to parse() and reports whether it needs more bytes or the
+ * request is complete.  The head is parsed as it arrives and the entity body, framed by Content-Length or by
+ * Transfer-Encoding: chunked, is collected in memory.  Chunks are decoded as they arrive, so only their data is held.
+ * Since the whole body is held, its size is limited by setMaxBodySize().  A larger Content-Length is refused with 413
+ * before any of the body is read, and a chunked body as soon as its decoded size would exceed the limit.  Bodies framed
+ * by any other transfer-coding can't be collected and are refused with 411 Length Required.
+ *
+ * The completed Request has its head parsed.  Calling parse() on it handles the entity body, form inputs and multipart
+ * content, just as it does for a Request read from a stream.  Call reset() before parsing the next request on the
+ * connection.
+ */
+public class IncrementalRequestParser
+{
+  public static final int NEED_MORE = 0;
+  public static final int COMPLETE = 1;
+
+  private static final byte[] NO_BODY = new byte[0];
+  private static final int INITIAL_BODY_SIZE = 8 * 1024;
+  private static final int MAX_BODY_SIZE = Integer.MAX_VALUE - 8;
+
+  private static final int CHUNK_SIZE = 0;
+  private static final int CHUNK_DATA = 1;
+  private static final int CHUNK_END = 2;
+  private static final int TRAILER = 3;
+  private static final int CHUNKS_COMPLETE = 4;
+
+  private RequestHeadParser head = new RequestHeadParser();
+  private long maxBodySize = MAX_BODY_SIZE;
+  private int contentLength;
+  private byte[] body;
+  private int bodyLength;
+  private long bytesParsed;
+  private boolean chunked;
+  private int chunkState;
+  private long chunkRemaining;
+  private byte[] line;
+  private int lineLength;
+  private HashMap<String, String> trailers;
+
+  /**
+   * Consumes bytes from the buffer up to the end of the request.  Bytes following the request, such as a pipelined
+   * request, are left in the buffer.
+   *
+   * @param buffer
+   * @return NEED_MORE or COMPLETE
+   * @throws HttpException if the request is malformed or can't be accepted.  Its status says which.
+   */
+  public int parse(ByteBuffer buffer) throws HttpException
+  {
+    int start = buffer.position();
+    if(!head.isComplete())
+    {
+      head.parse(buffer);
+      if(head.isComplete())
+        startBody();
+    }
+    if(head.isComplete() && chunked)
+      decodeChunks(buffer);
+    else if(head.isComplete() && bodyLength < contentLength)
+    {
+      int count = Math.min(buffer.remaining(), contentLength - bodyLength);
+      ensureBodyCapacity(bodyLength + count);
+      buffer.get(body, bodyLength, count);
+      bodyLength += count;
+    }
+    bytesParsed += buffer.position() - start;
+    return isComplete() ? COMPLETE : NEED_MORE;
+  }
+
+  /**
+   * @return true once the head and the entity body have been consumed
+   */
+  public boolean isComplete()
+  {
+    if(chunked)
+      return chunkState == CHUNKS_COMPLETE;
+    return head.isComplete() && bodyLength == contentLength;
+  }
+
+  /**
+   * @return true once the head has been consumed.  getHead() may then be asked about the request.
+   */
+  public boolean isHeadComplete()
+  {
+    return head.isComplete();
+  }
+
+  public RequestHeadParser getHead()
+  {
+    return head;
+  }
+
+  /**
+   * @param maxBodySize - the largest entity body, in bytes, that will be collected.  -1 means the largest array.
+   * Default: the largest array.
+   */
+  public void setMaxBodySize(long maxBodySize)
+  {
+    this.maxBodySize = maxBodySize < 0 ? MAX_BODY_SIZE : Math.min(maxBodySize, MAX_BODY_SIZE);
+  }
+
+  /**
+   * @return the number of bytes of the current request consumed so far
+   */
+  public long numberOfBytesParsed()
+  {
+    return bytesParsed;
+  }
+
+  /**
+   * Creates the completed Request.
+   *
+   * @return Request, with its head parsed and its entity body waiting to be parsed
+   * @throws Exception
+   */
+  public Request getRequest() throws Exception
+  {
+    Request request = new Request(new ByteArrayInputStream(body, 0, bodyLength));
+    request.setHead(head);
+    if(chunked)
+      request.setDecodedBody(bodyLength, trailers);
+    return request;
+  }
+
+  /**
+   * Prepares for the next request on the connection.
+   */
+  public void reset()
+  {
+    head.reset();
+    contentLength = 0;
+    body = null;
+    bodyLength = 0;
+    bytesParsed = 0;
+    chunked = false;
+    chunkState = CHUNK_SIZE;
+    chunkRemaining = 0;
+    lineLength = 0;
+    trailers = null;
+  }
+
+  private void startBody() throws HttpException
+  {
+    String transferEncoding = head.getHeader("Transfer-Encoding");
+    if(transferEncoding != null)
+    {
+      if(!transferEncoding.trim().equalsIgnoreCase("chunked"))
+        throw new HttpException("The " + transferEncoding + " transfer-coding is not supported", 411);
+      chunked = true;
+      if(line == null)
+        line = new byte[ChunkedInputStream.MAX_LINE_LENGTH + 1];
+      trailers = new HashMap<String, String>();
+      body = new byte[(int) Math.min(maxBodySize, INITIAL_BODY_SIZE)];
+      return;
+    }
+    String length = head.getHeader("Content-Length");
+    if(length == null)
+    {
+      contentLength = 0;
+      body = NO_BODY;
+      return;
+    }
+    long size;
+    try
+    {
+      size = Long.parseLong(length.trim());
+    }
+    catch(NumberFormatException e)
+    {
+      size = -1;
+    }
+    if(size < 0)
+      throw new HttpException("The Content-Length of the request is invalid");
+    if(size > maxBodySize)
+      throw new HttpException("The entity body of the request is larger than " + maxBodySize + " bytes", 413);
+    contentLength = (int) size;
+    body = contentLength == 0 ? NO_BODY : new byte[Math.min(contentLength, INITIAL_BODY_SIZE)];
+  }
+
+  /**
+   * Decodes chunks up to the end of the trailers.  Chunk data is taken in bulk; the lines between chunks are taken a
+   * byte at a time and checked once complete.
+   */
+  private void decodeChunks(ByteBuffer buffer) throws HttpException
+  {
+    while(buffer.hasRemaining() && chunkState != CHUNKS_COMPLETE)
+    {
+      if(chunkState == CHUNK_DATA)
+      {
+        int count = (int) Math.min(buffer.remaining(), chunkRemaining);
+        ensureBodyCapacity(bodyLength + count);
+        buffer.get(body, bodyLength, count);
+        bodyLength += count;
+        chunkRemaining -= count;
+        if(chunkRemaining == 0)
+          chunkState = CHUNK_END;
+      }
+      else
+      {
+        byte b = buffer.get();
+        if(b == '\n')
+          endLine();
+        else if(lineLength == line.length)
+          throw new HttpException("A line of the chunked entity body is too long");
+        else
+          line[lineLength++] = b;
+      }
+    }
+  }
+
+  private void endLine() throws HttpException
+  {
+    if(lineLength == 0 || line[lineLength - 1] != '\r')
+      throw new HttpException("The chunked entity body is malformed");
+    String text = new String(line, 0, lineLength - 1, StandardCharsets.ISO_8859_1);
+    lineLength = 0;
+    if(chunkState == CHUNK_SIZE)
+    {
+      chunkRemaining = ChunkedInputStream.parseChunkSize(text);
+      if(chunkRemaining == -1)
+        throw new HttpException("The chunked entity body is malformed");
+      if(chunkRemaining > maxBodySize - bodyLength)
+        throw new HttpException("The entity body of the request is larger than " + maxBodySize + " bytes", 413);
+      chunkState = chunkRemaining == 0 ? TRAILER : CHUNK_DATA;
+    }
+    else if(chunkState == CHUNK_END)
+    {
+      if(text.length() > 0)
+        throw new HttpException("The chunked entity body is malformed");
+      chunkState = CHUNK_SIZE;
+    }
+    else if(text.length() == 0)
+      chunkState = CHUNKS_COMPLETE;
+    else if(trailers.size() == ChunkedInputStream.MAX_TRAILERS)
+      throw new HttpException("The entity body has too many trailers");
+    else
+    {
+      int colon = text.indexOf(':');
+      if(colon > 0)
+        trailers.put(text.substring(0, colon).trim().toLowerCase(), text.substring(colon + 1).trim());
+    }
+  }
+
+  private void ensureBodyCapacity(int capacity)
+  {
+    if(capacity > body.length)
+    {
+      long limit = chunked ? maxBodySize : contentLength;
+      byte[] bigger = new byte[(int) Math.min(limit, Math.max(capacity, body.length * 2L))];
+      System.arraycopy(body, 0, bigger, 0, bodyLength);
+      body = bigger;
+    }
+  }
+}
@@ -0,0 +1,165 @@
+//- Copyright ©2009 Micah Martin.  All Rights Reserved
+//- MMHTTP and all included source files are distributed under terms of the GNU LGPL.
+
+package mmhttp.protocol;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+public class IncrementalRequestParserTest extends Assert
+{
+  private IncrementalRequestParser parser;
+
+  @Before
+  public void setUp() throws Exception
+  {
+    parser = new IncrementalRequestParser();
+  }
+
+  private int parse(String text) throws Exception
+  {
+    return parser.parse(ByteBuffer.wrap(text.getBytes("UTF-8")));
+  }
+
+  @Test
+  public void shouldCompleteRequestsWithoutABody() throws Exception
+  {
+    assertEquals(IncrementalRequestParser.COMPLETE, parse("GET /page?key=value HTTP/1.1\r\nHost: here\r\n\r\n"));
+
+    Request request = parser.getRequest();
+    request.parse();
+    assertEquals("page", request.getResource());
+    assertEquals("here", request.getHeader("Host"));
+    assertEquals("value", request.getInput("key"));
+    assertEquals("HTTP/1.1", request.getHttpVersion());
+  }
+
+  @Test
+  public void shouldNeedMoreUntilTheBodyArrives() throws Exception
+  {
+    assertEquals(IncrementalRequestParser.NEED_MORE, parse("POST /page HTTP/1.1\r\nContent-"));
+    assertEquals(IncrementalRequestParser.NEED_MORE, parse("Length: 11\r\n\r\n"));
+    assertEquals(IncrementalRequestParser.NEED_MORE, parse("value="));
+    assertEquals(IncrementalRequestParser.COMPLETE, parse("three"));
+    assertEquals(54, parser.numberOfBytesParsed());
+
+    Request request = parser.getRequest();
+    request.parse();
+    assertEquals("value=three", request.getBody());
+    assertEquals("three", request.getInput("value"));
+  }
+
+  @Test
+  public void shouldLeavePipelinedBytesInTheBuffer() throws Exception
+  {
+    ByteBuffer buffer = ByteBuffer.wrap("GET /one HTTP/1.1\r\n\r\nGET /two HTTP/1.1\r\n\r\n".getBytes());
+    assertEquals(IncrementalRequestParser.COMPLETE, parser.parse(buffer));
+    assertEquals("one", parser.getRequest().getResource());
+
+    parser.reset();
+    assertEquals(0, parser.numberOfBytesParsed());
+    assertEquals(IncrementalRequestParser.COMPLETE, parser.parse(buffer));
+    assertEquals("two", parser.getRequest().getResource());
+    assertFalse(buffer.hasRemaining());
+  }
+
+  @Test
+  public void shouldParseFromDirectBuffers() throws Exception
+  {
+    byte[] bytes = "GET /direct HTTP/1.1\r\n\r\n".getBytes();
+    ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+    buffer.put(bytes).flip();
+
+    assertEquals(IncrementalRequestParser.COMPLETE, parser.parse(buffer));
+    assertEquals("direct", parser.getRequest().getResource());
+  }
+
+  @Test
+  public void shouldRejectInvalidContentLengths() throws Exception
+  {
+    try
+    {
+      parse("POST /page HTTP/1.1\r\nContent-Length: lots\r\n\r\n");
+      fail("should have thrown HttpException");
+    }
+    catch(HttpException e)
+    {
+      assertEquals("The Content-Length of the request is invalid", e.getMessage());
+    }
+  }
+
+  @Test
+  public void shouldDecodeChunkedBodies() throws Exception
+  {
+    assertEquals(IncrementalRequestParser.NEED_MORE, parse("POST /page HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\n"));
+    assertEquals(IncrementalRequestParser.NEED_MORE, parse("6;ext=1\r\nvalue="));
+    assertEquals(IncrementalRequestParser.NEED_MORE, parse("\r"));
+    assertEquals(IncrementalRequestParser.NEED_MORE, parse("\n5\r\nthree\r\n0\r\n"));
+    assertEquals(IncrementalRequestParser.NEED_MORE, parse("Checksum: abc\r\n"));
+    ByteBuffer buffer = ByteBuffer.wrap("\r\nGET /next HTTP/1.1\r\n\r\n".getBytes());
+    assertEquals(IncrementalRequestParser.COMPLETE, parser.parse(buffer));
+    assertEquals("GET /next HTTP/1.1\r\n\r\n", new String(buffer.array(), buffer.position(), buffer.remaining()));
+
+    Request request = parser.getRequest();
+    request.parse();
+    assertEquals("value=three", request.getBody());
+    assertEquals("three", request.getInput("value"));
+    assertEquals("abc", request.getTrailer("Checksum"));
+  }
+
+  @Test
+  public void shouldRejectMalformedChunks() throws Exception
+  {
+    checkRejected("POST /page HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\nxyz\r\n", 400);
+    checkRejected("POST /page HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\n3\r\nabcd\r\n", 400);
+    checkRejected("POST /page HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\n3\nabc", 400);
+  }
+
+  @Test
+  public void shouldRefuseBodiesThatCantBeFramed() throws Exception
+  {
+    checkRejected("POST /page HTTP/1.1\r\nTransfer-Encoding: gzip\r\n\r\n", 411);
+  }
+
+  @Test
+  public void shouldRefuseBodiesLargerThanTheLimit() throws Exception
+  {
+    parser.setMaxBodySize(10);
+    assertEquals(IncrementalRequestParser.COMPLETE, parse("POST /page HTTP/1.1\r\nContent-Length: 10\r\n\r\n0123456789"));
+
+    checkRejected("POST /page HTTP/1.1\r\nContent-Length: 11\r\n\r\n", 413);
+    checkRejected("POST /page HTTP/1.1\r\nContent-Length: 99999999999\r\n\r\n", 413);
+
+    parser.reset();
+    assertEquals(IncrementalRequestParser.COMPLETE, parse("POST /page HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\n" +
+      "4\r\n0123\r\n6\r\n456789\r\n0\r\n\r\n"));
+    checkRejected("POST /page HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\n4\r\n0123\r\n7\r\n", 413);
+  }
+
+  @Test
+  public void shouldReportWhenTheHeadIsComplete() throws Exception
+  {
+    assertEquals(IncrementalRequestParser.NEED_MORE, parse("POST /upload HTTP/1.1\r\nContent-Length: 5\r\n"));
+    assertFalse(parser.isHeadComplete());
+    assertEquals(IncrementalRequestParser.NEED_MORE, parse("\r\n12"));
+    assertTrue(parser.isHeadComplete());
+    assertEquals("upload", parser.getHead().getResource());
+  }
+
+  private void checkRejected(String text, int status) throws Exception
+  {
+    parser.reset();
+    try
+    {
+      parse(text);
+      fail("should have thrown HttpException");
+    }
+    catch(HttpException e)
+    {
+      assertEquals(status, e.getStatus());
+    }
+  }
+}
@@ -3,39 +3,106 @@
 
 package mmhttp.protocol;
 
-import mmsocketserver.StreamReader;
+import mmhttp.util.BufferPool;
 
 import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
 
 /**
  * A derivative of Response that is ideal for large data sets.  For example, if you have a large file that you wish to
  * transmit, using SimpleResponse would reqire that the entire file be loaded into memory.  Instead, use
- * InputStreamResponse and the data will be loaded and and transmitted in 1000 byte segments.
+ * InputStreamResponse and the data will be loaded and and transmitted in segments the size of the shared BufferPool's
+ * buffers.
+ *
+ * Files given to setBody(File) aren't loaded at all.  The ResponseSender transfers them straight to the socket.
+ *
+ * Files may also be served precompressed, from a sibling such as "app.js.gz", when the client accepts the coding.  See
+ * usePrecompressedFile().
+ *
+ * With a content encoding, the data is compressed as it's read and sent chunked, since its compressed size isn't known
+ * in advance.
  */
 public class InputStreamResponse extends Response
 {
-	private StreamReader reader;
+	private static final byte[] LAST_CHUNK = "0\r\n\r\n".getBytes();
+
+	private InputStream input;
+	private FileChannel file;
+	private File bodyFile;
 	private int contentSize = 0;
 
   /**
-   * This initiated the transmition of data.  Date will be read in 1000 bytes at a time and transmitted to the client.
+   * This initiated the transmition of data.  Data will be read a buffer at a time and transmitted to the client.
    *
    * @param sender
    * @throws Exception
    */
-	public void readyToSend(ResponseSender sender) throws Exception
+	public void readyToSend(ResponseSender plainSender) throws Exception
 	{
+		BulkResponseSender sender = ResponseSenderUtil.bulk(plainSender);
 		addStandardHeaders();
-		sender.send(makeHttpHeaders().getBytes());
-		while(!reader.isEof())
-			sender.send(reader.readBytes(1000));
-		reader.close();
+		sender.send(makeHttpHeaderBuffer());
+		if(getContentEncoding() != null)
+			sendCompressed(sender);
+		else if(file != null)
+		{
+			try
+			{
+				sender.send(file, 0, contentSize);
+			}
+			finally
+			{
+				file.close();
+			}
+		}
+		else
+		{
+			BufferPool pool = getBufferPool();
+			byte[] buffer = pool.acquire();
+			try
+			{
+				int bytesRead;
+				while((bytesRead = input.read(buffer)) != -1)
+					sender.send(buffer, 0, bytesRead);
+			}
+			finally
+			{
+				pool.release(buffer);
+				input.close();
+			}
+		}
 		sender.close();
 	}
 
+	private void sendCompressed(BulkResponseSender sender) throws Exception
+	{
+		InputStream source = file != null ? Channels.newInputStream(file) : input;
+		BufferPool pool = getBufferPool();
+		byte[] buffer = pool.acquire();
+		try
+		{
+			OutputStream output = Compression.newOutputStream(new ChunkedOutputStream(sender), getContentEncoding());
+			int bytesRead;
+			while((bytesRead = source.read(buffer)) != -1)
+				output.write(buffer, 0, bytesRead);
+			output.close();
+			sender.send(LAST_CHUNK);
+		}
+		finally
+		{
+			pool.release(buffer);
+			source.close();
+		}
+	}
+
 	protected void addSpecificHeaders()
 	{
-		addHeader("Content-Length", getContentSize() + "");
+		if(getContentEncoding() != null)
+			addHeader("Transfer-Encoding", "chunked");
+		else
+			addHeader("Content-Length", getContentSize() + "");
 	}
 
   /**
@@ -55,7 +122,9 @@ public class InputStreamResponse extends Response
    */
 	public void setBody(InputStream input, int size)
 	{
-		reader = new StreamReader(input);
+		this.input = input;
+		file = null;
+		bodyFile = null;
 		contentSize = size;
 	}
 
@@ -68,7 +137,44 @@ public class InputStreamResponse extends Response
 	public void setBody(File file) throws Exception
 	{
 		FileInputStream input = new FileInputStream(file);
-		int size = (int)file.length();
-		setBody(input, size);
+		this.file = input.getChannel();
+		contentSize = (int)file.length();
+		bodyFile = file;
+	}
+
+  /**
+   * Sends a precompressed copy of the file given to setBody(File) in its place, if the client accepts its coding.  The
+   * copies are looked for beside the file: "app.js.br" for brotli and "app.js.gz" for gzip.  Brotli is preferred when
+   * the client accepts both equally.  Copies older than the file are ignored.  The Content-Type is left as it is and
+   * the Content-Encoding header is set.  Accept-Encoding is added to the Vary header whenever there is a copy, since
+   * other clients may get a different body.
+   *
+   * @param acceptEncoding - the request's Accept-Encoding header, perhaps null
+   * @return true if a precompressed copy will be sent
+   * @throws Exception
+   */
+	public boolean usePrecompressedFile(String acceptEncoding) throws Exception
+	{
+		if(bodyFile == null || getHeader("Content-Encoding") != null || getContentEncoding() != null)
+			return false;
+		ArrayList<String> available = new ArrayList<String>();
+		for(String encoding : new String[]{Compression.BROTLI, Compression.GZIP})
+		{
+			if(Compression.findPrecompressed(bodyFile, encoding) != null)
+				available.add(encoding);
+		}
+		if(available.isEmpty())
+			return false;
+		Compression.varyOnAcceptEncoding(this);
+		String encoding = Compression.chooseEncoding(acceptEncoding, available.toArray(new String[available.size()]));
+		File precompressed = encoding == null ? null : Compression.findPrecompressed(bodyFile, encoding);
+		if(precompressed == null)
+			return false;
+		File original = bodyFile;
+		file.close();
+		setBody(precompressed);
+		bodyFile = original;
+		addHeader("Content-Encoding", encoding);
+		return true;
 	}
 }
@@ -5,6 +5,7 @@ package mmhttp.protocol;
 
 import java.io.*;
 import java.net.Socket;
+import java.nio.channels.FileChannel;
 import mmhttp.util.FileUtil;
 import junit.framework.TestCase;
 import static mmhttp.testutil.RegexTest.*;
@@ -27,6 +28,8 @@ public class InputStreamResponseTest extends TestCase implements ResponseSender
 	public void tearDown() throws Exception
 	{
 		FileUtil.deleteFile(testFile);
+		FileUtil.deleteFile(new File(testFile.getPath() + ".gz"));
+		FileUtil.deleteFile(new File(testFile.getPath() + ".br"));
 	}
 
 	public void testSimpleUsage() throws Exception
@@ -55,6 +58,72 @@ public class InputStreamResponseTest extends TestCase implements ResponseSender
 		assertEquals("content", result.getBody());
 	}
 
+	public void testFileIsHandedToTheSenderWhole() throws Exception
+	{
+		FileUtil.createFile(testFile, "content");
+		final long[] transferred = new long[1];
+		MockResponseSender sender = new MockResponseSender()
+		{
+			public void send(FileChannel file, long position, long count) throws Exception
+			{
+				transferred[0] += count;
+				super.send(file, position, count);
+			}
+		};
+		response.setBody(testFile);
+		sender.doSending(response);
+
+		assertEquals(7, transferred[0]);
+		assertEquals("content", new ResponseParser(new ByteArrayInputStream(sender.sentData().getBytes("UTF-8"))).getBody());
+	}
+
+	public void testWithPrecompressedFile() throws Exception
+	{
+		FileUtil.createFile(testFile, "content");
+		File gzipped = new File(testFile.getPath() + ".gz");
+		FileUtil.createFile(gzipped, "zipped");
+		response.setBody(testFile);
+		response.addHeader("Vary", "Cookie");
+
+		assertTrue(response.usePrecompressedFile("gzip, deflate"));
+		response.readyToSend(this);
+
+		ResponseParser result = new ResponseParser(new ByteArrayInputStream(output.toByteArray()));
+		assertEquals("gzip", result.getHeader("Content-Encoding"));
+		assertEquals("Cookie, Accept-Encoding", result.getHeader("Vary"));
+		assertEquals("6", result.getHeader("Content-Length"));
+		assertEquals("zipped", result.getBody());
+	}
+
+	public void testPrecompressedFileNotUsedUnlessAccepted() throws Exception
+	{
+		FileUtil.createFile(testFile, "content");
+		FileUtil.createFile(new File(testFile.getPath() + ".br"), "brotli");
+		response.setBody(testFile);
+
+		assertFalse(response.usePrecompressedFile("gzip"));
+		assertFalse(response.usePrecompressedFile(null));
+		response.readyToSend(this);
+
+		ResponseParser result = new ResponseParser(new ByteArrayInputStream(output.toByteArray()));
+		assertFalse(result.hasHeader("Content-Encoding"));
+		assertEquals("Accept-Encoding", result.getHeader("Vary"));
+		assertEquals("content", result.getBody());
+	}
+
+	public void testStalePrecompressedFileIgnored() throws Exception
+	{
+		File gzipped = new File(testFile.getPath() + ".gz");
+		FileUtil.createFile(gzipped, "zipped");
+		FileUtil.createFile(testFile, "content");
+		gzipped.setLastModified(testFile.lastModified() - 10000);
+		response.setBody(testFile);
+
+		assertFalse(response.usePrecompressedFile("gzip"));
+		response.readyToSend(this);
+		assertEquals("content", new ResponseParser(new ByteArrayInputStream(output.toByteArray())).getBody());
+	}
+
 	public void testWithLargeFile() throws Exception
 	{
 		writeLinesToFile(1000);
@@ -0,0 +1,100 @@
+//- Copyright ©2009 Micah Martin.  All Rights Reserved
+//- MMHTTP and all included source files are distributed under terms of the GNU LGPL.
+
+package mmhttp.protocol;
+
+import mmhttp.util.BufferPool;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Sends content that's already in memory outside the heap, typically a file mapped by MappedFileCache.  The buffer is
+ * written to the socket as it is, without being copied into a byte array first.
+ *
+ * With a content encoding, the content is compressed as it's sent, in chunks.
+ *
+ * @see mmhttp.util.MappedFileCache
+ */
+public class MappedFileResponse extends Response
+{
+  private static final byte[] LAST_CHUNK = "0\r\n\r\n".getBytes();
+
+  private ByteBuffer body = ByteBuffer.allocate(0);
+
+  /**
+   * Default constructor with no configuration.
+   */
+  public MappedFileResponse()
+  {
+  }
+
+  /**
+   * A convenience constructor that sets the body.
+   * @param body
+   */
+  public MappedFileResponse(ByteBuffer body)
+  {
+    setBody(body);
+  }
+
+  /**
+   * Sets the body to the remaining bytes of the buffer.  The buffer's position and limit are left alone.
+   * @param body
+   */
+  public void setBody(ByteBuffer body)
+  {
+    this.body = body.duplicate();
+  }
+
+  public void readyToSend(ResponseSender plainSender) throws Exception
+  {
+    BulkResponseSender sender = ResponseSenderUtil.bulk(plainSender);
+    addStandardHeaders();
+    sender.send(makeHttpHeaderBuffer());
+    ByteBuffer content = body.duplicate();
+    if(getContentEncoding() != null)
+      sendCompressed(content, sender);
+    else
+      sender.send(content);
+    sender.close();
+  }
+
+  private void sendCompressed(ByteBuffer content, BulkResponseSender sender) throws Exception
+  {
+    BufferPool pool = getBufferPool();
+    byte[] buffer = pool.acquire();
+    try
+    {
+      OutputStream output = Compression.newOutputStream(new ChunkedOutputStream(sender), getContentEncoding());
+      while(content.hasRemaining())
+      {
+        int length = Math.min(buffer.length, content.remaining());
+        content.get(buffer, 0, length);
+        output.write(buffer, 0, length);
+      }
+      output.close();
+      sender.send(LAST_CHUNK);
+    }
+    finally
+    {
+      pool.release(buffer);
+    }
+  }
+
+  protected void addSpecificHeaders()
+  {
+    if(getContentEncoding() != null)
+      addHeader("Transfer-Encoding", "chunked");
+    else
+      addHeader("Content-Length", String.valueOf(getContentSize()));
+  }
+
+  /**
+   * @return the number of bytes in the body
+   */
+  public int getContentSize()
+  {
+    return body.remaining();
+  }
+}
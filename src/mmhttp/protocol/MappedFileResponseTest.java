@@ -0,0 +1,54 @@
+//- Copyright ©2009 Micah Martin.  All Rights Reserved
+//- MMHTTP and all included source files are distributed under terms of the GNU LGPL.
+
+package mmhttp.protocol;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+
+public class MappedFileResponseTest extends Assert
+{
+  private MockResponseSender sender;
+  private ByteBuffer content;
+
+  @Before
+  public void setUp() throws Exception
+  {
+    sender = new MockResponseSender();
+    content = ByteBuffer.allocateDirect(100);
+    content.put("the mapped content".getBytes());
+    content.flip();
+  }
+
+  @Test
+  public void shouldSendTheBuffer() throws Exception
+  {
+    MappedFileResponse response = new MappedFileResponse(content);
+    response.readyToSend(sender);
+
+    ResponseParser result = new ResponseParser(new ByteArrayInputStream(sender.socket.getOutput().getBytes()));
+    assertEquals(200, result.getStatus());
+    assertEquals("18", result.getHeader("Content-Length"));
+    assertEquals("the mapped content", result.getBody());
+    assertEquals(0, content.position());
+    assertTrue(sender.closed);
+  }
+
+  @Test
+  public void shouldSendCompressedInChunks() throws Exception
+  {
+    MappedFileResponse response = new MappedFileResponse(content);
+    response.setContentEncoding("gzip");
+    response.readyToSend(sender);
+
+    String head = sender.socket.getOutput().split("\r\n\r\n")[0];
+    assertTrue(head.contains("Transfer-Encoding: chunked"));
+    assertTrue(head.contains("Content-Encoding: gzip"));
+    assertFalse(head.contains("Content-Length"));
+    assertTrue(sender.closed);
+  }
+}
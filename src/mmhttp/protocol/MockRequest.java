@@ -32,6 +32,11 @@ public class MockRequest extends Request
 		requestLine = value;
 	}
 
+	public void setHttpVersion(String value)
+	{
+		httpVersion = value;
+	}
+
 	public void setResource(String value)
 	{
 		resource = value;
@@ -45,17 +50,17 @@ public class MockRequest extends Request
 	public void setQueryString(String value)
 	{
 		queryString = value;
-		parseQueryString(value);
+		addEncodedInputs(value);
 	}
 
 	public void addInput(String key, Object value)
 	{
-		inputs.put(key, value);
+		getInputs().put(key, value);
 	}
 
 	public void addHeader(String key, String value)
 	{
-		headers.put(key.toLowerCase(), value);
+		getHeaders().put(key.toLowerCase(), value);
 	}
 
 	public void throwExceptionOnParse(Exception e)
@@ -75,6 +80,10 @@ public class MockRequest extends Request
 
 	}
 
+	public void parseHead() throws Exception
+	{
+	}
+
 	public void parse() throws Exception
 	{
 		if(parseException != null)
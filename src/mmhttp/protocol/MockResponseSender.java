@@ -6,8 +6,11 @@ package mmhttp.protocol;
 import mmsocketserver.MockSocket;
 
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
 
-public class MockResponseSender implements ResponseSender
+public class MockResponseSender implements BulkResponseSender
 {
 	public MockSocket socket;
 	public boolean closed = false;
@@ -28,6 +31,25 @@ public class MockResponseSender implements ResponseSender
 		socket.getOutputStream().write(bytes);
 	}
 
+	public void send(byte[] bytes, int offset, int length) throws Exception
+	{
+		send(Arrays.copyOfRange(bytes, offset, offset + length));
+	}
+
+	public void send(FileChannel file, long position, long count) throws Exception
+	{
+		ResponseSenderUtil.copy(file, position, count, this);
+	}
+
+	public void send(ByteBuffer... buffers) throws Exception
+	{
+		ResponseSenderUtil.send(buffers, this);
+	}
+
+	public void flush() throws Exception
+	{
+	}
+
 	public void close() throws Exception
 	{
 		closed = true;
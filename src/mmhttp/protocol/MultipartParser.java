@@ -0,0 +1,285 @@
+//- Copyright ©2009 Micah Martin.  All Rights Reserved
+//- MMHTTP and all included source files are distributed under terms of the GNU LGPL.
+
+package mmhttp.protocol;
+
+import mmhttp.util.BufferPool;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Reads multipart/form-data content one part at a time, without holding any part in memory.  The content is read in
+ * bulk into a buffer, where the delimiter that ends each part is searched for.  Everything before a delimiter is handed
+ * out as the part's content; only the last few bytes of the buffer, which may hold the start of a delimiter, are held
+ * back until more is read.
+ *
+ * The search is Boyer-Moore-Horspool: the buffer byte under the end of the delimiter decides, from a table, how far the
+ * delimiter may slide along.  Bytes that don't occur in the delimiter slide it its whole length, so with boundaries of
+ * the usual length most of the content is never looked at.
+ *
+ * No more than length bytes are read from the input, so a connection's next request is left untouched.
+ */
+class MultipartParser
+{
+  private static final Pattern headerPattern = Pattern.compile("([^:]*): (.*)");
+  private static final int MINIMUM_BUFFER_SIZE = 1024;
+
+  private InputStream input;
+  private long remaining;
+  private byte[] delimiter;
+  private int[] skip = new int[256];
+  private byte[] buffer;
+  private BufferPool pool;
+  private int pos;
+  private int limit;
+  private int contentEnd;
+  private boolean atDelimiter;
+  private boolean inPart = true;
+  private boolean finished;
+  private long bytesRead;
+
+  /**
+   * @param input
+   * @param length - the number of bytes of multipart content, the Content-Length
+   * @param boundary - the boundary parameter of the Content-Type
+   * @param pool - lends the buffer, when its buffers are large enough
+   */
+  MultipartParser(InputStream input, long length, String boundary, BufferPool pool)
+  {
+    this.input = input;
+    remaining = length;
+    delimiter = ("\r\n--" + boundary).getBytes();
+    Arrays.fill(skip, delimiter.length);
+    for(int i = 0; i < delimiter.length - 1; i++)
+      skip[delimiter[i] & 0xff] = delimiter.length - 1 - i;
+    byte[] pooled = pool.acquire();
+    if(pooled.length >= Math.max(MINIMUM_BUFFER_SIZE, delimiter.length * 4))
+    {
+      buffer = pooled;
+      this.pool = pool;
+    }
+    else
+    {
+      pool.release(pooled);
+      buffer = new byte[Math.max(MINIMUM_BUFFER_SIZE, delimiter.length * 4)];
+    }
+    // The first boundary needn't follow a line break.  A virtual one lets it be found like the others.
+    buffer[0] = '\r';
+    buffer[1] = '\n';
+    limit = 2;
+  }
+
+  /**
+   * Skips whatever remains of the current part, or the preamble, and reads the headers of the next part.
+   *
+   * @return the headers of the next part, with lower case names, or null once the closing delimiter is reached
+   * @throws IOException
+   */
+  HashMap<String, String> nextPart() throws IOException
+  {
+    if(finished)
+      return null;
+    while(inPart && hasContent())
+      pos = contentEnd;
+    if(!request(2) || (buffer[pos] == '-' && buffer[pos + 1] == '-'))
+    {
+      finished = true;
+      return null;
+    }
+    readLine();
+    HashMap<String, String> headers = new HashMap<String, String>();
+    for(String line = readLine(); line.length() > 0; line = readLine())
+    {
+      Matcher match = headerPattern.matcher(line);
+      if(match.find())
+        headers.put(match.group(1).toLowerCase(), match.group(2));
+    }
+    inPart = true;
+    contentEnd = pos;
+    return headers;
+  }
+
+  /**
+   * @return a stream of the current part's content, which ends at the part's delimiter
+   */
+  InputStream getContent()
+  {
+    return new InputStream()
+    {
+      public int read() throws IOException
+      {
+        if(!inPart || !hasContent())
+          return -1;
+        return buffer[pos++] & 0xff;
+      }
+
+      public int read(byte[] bytes, int offset, int length) throws IOException
+      {
+        if(length == 0)
+          return 0;
+        if(!inPart || !hasContent())
+          return -1;
+        int count = Math.min(length, contentEnd - pos);
+        System.arraycopy(buffer, pos, bytes, offset, count);
+        pos += count;
+        return count;
+      }
+
+      public int available()
+      {
+        return inPart ? contentEnd - pos : 0;
+      }
+    };
+  }
+
+  /**
+   * @return the number of bytes read from the input so far
+   */
+  long getBytesRead()
+  {
+    return bytesRead;
+  }
+
+  /**
+   * Reads, and ignores, whatever follows the closing delimiter.
+   *
+   * @throws IOException
+   */
+  void skipEpilogue() throws IOException
+  {
+    pos = limit;
+    while(fill())
+      pos = limit;
+  }
+
+  /**
+   * Gives back the buffer.  The parser can't be used afterwards.
+   */
+  void close()
+  {
+    if(pool != null)
+      pool.release(buffer);
+    buffer = null;
+  }
+
+  private boolean hasContent() throws IOException
+  {
+    while(pos == contentEnd)
+    {
+      if(atDelimiter)
+      {
+        pos += delimiter.length;
+        contentEnd = pos;
+        atDelimiter = false;
+        inPart = false;
+        return false;
+      }
+      scan();
+    }
+    return true;
+  }
+
+  private void scan() throws IOException
+  {
+    while(true)
+    {
+      int found = indexOfDelimiter(pos, limit);
+      if(found != -1)
+      {
+        contentEnd = found;
+        atDelimiter = true;
+        return;
+      }
+      contentEnd = Math.max(pos, limit - delimiter.length + 1);
+      if(contentEnd > pos)
+        return;
+      if(!fill())
+        throw new IOException("The multipart content ended before its closing boundary");
+    }
+  }
+
+  private int indexOfDelimiter(int from, int to)
+  {
+    byte[] buffer = this.buffer;
+    byte[] delimiter = this.delimiter;
+    int[] skip = this.skip;
+    int last = delimiter.length - 1;
+    byte lastByte = delimiter[last];
+    for(int end = from + last; end < to; end += skip[buffer[end] & 0xff])
+    {
+      if(buffer[end] != lastByte)
+        continue;
+      int start = end - last;
+      int i = last - 1;
+      while(i >= 0 && buffer[start + i] == delimiter[i])
+        i--;
+      if(i < 0)
+        return start;
+    }
+    return -1;
+  }
+
+  private String readLine() throws IOException
+  {
+    while(true)
+    {
+      for(int i = pos; i < limit - 1; i++)
+      {
+        if(buffer[i] == '\r' && buffer[i + 1] == '\n')
+        {
+          String line = new String(buffer, pos, i - pos, "UTF-8");
+          pos = i + 2;
+          return line;
+        }
+      }
+      if(limit - pos == buffer.length)
+        throw new IOException("A multipart header line is too long");
+      if(!fill())
+        throw new IOException("The multipart content ended before its closing boundary");
+    }
+  }
+
+  private boolean request(int count) throws IOException
+  {
+    while(limit - pos < count)
+    {
+      if(!fill())
+        return false;
+    }
+    return true;
+  }
+
+  /**
+   * Moves the unread bytes to the front of the buffer and reads more after them.
+   *
+   * @return false if there's nothing more to read
+   * @throws IOException
+   */
+  private boolean fill() throws IOException
+  {
+    if(pos > 0)
+    {
+      System.arraycopy(buffer, pos, buffer, 0, limit - pos);
+      limit -= pos;
+      contentEnd -= pos;
+      pos = 0;
+    }
+    if(remaining == 0)
+      return false;
+    int count = input.read(buffer, limit, (int) Math.min(buffer.length - limit, remaining));
+    if(count == -1)
+    {
+      remaining = 0;
+      return false;
+    }
+    limit += count;
+    remaining -= count;
+    bytesRead += count;
+    return true;
+  }
+}
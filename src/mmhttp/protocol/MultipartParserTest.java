@@ -0,0 +1,147 @@
+//- Copyright ©2009 Micah Martin.  All Rights Reserved
+//- MMHTTP and all included source files are distributed under terms of the GNU LGPL.
+
+package mmhttp.protocol;
+
+import mmhttp.util.BufferPool;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+
+public class MultipartParserTest extends Assert
+{
+  @Test
+  public void shouldReadEachPartsHeadersAndContent() throws Exception
+  {
+    String content = "preamble\r\n" +
+      "--bob\r\n" +
+      "Content-Disposition: form-data; name=\"one\"\r\n" +
+      "\r\n" +
+      "first\r\n" +
+      "--bob  \r\n" +
+      "Content-Disposition: form-data; name=\"two\"; filename=\"two.txt\"\r\n" +
+      "Content-Type: text/plain\r\n" +
+      "\r\n" +
+      "second\r\n-not-the-boundary\r\n" +
+      "--bob--\r\n" +
+      "epilogue";
+    MultipartParser parser = new MultipartParser(new ByteArrayInputStream(content.getBytes()), content.length(), "bob", BufferPool.getShared());
+
+    HashMap<String, String> headers = parser.nextPart();
+    assertEquals("form-data; name=\"one\"", headers.get("content-disposition"));
+    assertEquals("first", read(parser.getContent()));
+
+    headers = parser.nextPart();
+    assertEquals("text/plain", headers.get("content-type"));
+    assertEquals("second\r\n-not-the-boundary", read(parser.getContent()));
+
+    assertNull(parser.nextPart());
+    parser.skipEpilogue();
+    assertEquals(content.length(), parser.getBytesRead());
+    parser.close();
+  }
+
+  @Test
+  public void shouldSkipContentThatIsNotRead() throws Exception
+  {
+    String content = "--bob\r\n\r\nignored\r\n--bob\r\n\r\nread\r\n--bob--";
+    MultipartParser parser = new MultipartParser(new ByteArrayInputStream(content.getBytes()), content.length(), "bob", BufferPool.getShared());
+
+    parser.nextPart();
+    parser.nextPart();
+    assertEquals("read", read(parser.getContent()));
+    assertNull(parser.nextPart());
+    parser.close();
+  }
+
+  @Test
+  public void shouldFindDelimitersAcrossReads() throws Exception
+  {
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    StringBuffer expected = new StringBuffer();
+    for(int i = 0; i < 20000; i++)
+      expected.append(i % 7 == 0 ? "\r\n--bo" : "x");
+    body.write("--boundary\r\n\r\n".getBytes());
+    body.write(expected.toString().getBytes());
+    body.write("\r\n--boundary--\r\n".getBytes());
+    byte[] bytes = body.toByteArray();
+    InputStream trickle = new ByteArrayInputStream(bytes)
+    {
+      public synchronized int read(byte[] buffer, int offset, int length)
+      {
+        return super.read(buffer, offset, Math.min(length, 333));
+      }
+    };
+    MultipartParser parser = new MultipartParser(trickle, bytes.length, "boundary", BufferPool.getShared());
+
+    parser.nextPart();
+    assertEquals(expected.toString(), read(parser.getContent()));
+    assertNull(parser.nextPart());
+    parser.close();
+  }
+
+  @Test
+  public void shouldFindDelimitersAfterPartialMatches() throws Exception
+  {
+    String value = "\r\n--aba\r\n--abaab--ab\r\n-\r\n--abaX";
+    String content = "--abab\r\n\r\n" + value + "\r\n--abab\r\n\r\nnext\r\n--abab--";
+    MultipartParser parser = new MultipartParser(new ByteArrayInputStream(content.getBytes()), content.length(), "abab", BufferPool.getShared());
+
+    parser.nextPart();
+    assertEquals(value, read(parser.getContent()));
+    parser.nextPart();
+    assertEquals("next", read(parser.getContent()));
+    assertNull(parser.nextPart());
+    parser.close();
+  }
+
+  @Test
+  public void shouldNotReadBeyondTheContentLength() throws Exception
+  {
+    String content = "--bob\r\n\r\nvalue\r\n--bob--\r\n";
+    ByteArrayInputStream input = new ByteArrayInputStream((content + "GET /next HTTP/1.1\r\n\r\n").getBytes());
+    MultipartParser parser = new MultipartParser(input, content.length(), "bob", BufferPool.getShared());
+
+    parser.nextPart();
+    assertEquals("value", read(parser.getContent()));
+    assertNull(parser.nextPart());
+    parser.skipEpilogue();
+    parser.close();
+
+    assertEquals("GET /next HTTP/1.1\r\n\r\n", read(input));
+  }
+
+  @Test
+  public void shouldComplainWhenTheClosingBoundaryIsMissing() throws Exception
+  {
+    String content = "--bob\r\n\r\ntruncated";
+    MultipartParser parser = new MultipartParser(new ByteArrayInputStream(content.getBytes()), content.length(), "bob", BufferPool.getShared());
+
+    parser.nextPart();
+    try
+    {
+      read(parser.getContent());
+      fail("should have thrown");
+    }
+    catch(IOException e)
+    {
+      assertEquals("The multipart content ended before its closing boundary", e.getMessage());
+    }
+    parser.close();
+  }
+
+  private static String read(InputStream input) throws IOException
+  {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    byte[] buffer = new byte[100];
+    int count;
+    while((count = input.read(buffer)) != -1)
+      output.write(buffer, 0, count);
+    return output.toString();
+  }
+}
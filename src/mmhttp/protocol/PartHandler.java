@@ -0,0 +1,32 @@
+//- Copyright ©2009 Micah Martin.  All Rights Reserved
+//- MMHTTP and all included source files are distributed under terms of the GNU LGPL.
+
+package mmhttp.protocol;
+
+import java.io.InputStream;
+
+/**
+ * Consumes the files uploaded in multipart content as they are parsed, instead of having them kept in memory or
+ * written to temp files.  A handler might, for example, pipe each file on to object storage.
+ *
+ * Give a Request its handler with Request.setPartHandler().  A Responder that implements PartHandler is given the
+ * files uploaded to it by the Server, once the request is authenticated.  That instance isn't necessarily the one that
+ * makes the response, so pass on what the response needs through the value returned for each file.
+ *
+ * @see Request#setPartHandler
+ */
+public interface PartHandler
+{
+  /**
+   * Called for each uploaded file, in the order they appear in the request.  The content stream ends with the file;
+   * whatever isn't read of it is skipped.  The stream must not be used once this method returns.
+   *
+   * @param name - the name of the input
+   * @param filename - the name of the file on the client
+   * @param contentType - the type of the file, perhaps null
+   * @param content
+   * @return the value of the input, as given by Request.getInput(name), or null to leave the input out
+   * @throws Exception
+   */
+  Object handlePart(String name, String filename, String contentType, InputStream content) throws Exception;
+}
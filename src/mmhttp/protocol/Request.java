@@ -3,13 +3,18 @@
 
 package mmhttp.protocol;
 
-import mmsocketserver.StreamReader;
+import mmhttp.util.BufferPool;
+import mmhttp.util.FileUtil;
+import mmhttp.util.HostNameCache;
 
 import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
 import java.util.*;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.net.URLDecoder;
+import java.net.InetAddress;
 
 /**
  * This class is one of the primary work horses of MM HTTP.  It parses incoming HTTP Requests and provided accessors
@@ -17,19 +22,27 @@ import java.net.URLDecoder;
  *
  * Although compliant to the HTTP 1.1 protocol, it is by no means complete.  For example, only the GET and POST
  * methods are supported.  But is does support multipart content and file uploads.
+ *
+ * Uploaded files are kept in memory up to the upload threshold, and in temp files beyond it.  A PartHandler may instead
+ * consume them as they are parsed.
+ *
+ * Parsing does as little as it can up front.  The headers are kept as raw bytes, and the inputs of the query string and
+ * form body as they were sent, until they're first asked for.  A Responder that never looks at them costs nothing.
+ *
+ * Other entity bodies are normally read into a String by parse().  With setStreamingBody(true) they're instead left in
+ * the stream, for the Responder to read through getBodyStream() or getBodyChannel().
+ *
+ * Entity bodies are framed by Content-Length, or by Transfer-Encoding: chunked, whose chunks are decoded as they're
+ * read.  Trailers that follow the chunks are kept apart from the headers.
  */
 public class Request
 {
-	private static final Pattern requestLinePattern = Pattern.compile("(\\p{Upper}+?) ([^\\s]+)");
-	private static final Pattern requestUriPattern = Pattern.compile("([^?]+)\\??(.*)");
-	private static final Pattern queryStringPattern = Pattern.compile("([^=]*)=?([^&]*)&?");
-	private static final Pattern headerPattern = Pattern.compile("([^:]*): (.*)");
+	private static final int HEAD_CHUNK_SIZE = 1024;
+	private static final int DEFAULT_UPLOAD_THRESHOLD = 64 * 1024;
 	private static final Pattern boundaryPattern = Pattern.compile("boundary=(.*)");
 	private static final Pattern multipartHeaderPattern = Pattern.compile("([^ =]+)=\\\"([^\"]*)\\\"");
 
-	private static Collection allowedMethods = buildAllowedMethodList();
-
-	protected StreamReader input;
+	protected BufferedInputStream bufferedInput;
 	protected String requestURI;
 	protected String resource;
 	protected String queryString;
@@ -37,23 +50,29 @@ public class Request
 	protected HashMap<String, String> headers = new HashMap<String, String>();
 	protected String entityBody = "";
 	protected String requestLine;
+	protected String httpVersion = "HTTP/1.0";
 	protected String authorizationUsername;
 	protected String authorizationPassword;
 	protected String remoteAddress;
 	protected String remoteHostName;
+	protected InetAddress remoteInetAddress;
+	protected HostNameCache hostNameCache;
 	protected String remoteInetAddressHostName;
 	private boolean hasBeenParsed;
+	private boolean headHasBeenParsed;
 	private long bytesParsed = 0;
+	private int uploadThreshold = DEFAULT_UPLOAD_THRESHOLD;
+	private File uploadDirectory;
+	private long maxBodySize = Long.MAX_VALUE;
+	private BufferPool bufferPool = BufferPool.getShared();
+	private PartHandler partHandler;
+	private HeaderTable headerTable;
+	private ArrayList<String> encodedInputs;
+	private boolean streamingBody;
+	private EntityBodyInputStream body;
+	private boolean bodyLeftInStream;
 
 
-	private static Set buildAllowedMethodList()
-	{
-		Set<String> methods = new HashSet<String>(20);
-		methods.add("GET");
-		methods.add("POST");
-		return methods;
-	}
-
 	protected Request()
 	{
 	}
@@ -67,145 +86,489 @@ public class Request
    */
 	public Request(InputStream input) throws Exception
 	{
-		this.input = new StreamReader(new BufferedInputStream(input));
+		if(input instanceof BufferedInputStream)
+			bufferedInput = (BufferedInputStream) input;
+		else
+			bufferedInput = new BufferedInputStream(input);
 	}
 
   /**
-   * Parses the request.
+   * Parses the request.  If the head was already parsed by an IncrementalRequestParser, only the entity body remains.
    *
    * @throws Exception
    */
 	public void parse() throws Exception
 	{
-		readAndParseRequestLine();
-		headers = parseHeaders(input);
+		parseHead();
 		parseEntityBody();
 		hasBeenParsed = true;
 	}
 
-	private void readAndParseRequestLine() throws Exception
+  /**
+   * Parses the request line and headers, leaving the entity body in the stream.  Does nothing if the head was already
+   * parsed.  parse() completes the request.
+   *
+   * @throws Exception
+   */
+	public void parseHead() throws Exception
 	{
-		requestLine = input.readLine();
-		Matcher match = requestLinePattern.matcher(requestLine);
-		checkRequestLine(match);
-		requestURI = match.group(2);
-		parseRequestUri(requestURI);
+		if(!headHasBeenParsed)
+			readHead();
 	}
 
-	private HashMap<String, String> parseHeaders(StreamReader reader) throws Exception
+  /**
+   * Reads the head in chunks, handing them to a RequestHeadParser.  Whatever is read beyond the end of the head is put
+   * back in the stream for the entity body.
+   */
+	private void readHead() throws Exception
 	{
-		HashMap<String, String> headers = new HashMap<String, String>();
-		String line = reader.readLine();
-		while(!"".equals(line))
+		RequestHeadParser parser = new RequestHeadParser();
+		byte[] chunk = new byte[HEAD_CHUNK_SIZE];
+		while(!parser.isComplete())
 		{
-			Matcher match = headerPattern.matcher(line);
-			if(match.find())
+			bufferedInput.mark(HEAD_CHUNK_SIZE);
+			int bytesRead = bufferedInput.read(chunk);
+			if(bytesRead == -1)
+			{
+				parser.endOfInput();
+				break;
+			}
+			int bytesConsumed = parser.parse(chunk, 0, bytesRead);
+			bytesParsed += bytesConsumed;
+			if(bytesConsumed < bytesRead)
 			{
-				String key = match.group(1);
-				String value = match.group(2);
-				headers.put(key.toLowerCase(), value);
+				bufferedInput.reset();
+				skip(bytesConsumed);
 			}
-			line = reader.readLine();
 		}
-		return headers;
+		setHead(parser);
 	}
 
-	private void parseEntityBody() throws Exception
+	private void skip(long count) throws IOException
+	{
+		while(count > 0)
+			count -= bufferedInput.skip(count);
+	}
+
+  /**
+   * Takes on the request line and headers from a parser that has completed the head.
+   *
+   * @param parser
+   */
+	void setHead(RequestHeadParser parser)
+	{
+		requestLine = parser.getRequestLine();
+		requestURI = parser.getRequestUri();
+		resource = parser.getResource();
+		queryString = parser.getQueryString();
+		if(parser.getHttpVersion() != null)
+			httpVersion = parser.getHttpVersion();
+		headerTable = parser.getHeaderTable();
+		addEncodedInputs(queryString);
+		headHasBeenParsed = true;
+	}
+
+  /**
+   * Takes on a chunked entity body that was decoded as it was collected.  The input then holds the data of the chunks,
+   * without their framing.
+   *
+   * @param length - the decoded size of the body
+   * @param trailers - those that followed the chunks, with lower case names
+   */
+	void setDecodedBody(int length, final HashMap<String, String> trailers)
 	{
-		if(hasHeader("Content-Length"))
+		body = new ContentLengthInputStream(bufferedInput, length)
 		{
-			String contentType = (String) getHeader("Content-Type");
-			if(contentType != null && contentType.startsWith("multipart/form-data"))
+			HashMap<String, String> getTrailers()
 			{
-				Matcher match = boundaryPattern.matcher(contentType);
-				match.find();
-				parseMultiPartContent(match.group(1));
-			}
-			else
-			{
-				entityBody = input.read(getContentLength());
-				parseQueryString(entityBody);
+				return trailers;
 			}
+		};
+	}
+
+	private void parseEntityBody() throws Exception
+	{
+		if(!hasEntityBody())
+			return;
+		body = openEntityBody();
+		if(isMultipart())
+		{
+			Matcher match = boundaryPattern.matcher(getHeader("Content-Type"));
+			match.find();
+			parseMultiPartContent(match.group(1));
+		}
+		else if(streamingBody && !isFormEncoded())
+			bodyLeftInStream = true;
+		else
+		{
+			entityBody = new String(readBody(), "UTF-8");
+			addEncodedInputs(entityBody);
 		}
 	}
 
+	private EntityBodyInputStream openEntityBody() throws Exception
+	{
+		if(body != null)
+			return body;
+		String transferEncoding = getHeader("Transfer-Encoding");
+		if(transferEncoding == null)
+			return new ContentLengthInputStream(bufferedInput, getContentLength());
+		else if(isChunked())
+			return new ChunkedInputStream(bufferedInput);
+		else
+			throw new HttpException("The " + transferEncoding + " transfer-coding is not supported", 411);
+	}
+
+  /**
+   * @return true if the request has an entity body, framed by either Content-Length or Transfer-Encoding
+   */
+	public boolean hasEntityBody()
+	{
+		return hasHeader("Content-Length") || hasHeader("Transfer-Encoding");
+	}
+
+  /**
+   * @return true if the entity body is sent in chunks, with Transfer-Encoding: chunked
+   */
+	public boolean isChunked()
+	{
+		String transferEncoding = getHeader("Transfer-Encoding");
+		return transferEncoding != null && transferEncoding.trim().equalsIgnoreCase("chunked");
+	}
+
   /**
    * @return Returns the number of bytes in the content of the request. (The value of the Content-Length header)
+   * Chunked entity bodies have no Content-Length.
    */
 	public int getContentLength()
 	{
 		return Integer.parseInt((String) getHeader("Content-Length"));
 	}
 
+  /**
+   * @return true if the entity body is multipart/form-data content, as is sent with file uploads
+   */
+	public boolean isMultipart()
+	{
+		String contentType = getHeader("Content-Type");
+		return contentType != null && contentType.startsWith("multipart/form-data");
+	}
+
+  /**
+   * @return true if the entity body is application/x-www-form-urlencoded
+   */
+	private boolean isFormEncoded()
+	{
+		String contentType = getHeader("Content-Type");
+		return contentType != null && contentType.toLowerCase().startsWith("application/x-www-form-urlencoded");
+	}
+
 	private void parseMultiPartContent(String boundary) throws Exception
 	{
-		boundary = "--" + boundary;
+		decodeInputs();
+		MultipartParser multipart = new MultipartParser(body, Long.MAX_VALUE, boundary, bufferPool);
+		try
+		{
+			HashMap<String, String> headers;
+			while((headers = multipart.nextPart()) != null)
+			{
+				String contentDisposition = headers.get("content-disposition");
+				if(contentDisposition == null)
+					continue;
+				Matcher matcher = multipartHeaderPattern.matcher(contentDisposition);
+				while(matcher.find())
+					headers.put(matcher.group(1), matcher.group(2));
+
+				String name = headers.get("name");
+				Object value;
+				if(headers.containsKey("filename"))
+					value = createUploadedFile(name, headers, multipart.getContent());
+				else
+					value = new String(readPart(multipart.getContent()), "UTF-8");
+
+				if(value != null)
+					inputs.put(name, value);
+			}
+			multipart.skipEpilogue();
+		}
+		finally
+		{
+			multipart.close();
+		}
+	}
 
-		int numberOfBytesToRead = getContentLength();
-		accumulateBytesReadAndReset();
-		input.readUpTo(boundary);
-		while(numberOfBytesToRead - input.numberOfBytesConsumed() > 10)
+	private byte[] readBody() throws Exception
+	{
+		if(!isChunked() && getContentLength() > maxBodySize)
+			throw bodyTooLarge();
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		byte[] buffer = bufferPool.acquire();
+		try
 		{
-			input.readLine();
-			HashMap<String, String> headers = parseHeaders(input);
-			String contentDisposition = headers.get("content-disposition");
-			Matcher matcher = multipartHeaderPattern.matcher(contentDisposition);
-			while(matcher.find())
-				headers.put(matcher.group(1), matcher.group(2));
-
-			String name = headers.get("name");
-			Object value;
-			if(headers.containsKey("filename"))
-				value = createUploadedFile(headers, input, boundary);
-			else
-				value = input.readUpTo("\r\n" + boundary);
+			int count;
+			while((count = body.read(buffer)) != -1)
+			{
+				if(output.size() + count > maxBodySize)
+					throw bodyTooLarge();
+				output.write(buffer, 0, count);
+			}
+		}
+		finally
+		{
+			bufferPool.release(buffer);
+		}
+		return output.toByteArray();
+	}
+
+	private HttpException bodyTooLarge()
+	{
+		return new HttpException("The entity body of the request is larger than " + maxBodySize + " bytes", 413);
+	}
+
+	private byte[] readPart(InputStream content) throws Exception
+	{
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		FileUtil.copyBytes(content, output, bufferPool);
+		return output.toByteArray();
+	}
 
-			inputs.put(name, value);
+  /**
+   * Hands the file to the PartHandler, if there is one.  Otherwise the file is kept in memory until it outgrows the
+   * upload threshold, when it's moved to a temp file.
+   */
+	private Object createUploadedFile(String name, HashMap<String, String> headers, InputStream content) throws Exception
+	{
+		String filename = headers.get("filename");
+		String contentType = headers.get("content-type");
+		if(partHandler != null)
+			return partHandler.handlePart(name, filename, contentType, content);
+
+		ByteArrayOutputStream memory = new ByteArrayOutputStream();
+		OutputStream output = memory;
+		File tempFile = null;
+		byte[] chunk = bufferPool.acquire();
+		try
+		{
+			int count;
+			while((count = content.read(chunk)) != -1)
+			{
+				if(tempFile == null && memory.size() + count > uploadThreshold)
+				{
+					tempFile = File.createTempFile("FitNesse", ".uploadedFile", uploadDirectory);
+					output = new FileOutputStream(tempFile);
+					memory.writeTo(output);
+				}
+				output.write(chunk, 0, count);
+			}
+			output.close();
+		}
+		catch(Exception e)
+		{
+			output.close();
+			if(tempFile != null)
+				tempFile.delete();
+			throw e;
+		}
+		finally
+		{
+			bufferPool.release(chunk);
 		}
+
+		if(tempFile != null)
+			return new UploadedFile(filename, contentType, tempFile);
+		else
+			return new UploadedFile(filename, contentType, memory.toByteArray(), uploadDirectory);
+	}
+
+  /**
+   * Uploaded files of up to this many bytes are kept in memory.  Larger files are written to temp files.
+   * Default: 64K.
+   *
+   * @param uploadThreshold
+   */
+	public void setUploadThreshold(int uploadThreshold)
+	{
+		this.uploadThreshold = uploadThreshold;
+	}
+
+	public int getUploadThreshold()
+	{
+		return uploadThreshold;
+	}
+
+  /**
+   * @param uploadDirectory - where the temp files of uploaded files are created.  null, the default, for the system's
+   * temp directory.
+   */
+	public void setUploadDirectory(File uploadDirectory)
+	{
+		this.uploadDirectory = uploadDirectory;
+	}
+
+	public File getUploadDirectory()
+	{
+		return uploadDirectory;
+	}
+
+  /**
+   * @param maxBodySize - the largest entity body, in bytes, that parse() reads into memory.  A larger one fails with an
+   * HttpException whose status is 413.  Bodies left in the stream and multipart content aren't limited.  -1 means no
+   * limit.  Default: no limit.
+   */
+	public void setMaxBodySize(long maxBodySize)
+	{
+		this.maxBodySize = maxBodySize < 0 ? Long.MAX_VALUE : maxBodySize;
+	}
+
+	public long getMaxBodySize()
+	{
+		return maxBodySize;
+	}
+
+  /**
+   * @param pool - the entity body, uploaded files and parts are read through buffers from this pool.  Default:
+   * BufferPool.getShared().
+   */
+	public void setBufferPool(BufferPool pool)
+	{
+		bufferPool = pool;
+	}
+
+  /**
+   * Has uploaded files handed to the PartHandler as they are parsed, rather than kept as UploadedFiles.  Must be set
+   * before parse() reads the entity body.
+   *
+   * @param partHandler
+   */
+	public void setPartHandler(PartHandler partHandler)
+	{
+		this.partHandler = partHandler;
+	}
+
+	public PartHandler getPartHandler()
+	{
+		return partHandler;
+	}
+
+  /**
+   * Has parse() leave the entity body in the stream, to be read through getBodyStream(), rather than read it into a
+   * String.  Bodies that are application/x-www-form-urlencoded, and multipart content, are parsed as usual.  Other
+   * bodies, including those without a Content-Type, are left in the stream.  Must be set before parse() reads the
+   * entity body.
+   *
+   * @param streamingBody
+   */
+	public void setStreamingBody(boolean streamingBody)
+	{
+		this.streamingBody = streamingBody;
 	}
 
-	private void accumulateBytesReadAndReset()
+	public boolean isStreamingBody()
 	{
-		bytesParsed += input.numberOfBytesConsumed();
-		input.resetNumberOfBytesConsumed();
+		return streamingBody;
 	}
 
-	private Object createUploadedFile(HashMap headers, StreamReader reader, String boundary) throws Exception
+  /**
+   * @return the entity body.  When it was left in the stream, the stream ends at the end of the body, or fails if the
+   * client stops short of it.  Chunks are decoded.  Otherwise it's read from getBody().
+   * @throws IOException
+   */
+	public InputStream getBodyStream() throws IOException
 	{
-		String filename = (String) headers.get("filename");
-		String contentType = (String) headers.get("content-type");
-		File tempFile = File.createTempFile("FitNesse", ".uploadedFile");
-		OutputStream output = new BufferedOutputStream(new FileOutputStream(tempFile));
-		reader.copyBytesUpTo("\r\n" + boundary, output);
-		output.close();
-		return new UploadedFile(filename, contentType, tempFile);
+		if(bodyLeftInStream)
+			return body;
+		return new ByteArrayInputStream(entityBody.getBytes("UTF-8"));
 	}
 
-	private void checkRequestLine(Matcher match) throws HttpException
+  /**
+   * @return getBodyStream() as a channel
+   * @throws IOException
+   */
+	public ReadableByteChannel getBodyChannel() throws IOException
 	{
-		if(!match.find())
-			throw new HttpException("The request string is malformed and can not be parsed");
-		if(!allowedMethods.contains(match.group(1)))
-			throw new HttpException("The " + match.group(1) + " method is not currently supported");
+		return Channels.newChannel(getBodyStream());
 	}
 
-	private void parseRequestUri(String requestUri)
+  /**
+   * Reads, and ignores, whatever the Responder left unread of an entity body left in the stream, so that the
+   * connection may carry another request.  A body with more than limit bytes left isn't worth reading; the connection
+   * should be closed instead.
+   *
+   * @param limit - the most bytes worth skipping
+   * @return true if the rest of the body was skipped
+   * @throws IOException
+   */
+	public boolean skipUnreadBody(long limit) throws IOException
 	{
-		Matcher match = requestUriPattern.matcher(requestUri);
-		match.find();
-		resource = stripLeadingSlash(match.group(1));
-		queryString = match.group(2);
-		parseQueryString(queryString);
+		return !bodyLeftInStream || body.skipRest(limit, bufferPool);
+	}
+
+  /**
+   * Trailers are headers sent after the chunks of a chunked entity body.  They arrive only once the body has been read
+   * to its end.
+   *
+   * @param key
+   * @return the value of the trailer, or null if the request doesn't have it
+   */
+	public String getTrailer(String key)
+	{
+		return getTrailers().get(key.toLowerCase());
+	}
+
+  /**
+   * @return the trailers of a chunked entity body, keyed by lower case name.  Empty until the body has been read to its
+   * end.
+   */
+	public HashMap<String, String> getTrailers()
+	{
+		if(body == null)
+			return new HashMap<String, String>();
+		return body.getTrailers();
+	}
+
+  /**
+   * Holds on to url encoded inputs, as in a query string or form body, to be decoded when inputs are first asked for.
+   * Later inputs replace earlier ones of the same name.
+   *
+   * @param encoded
+   */
+	protected void addEncodedInputs(String encoded)
+	{
+		if(encoded.length() == 0)
+			return;
+		if(encodedInputs == null)
+			encodedInputs = new ArrayList<String>(2);
+		encodedInputs.add(encoded);
+	}
+
+	private void decodeInputs()
+	{
+		if(encodedInputs == null)
+			return;
+		ArrayList<String> encoded = encodedInputs;
+		encodedInputs = null;
+		for(String text : encoded)
+			parseQueryString(text);
 	}
 
 	protected void parseQueryString(String queryString)
 	{
-		Matcher match = queryStringPattern.matcher(queryString);
-		while(match.find())
+		int start = 0;
+		int length = queryString.length();
+		while(start < length)
 		{
-			String key = match.group(1);
-			String value = decodeContent(match.group(2));
-			inputs.put(key, value);
+			int end = queryString.indexOf('&', start);
+			if(end == -1)
+				end = length;
+			if(end > start)
+			{
+				int equals = queryString.indexOf('=', start);
+				if(equals == -1 || equals > end)
+					inputs.put(queryString.substring(start, end), "");
+				else
+					inputs.put(queryString.substring(start, equals), decodeContent(queryString.substring(equals + 1, end)));
+			}
+			start = end + 1;
 		}
 	}
 
@@ -217,6 +580,42 @@ public class Request
 		return requestLine;
 	}
 
+  /**
+   * @return the HTTP version from the request line, ie. "HTTP/1.1".  Requests without a version are treated as
+   * "HTTP/1.0".
+   */
+	public String getHttpVersion()
+	{
+		return httpVersion;
+	}
+
+  /**
+   * Tells whether the client expects the connection to remain open after the response.  HTTP/1.1 connections are
+   * persistent unless the Connection header contains "close".  Older clients must ask for it with "keep-alive".
+   *
+   * @return true if the connection should persist
+   */
+	public boolean isKeepAlive()
+	{
+		String connection = getHeader("Connection");
+		if("HTTP/1.1".equals(httpVersion))
+			return !hasConnectionToken(connection, "close");
+		else
+			return hasConnectionToken(connection, "keep-alive");
+	}
+
+	private boolean hasConnectionToken(String connection, String token)
+	{
+		if(connection == null)
+			return false;
+		for(String value : connection.split(","))
+		{
+			if(value.trim().equalsIgnoreCase(token))
+				return true;
+		}
+		return false;
+	}
+
   /**
    * @return the Request Uri: the resource being requested + the query string.
    */
@@ -251,7 +650,7 @@ public class Request
    */
 	public boolean hasInput(String key)
 	{
-		return inputs.containsKey(key);
+		return getInputs().containsKey(key);
 	}
 
   /**
@@ -266,7 +665,7 @@ public class Request
    */
 	public Object getInput(String key)
 	{
-		return inputs.get(key);
+		return getInputs().get(key);
 	}
 
   /**
@@ -276,6 +675,7 @@ public class Request
    */
   public HashMap<String, Object> getInputs()
   {
+    decodeInputs();
     return inputs;
   }
 
@@ -285,7 +685,7 @@ public class Request
    */
 	public boolean hasHeader(String key)
 	{
-		return headers.containsKey(key.toLowerCase());
+		return getHeader(key) != null;
 	}
 
   /**
@@ -295,6 +695,8 @@ public class Request
    */
 	public String getHeader(String key)
 	{
+		if(headerTable != null)
+			return headerTable.get(key);
 		return headers.get(key.toLowerCase());
 	}
 
@@ -305,22 +707,23 @@ public class Request
    */
   public HashMap<String, String> getHeaders()
   {
+    if(headerTable != null)
+    {
+      headers = headerTable.toMap();
+      headerTable = null;
+    }
     return headers;
   }
 
   /**
-   * @return the entity body of the request.
+   * @return the entity body of the request, or "" if it was left in the stream.
+   * @see #setStreamingBody
    */
 	public String getBody()
 	{
 		return entityBody;
 	}
 
-	private String stripLeadingSlash(String url)
-	{
-		return url.substring(1);
-	}
-
   /**
    * @return a handy string representation of the request, useful for debugging
    */
@@ -332,11 +735,11 @@ public class Request
 		buffer.append("Resource:     ").append(resource).append("\n");
 		buffer.append("Query String: ").append(queryString).append("\n");
     buffer.append("Hearders: (");
-    buffer.append(headers.size());
+    buffer.append(getHeaders().size());
     buffer.append(")\n");
-    addMap(headers, buffer);
-    buffer.append("Form Inputs: (").append(inputs.size()).append(")\n");
-		addMap(inputs, buffer);
+    addMap(getHeaders(), buffer);
+    buffer.append("Form Inputs: (").append(getInputs().size()).append(")\n");
+		addMap(getInputs(), buffer);
 		buffer.append("Entity Body: ").append("\n");
 		buffer.append(entityBody).append("\n");
 		buffer.append("--- End Request ---\n");
@@ -456,7 +859,8 @@ public class Request
    */
 	public long numberOfBytesParsed()
 	{
-		return bytesParsed + input.numberOfBytesConsumed();
+		EntityBodyInputStream body = this.body;
+		return bytesParsed + (body == null ? 0 : body.getBytesRead());
 	}
 
 	public void setRemoteAddress(String remoteAddress)
@@ -469,8 +873,35 @@ public class Request
 		return remoteAddress;
 	}
 
+  /**
+   * Records the address of the client.  Its host name isn't looked up until getRemoteHostName() is called since a
+   * reverse DNS lookup can be slow.
+   *
+   * @param address
+   * @param cache - remembers host names between requests.  May be null.
+   */
+	public void setRemoteHost(InetAddress address, HostNameCache cache)
+	{
+		remoteAddress = address.getHostAddress();
+		remoteInetAddress = address;
+		hostNameCache = cache;
+		remoteHostName = null;
+	}
+
+  /**
+   * Looks up the client's host name the first time it's called.
+   *
+   * @return the host name of the client
+   */
 	public String getRemoteHostName()
 	{
+		if(remoteHostName == null && remoteInetAddress != null)
+		{
+			if(hostNameCache != null)
+				remoteHostName = hostNameCache.getHostName(remoteInetAddress);
+			else
+				remoteHostName = remoteInetAddress.getHostName();
+		}
 		return remoteHostName;
 	}
 
@@ -3,7 +3,8 @@
 
 package mmhttp.protocol;
 
-import mmsocketserver.StreamReader;
+import mmhttp.util.BufferPool;
+import mmhttp.util.FileUtil;
 
 import java.util.*;
 import java.net.URLEncoder;
@@ -26,6 +27,7 @@ public class RequestBuilder
 	private String boundary;
 	private boolean isMultipart = false;
 	private int bodyLength = 0;
+	private BufferPool bufferPool = BufferPool.getShared();
 
   /**
    * Contructs a new RequestBuilder with the specified resource.  This is sufficient for a minimal compliant HTTP
@@ -57,6 +59,15 @@ public class RequestBuilder
 		headers.put(key, value);
 	}
 
+  /**
+   * The body is copied to the output through buffers from this pool.  Default: BufferPool.getShared().
+   * @param pool
+   */
+	public void setBufferPool(BufferPool pool)
+	{
+		bufferPool = pool;
+	}
+
   /**
    * @return an HTTP 1.1 compliant string representation of the request.
    * @throws Exception
@@ -130,7 +141,10 @@ public class RequestBuilder
         Object value = inputs.get(name);
         StringBuffer partBuffer = new StringBuffer();
         partBuffer.append("--").append(getBoundary()).append("\r\n");
-        partBuffer.append("Content-Disposition: form-data; name=\"").append(name).append("\"").append("\r\n");
+        partBuffer.append("Content-Disposition: form-data; name=\"").append(name).append("\"");
+        if(value instanceof InputStreamPart && ((InputStreamPart) value).filename != null)
+          partBuffer.append("; filename=\"").append(((InputStreamPart) value).filename).append("\"");
+        partBuffer.append("\r\n");
         if(value instanceof InputStreamPart)
         {
           InputStreamPart part = (InputStreamPart) value;
@@ -167,14 +181,7 @@ public class RequestBuilder
 	private void sendBody(OutputStream output) throws Exception
 	{
     for(InputStream input : bodyParts)
-    {
-      StreamReader reader = new StreamReader(input);
-      while(!reader.isEof())
-      {
-        byte[] bytes = reader.readBytes(1000);
-        output.write(bytes);
-      }
-    }
+      FileUtil.copyBytes(input, output, bufferPool);
 	}
 
 	private void addHostHeader()
@@ -281,7 +288,23 @@ public class RequestBuilder
    */
 	public void addInputAsPart(String name, InputStream input, int size, String contentType) throws Exception
 	{
-    addInputAsPart(name, new InputStreamPart(input, size, contentType));
+    addInputAsPart(name, new InputStreamPart(input, size, contentType, null));
+	}
+
+  /**
+   * Same as addInputAsPart(String name, InputStream input, int size, String contentType) except that the part is sent
+   * as an uploaded file, with the filename.  Request parses it as an UploadedFile.
+   *
+   * @param name
+   * @param input
+   * @param size - number of bytes in the input stream
+   * @param contentType - for the Content-Type header
+   * @param filename - the name of the file
+   * @throws Exception
+   */
+	public void addInputAsPart(String name, InputStream input, int size, String contentType, String filename) throws Exception
+	{
+    addInputAsPart(name, new InputStreamPart(input, size, contentType, filename));
 	}
 
 	private void multipart()
@@ -299,12 +322,14 @@ public class RequestBuilder
 		public InputStream input;
 		public int size;
 		public String contentType;
+		public String filename;
 
-		public InputStreamPart(InputStream input, int size, String contentType)
+		public InputStreamPart(InputStream input, int size, String contentType, String filename)
 		{
 			this.input = input;
 			this.size = size;
 			this.contentType = contentType;
+			this.filename = filename;
 		}
 	}
 }
@@ -112,6 +112,21 @@ public class RequestBuilderTest extends TestCase
 		assertSubString("\r\n\r\ndata from input stream\r\n", text);
 	}
 
+	public void testMultipartWithUploadedFile() throws Exception
+	{
+		byte[] data = "data from a file".getBytes();
+		builder.addInputAsPart("upload", new ByteArrayInputStream(data), data.length, "text/plain", "file.txt");
+		String text = builder.getText();
+
+		assertSubString("Content-Disposition: form-data; name=\"upload\"; filename=\"file.txt\"", text);
+		Request request = new Request(new ByteArrayInputStream(text.getBytes()));
+		request.parse();
+		UploadedFile file = (UploadedFile) request.getInput("upload");
+		assertEquals("file.txt", file.getName());
+		assertEquals("text/plain", file.getType());
+		assertEquals("data from a file", new String(file.getBytes()));
+	}
+
 	public void testMultipartWithRequestParser() throws Exception
 	{
     builder.addInputAsPart("part1", "data 1");
@@ -0,0 +1,401 @@
+//- Copyright ©2009 Micah Martin.  All Rights Reserved
+//- MMHTTP and all included source files are distributed under terms of the GNU LGPL.
+
+package mmhttp.protocol;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Parses the head of an HTTP request, the request line and headers, straight from the raw bytes.  It's a state
+ * machine that looks at each byte once, so bytes may be fed to it in whatever pieces they arrive.  parse() consumes
+ * bytes up to the end of the head and no further; whatever follows belongs to the entity body.
+ *
+ * The header lines are kept as raw bytes, in a HeaderTable, with the positions of each name and value.  Nothing is
+ * allocated for a header until it's asked for.
+ *
+ * @see Request
+ */
+public class RequestHeadParser
+{
+  public static final int MAX_HEAD_SIZE = 64 * 1024;
+
+  private static final int REQUEST_LINE_START = 0;
+  private static final int METHOD = 1;
+  private static final int URI = 2;
+  private static final int VERSION = 3;
+  private static final int HEADER_START = 4;
+  private static final int HEADER_NAME = 5;
+  private static final int HEADER_VALUE = 6;
+  private static final int COMPLETE = 7;
+
+  private int state = REQUEST_LINE_START;
+  private byte[] token = new byte[256];
+  private int tokenLength;
+  private int headSize;
+  private int methodEnd;
+  private int queryIndex;
+  private int uriEnd;
+  private int headerStart;
+  private int nameEnd;
+  private int[] entries = new int[64];
+  private int headerCount;
+  private HeaderTable headerTable;
+
+  private String method;
+  private String requestLine;
+  private String requestUri;
+  private String resource;
+  private String queryString;
+  private String httpVersion;
+
+  /**
+   * Consumes bytes up to the end of the request head.
+   *
+   * @param bytes
+   * @param offset
+   * @param length
+   * @return the number of bytes consumed.  Less than length only when the head is complete.
+   * @throws HttpException if the request is malformed or uses an unsupported method
+   */
+  public int parse(byte[] bytes, int offset, int length) throws HttpException
+  {
+    int i = offset;
+    int end = offset + length;
+    while(i < end && state != COMPLETE)
+      consume(bytes[i++]);
+    headSize += i - offset;
+    if(headSize > MAX_HEAD_SIZE && state != COMPLETE)
+      throw new HttpException("The request headers are too large");
+    return i - offset;
+  }
+
+  /**
+   * Consumes bytes from the buffer up to the end of the request head.  The buffer's position is left after the last
+   * byte consumed.
+   *
+   * @param buffer
+   * @throws HttpException if the request is malformed or uses an unsupported method
+   */
+  public void parse(ByteBuffer buffer) throws HttpException
+  {
+    if(buffer.hasArray())
+    {
+      int consumed = parse(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+      buffer.position(buffer.position() + consumed);
+    }
+    else
+    {
+      int start = buffer.position();
+      while(buffer.hasRemaining() && state != COMPLETE)
+        consume(buffer.get());
+      headSize += buffer.position() - start;
+      if(headSize > MAX_HEAD_SIZE && state != COMPLETE)
+        throw new HttpException("The request headers are too large");
+    }
+  }
+
+  /**
+   * Tells the parser that the input ended.  A request that ends within its headers is treated as though the headers
+   * were complete.
+   *
+   * @throws HttpException if the request line wasn't complete
+   */
+  public void endOfInput() throws HttpException
+  {
+    if(state < HEADER_START)
+      throw malformed();
+    if(state == HEADER_VALUE)
+      addHeader();
+    complete();
+  }
+
+  /**
+   * @return true once the blank line ending the headers has been consumed
+   */
+  public boolean isComplete()
+  {
+    return state == COMPLETE;
+  }
+
+  /**
+   * Prepares the parser for the next request on the connection.
+   */
+  public void reset()
+  {
+    state = REQUEST_LINE_START;
+    tokenLength = 0;
+    headSize = 0;
+    method = null;
+    requestLine = null;
+    requestUri = null;
+    resource = null;
+    queryString = null;
+    httpVersion = null;
+    headerCount = 0;
+    headerTable = null;
+  }
+
+  public String getMethod()
+  {
+    return method;
+  }
+
+  public String getRequestLine()
+  {
+    return requestLine;
+  }
+
+  public String getRequestUri()
+  {
+    return requestUri;
+  }
+
+  /**
+   * @return the requested resource without the leading slash
+   */
+  public String getResource()
+  {
+    return resource;
+  }
+
+  /**
+   * @return the query string, or "" when there is none
+   */
+  public String getQueryString()
+  {
+    return queryString;
+  }
+
+  /**
+   * @return the HTTP version from the request line, or null if it didn't have one
+   */
+  public String getHttpVersion()
+  {
+    return httpVersion;
+  }
+
+  /**
+   * @param name - in any case
+   * @return the value of the header, or null if the request doesn't have it
+   */
+  public String getHeader(String name)
+  {
+    return getHeaderTable().get(name);
+  }
+
+  /**
+   * @return the headers keyed by lower case name, in a new HashMap
+   */
+  public HashMap<String, String> getHeaders()
+  {
+    return getHeaderTable().toMap();
+  }
+
+  /**
+   * @return the headers parsed so far, without decoding them
+   */
+  HeaderTable getHeaderTable()
+  {
+    if(headerTable != null)
+      return headerTable;
+    return new HeaderTable(Arrays.copyOf(token, tokenLength), Arrays.copyOf(entries, headerCount * 4), headerCount);
+  }
+
+  private void consume(byte b) throws HttpException
+  {
+    switch(state)
+    {
+      case REQUEST_LINE_START:
+        if(b == '\r' || b == '\n')
+          return;
+        state = METHOD;
+        consume(b);
+        return;
+      case METHOD:
+        if(b >= 'A' && b <= 'Z')
+          append(b);
+        else if(b == ' ' && tokenLength > 0)
+        {
+          methodEnd = tokenLength;
+          queryIndex = -1;
+          append(b);
+          state = URI;
+        }
+        else
+          throw malformed();
+        return;
+      case URI:
+        if(b == ' ' || b == '\r' || b == '\n')
+        {
+          uriEnd = tokenLength;
+          if(uriEnd == methodEnd + 1)
+            throw malformed();
+          if(b == '\n')
+            endRequestLine();
+          else if(b == ' ')
+          {
+            append(b);
+            state = VERSION;
+          }
+        }
+        else
+        {
+          if(b == '?' && queryIndex == -1)
+            queryIndex = tokenLength;
+          append(b);
+        }
+        return;
+      case VERSION:
+        if(b == '\n')
+          endRequestLine();
+        else if(b != '\r')
+          append(b);
+        return;
+      case HEADER_START:
+        if(b == '\r')
+          return;
+        if(b == '\n')
+        {
+          complete();
+          return;
+        }
+        state = HEADER_NAME;
+        consume(b);
+        return;
+      case HEADER_NAME:
+        if(b == ':')
+        {
+          nameEnd = tokenLength;
+          state = HEADER_VALUE;
+        }
+        else if(b == '\n')
+        {
+          tokenLength = headerStart;
+          startHeader();
+        }
+        else if(b != '\r')
+          append(b);
+        return;
+      case HEADER_VALUE:
+        if(b == '\n')
+        {
+          addHeader();
+          startHeader();
+        }
+        else if(b != '\r' && !((b == ' ' || b == '\t') && tokenLength == nameEnd))
+          append(b);
+        return;
+    }
+  }
+
+  private void append(byte b)
+  {
+    if(tokenLength == token.length)
+    {
+      byte[] bigger = new byte[token.length * 2];
+      System.arraycopy(token, 0, bigger, 0, tokenLength);
+      token = bigger;
+    }
+    token[tokenLength++] = b;
+  }
+
+  private void endRequestLine() throws HttpException
+  {
+    int uriStart = methodEnd + 1;
+    if(queryIndex == uriStart)
+      throw malformed();
+    method = knownMethod();
+    requestLine = string(0, tokenLength);
+    if(method == null)
+      throw new HttpException("The " + string(0, methodEnd) + " method is not currently supported");
+    requestUri = string(uriStart, uriEnd);
+    if(queryIndex == -1)
+    {
+      resource = string(uriStart + 1, uriEnd);
+      queryString = "";
+    }
+    else
+    {
+      resource = string(uriStart + 1, queryIndex);
+      queryString = string(queryIndex + 1, uriEnd);
+    }
+    if(tokenLength > uriEnd + 1 && isHttpVersion(uriEnd + 1, tokenLength))
+      httpVersion = string(uriEnd + 1, tokenLength);
+    tokenLength = 0;
+    startHeader();
+  }
+
+  private String knownMethod()
+  {
+    if(methodEnd == 3 && token[0] == 'G' && token[1] == 'E' && token[2] == 'T')
+      return "GET";
+    if(methodEnd == 4 && token[0] == 'P' && token[1] == 'O' && token[2] == 'S' && token[3] == 'T')
+      return "POST";
+    return null;
+  }
+
+  private boolean isHttpVersion(int start, int end)
+  {
+    if(end - start < 8 || token[start] != 'H' || token[start + 1] != 'T' || token[start + 2] != 'T' || token[start + 3] != 'P' || token[start + 4] != '/')
+      return false;
+    int dot = -1;
+    for(int i = start + 5; i < end; i++)
+    {
+      if(token[i] == '.' && dot == -1 && i > start + 5)
+        dot = i;
+      else if(token[i] < '0' || token[i] > '9')
+        return false;
+    }
+    return dot != -1 && dot < end - 1;
+  }
+
+  private void startHeader()
+  {
+    headerStart = tokenLength;
+    state = HEADER_START;
+  }
+
+  private void addHeader()
+  {
+    int nameStart = headerStart;
+    while(nameStart < nameEnd && isWhitespace(token[nameStart]))
+      nameStart++;
+    int nameLast = nameEnd;
+    while(nameLast > nameStart && isWhitespace(token[nameLast - 1]))
+      nameLast--;
+    int valueEnd = tokenLength;
+    while(valueEnd > nameEnd && isWhitespace(token[valueEnd - 1]))
+      valueEnd--;
+    if(headerCount * 4 == entries.length)
+      entries = Arrays.copyOf(entries, entries.length * 2);
+    int entry = headerCount++ * 4;
+    entries[entry] = nameStart;
+    entries[entry + 1] = nameLast;
+    entries[entry + 2] = nameEnd;
+    entries[entry + 3] = valueEnd;
+  }
+
+  private static boolean isWhitespace(byte b)
+  {
+    return b == ' ' || b == '\t';
+  }
+
+  private void complete()
+  {
+    headerTable = getHeaderTable();
+    state = COMPLETE;
+  }
+
+  private String string(int start, int end)
+  {
+    return new String(token, start, end - start, StandardCharsets.UTF_8);
+  }
+
+  private static HttpException malformed()
+  {
+    return new HttpException("The request string is malformed and can not be parsed");
+  }
+}
@@ -0,0 +1,206 @@
+//- Copyright ©2009 Micah Martin.  All Rights Reserved
+//- MMHTTP and all included source files are distributed under terms of the GNU LGPL.
+
+package mmhttp.protocol;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RequestHeadParserTest extends Assert
+{
+  private RequestHeadParser parser;
+
+  @Before
+  public void setUp() throws Exception
+  {
+    parser = new RequestHeadParser();
+  }
+
+  private int parse(String text) throws Exception
+  {
+    byte[] bytes = text.getBytes("UTF-8");
+    return parser.parse(bytes, 0, bytes.length);
+  }
+
+  private void checkException(String request, String message) throws Exception
+  {
+    try
+    {
+      parse(request);
+      fail("should have thrown HttpException");
+    }
+    catch(HttpException e)
+    {
+      assertEquals(message, e.getMessage());
+    }
+  }
+
+  @Test
+  public void shouldParseTheRequestLine() throws Exception
+  {
+    parse("GET /some/page?a=1&b=2 HTTP/1.1\r\n\r\n");
+
+    assertTrue(parser.isComplete());
+    assertEquals("GET", parser.getMethod());
+    assertEquals("GET /some/page?a=1&b=2 HTTP/1.1", parser.getRequestLine());
+    assertEquals("/some/page?a=1&b=2", parser.getRequestUri());
+    assertEquals("some/page", parser.getResource());
+    assertEquals("a=1&b=2", parser.getQueryString());
+    assertEquals("HTTP/1.1", parser.getHttpVersion());
+  }
+
+  @Test
+  public void shouldParseRequestLinesWithoutAVersion() throws Exception
+  {
+    parse("POST /page\r\n\r\n");
+
+    assertEquals("POST", parser.getMethod());
+    assertEquals("page", parser.getResource());
+    assertEquals("", parser.getQueryString());
+    assertEquals(null, parser.getHttpVersion());
+  }
+
+  @Test
+  public void shouldParseHeaders() throws Exception
+  {
+    parse("GET / HTTP/1.1\r\nHost: localhost\r\nX-Custom-Thing:  some value \r\nContent-Length:12\r\n\r\n");
+
+    assertEquals(3, parser.getHeaders().size());
+    assertEquals("localhost", parser.getHeaders().get("host"));
+    assertEquals("some value", parser.getHeaders().get("x-custom-thing"));
+    assertEquals("12", parser.getHeaders().get("content-length"));
+  }
+
+  @Test
+  public void shouldTrimHeaderNames() throws Exception
+  {
+    parse("GET / HTTP/1.1\r\nHost :localhost\r\nX-Thing\t: value\r\n\r\n");
+
+    assertEquals("localhost", parser.getHeader("Host"));
+    assertEquals("value", parser.getHeader("X-Thing"));
+    assertEquals("localhost", parser.getHeaders().get("host"));
+  }
+
+  @Test
+  public void shouldLookUpHeadersInAnyCase() throws Exception
+  {
+    parse("GET / HTTP/1.1\r\nHost: localhost\r\nNo colon here\r\nX-Thing: one\r\nx-thing: two\r\n\r\n");
+
+    assertEquals("localhost", parser.getHeader("HOST"));
+    assertEquals("two", parser.getHeader("X-Thing"));
+    assertEquals(null, parser.getHeader("No colon here"));
+    assertEquals(2, parser.getHeaders().size());
+  }
+
+  @Test
+  public void shouldShareKnownHeaderNames() throws Exception
+  {
+    parse("GET / HTTP/1.1\r\nUSER-AGENT: test\r\n\r\n");
+
+    String name = parser.getHeaders().keySet().iterator().next();
+    assertSame("user-agent", name);
+  }
+
+  @Test
+  public void shouldAcceptBytesInPieces() throws Exception
+  {
+    String request = "GET /page HTTP/1.1\r\nAccept: text/html\r\n\r\n";
+    for(int i = 0; i < request.length(); i++)
+    {
+      assertFalse(parser.isComplete());
+      assertEquals(1, parse(request.substring(i, i + 1)));
+    }
+
+    assertTrue(parser.isComplete());
+    assertEquals("page", parser.getResource());
+    assertEquals("text/html", parser.getHeaders().get("accept"));
+  }
+
+  @Test
+  public void shouldStopConsumingAtTheEndOfTheHead() throws Exception
+  {
+    assertEquals(42, parse("POST /page HTTP/1.1\r\nContent-Length: 4\r\n\r\nbody"));
+  }
+
+  @Test
+  public void shouldTolerateBareLineFeedsAndLeadingBlankLines() throws Exception
+  {
+    parse("\r\nGET /page HTTP/1.0\nAccept: */*\n\n");
+
+    assertTrue(parser.isComplete());
+    assertEquals("HTTP/1.0", parser.getHttpVersion());
+    assertEquals("*/*", parser.getHeaders().get("accept"));
+  }
+
+  @Test
+  public void shouldIgnoreHeaderLinesWithoutAColon() throws Exception
+  {
+    parse("GET / HTTP/1.1\r\nnonsense\r\nHost: here\r\n\r\n");
+
+    assertEquals(1, parser.getHeaders().size());
+    assertEquals("here", parser.getHeaders().get("host"));
+  }
+
+  @Test
+  public void shouldRejectMalformedRequestLines() throws Exception
+  {
+    checkException("/resource HTTP/1.1\r\n", "The request string is malformed and can not be parsed");
+    parser.reset();
+    checkException("GET  /resource HTTP/1.1\r\n", "The request string is malformed and can not be parsed");
+    parser.reset();
+    checkException("GET ?query HTTP/1.1\r\n", "The request string is malformed and can not be parsed");
+  }
+
+  @Test
+  public void shouldRejectUnsupportedMethods() throws Exception
+  {
+    checkException("DELETE /resource HTTP/1.1\r\n", "The DELETE method is not currently supported");
+  }
+
+  @Test
+  public void shouldRejectHugeHeads() throws Exception
+  {
+    StringBuffer request = new StringBuffer("GET / HTTP/1.1\r\n");
+    while(request.length() <= RequestHeadParser.MAX_HEAD_SIZE)
+      request.append("X-Filler: 0123456789012345678901234567890123456789\r\n");
+    checkException(request.toString(), "The request headers are too large");
+  }
+
+  @Test
+  public void shouldCompleteHeadersAtEndOfInput() throws Exception
+  {
+    parse("GET / HTTP/1.1\r\nHost: here");
+    parser.endOfInput();
+
+    assertTrue(parser.isComplete());
+    assertEquals("here", parser.getHeaders().get("host"));
+  }
+
+  @Test
+  public void shouldRejectRequestLinesCutShortByEndOfInput() throws Exception
+  {
+    parse("GET / HT");
+    try
+    {
+      parser.endOfInput();
+      fail("should have thrown HttpException");
+    }
+    catch(HttpException e)
+    {
+      assertEquals("The request string is malformed and can not be parsed", e.getMessage());
+    }
+  }
+
+  @Test
+  public void shouldBeReusableAfterReset() throws Exception
+  {
+    parse("GET /one HTTP/1.1\r\nHost: here\r\n\r\n");
+    parser.reset();
+    assertFalse(parser.isComplete());
+    parse("GET /two HTTP/1.1\r\n\r\n");
+
+    assertEquals("two", parser.getResource());
+    assertEquals(0, parser.getHeaders().size());
+  }
+}
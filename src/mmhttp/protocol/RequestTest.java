@@ -4,10 +4,19 @@
 package mmhttp.protocol;
 
 import junit.framework.TestCase;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.PipedInputStream;
 import java.io.PipedOutputStream;
 
+import mmhttp.util.BufferPool;
 import mmhttp.util.FileUtil;
+import mmhttp.util.HostNameCache;
+import java.net.InetAddress;
 
 public class RequestTest extends TestCase
 {
@@ -53,6 +62,49 @@ public class RequestTest extends TestCase
 		assertEquals("/request-uri", request.getRequestUri());
 	}
 
+	public void testHttpVersion() throws Exception
+	{
+		startParsing();
+		writeToPipe("GET /request-uri HTTP/1.1\r\n");
+		writeToPipe("\r\n");
+		finishParsing();
+		assertEquals("HTTP/1.1", request.getHttpVersion());
+	}
+
+	public void testHttp11IsKeepAliveUnlessClosed() throws Exception
+	{
+		startParsing();
+		writeToPipe("GET /request-uri HTTP/1.1\r\n");
+		writeToPipe("\r\n");
+		finishParsing();
+		assertTrue(request.isKeepAlive());
+
+		setUp();
+		startParsing();
+		writeToPipe("GET /request-uri HTTP/1.1\r\n");
+		writeToPipe("Connection: TE, close\r\n");
+		writeToPipe("\r\n");
+		finishParsing();
+		assertFalse(request.isKeepAlive());
+	}
+
+	public void testHttp10IsKeepAliveOnlyWhenAsked() throws Exception
+	{
+		startParsing();
+		writeToPipe("GET /request-uri HTTP/1.0\r\n");
+		writeToPipe("\r\n");
+		finishParsing();
+		assertFalse(request.isKeepAlive());
+
+		setUp();
+		startParsing();
+		writeToPipe("GET /request-uri HTTP/1.0\r\n");
+		writeToPipe("Connection: Keep-Alive\r\n");
+		writeToPipe("\r\n");
+		finishParsing();
+		assertTrue(request.isKeepAlive());
+	}
+
 	public void testMalformedRequestLine() throws Exception
 	{
 		startParsing();
@@ -152,6 +204,41 @@ public class RequestTest extends TestCase
 		checkInputs();
 	}
 
+	public void testInputsAreDecodedWhenFirstAskedFor() throws Exception
+	{
+		String text = "POST /something?key1=query&key2=value%202 HTTP/1.1\r\n" +
+		  "Content-Length: 11\r\n" +
+		  "\r\n" +
+		  "key1=value1";
+		request = new Request(new ByteArrayInputStream(text.getBytes()));
+		request.parse();
+
+		assertTrue(request.inputs.isEmpty());
+		assertEquals("value1", request.getInput("key1"));
+		assertEquals("value 2", request.getInput("key2"));
+		assertEquals(2, request.inputs.size());
+	}
+
+	public void testHeadersAreCollectedWhenAllAskedFor() throws Exception
+	{
+		String text = "GET /something HTTP/1.1\r\n" +
+		  "X-Repeated: first\r\n" +
+		  "Accept: text/html\r\n" +
+		  "x-repeated: second\r\n" +
+		  "\r\n";
+		request = new Request(new ByteArrayInputStream(text.getBytes()));
+		request.parse();
+
+		assertEquals("text/html", request.getHeader("ACCEPT"));
+		assertEquals("second", request.getHeader("X-Repeated"));
+		assertTrue(request.headers.isEmpty());
+
+		assertEquals(2, request.getHeaders().size());
+		request.getHeaders().put("x-added", "value");
+		assertEquals("value", request.getHeader("X-Added"));
+		assertEquals("second", request.getHeader("x-repeated"));
+	}
+
 	private void checkInputs()
 	{
 		assertEquals(true, request.hasInput("key1"));
@@ -352,6 +439,311 @@ public class RequestTest extends TestCase
 		assertEquals("file contents", new String(contents, 3, contents.length - 3));
 	}
 
+	public void testSmallUploadsAreKeptInMemory() throws Exception
+	{
+		Request request = uploadRequest("small contents");
+		request.parse();
+
+		UploadedFile file = (UploadedFile) request.getInput("file1");
+		assertTrue(file.isInMemory());
+		assertEquals(14, file.getSize());
+		assertEquals("small contents", new String(file.getBytes()));
+		assertEquals("small contents", FileUtil.getFileContent(file.getFile()));
+		file.delete();
+	}
+
+	public void testLargeUploadsAreWrittenToTheUploadDirectory() throws Exception
+	{
+		File directory = new File("testUploads");
+		directory.mkdir();
+		try
+		{
+			Request request = uploadRequest("large contents");
+			request.setUploadThreshold(10);
+			request.setUploadDirectory(directory);
+			request.parse();
+
+			UploadedFile file = (UploadedFile) request.getInput("file1");
+			assertFalse(file.isInMemory());
+			assertEquals(directory.getCanonicalFile(), file.getFile().getParentFile().getCanonicalFile());
+			assertEquals("large contents", FileUtil.getFileContent(file.getFile()));
+			file.delete();
+		}
+		finally
+		{
+			FileUtil.deleteFileSystemDirectory(directory);
+		}
+	}
+
+	public void testPartHandlerConsumesUploads() throws Exception
+	{
+		Request request = uploadRequest("streamed contents");
+		request.setPartHandler(new PartHandler()
+		{
+			public Object handlePart(String name, String filename, String contentType, InputStream content) throws Exception
+			{
+				ByteArrayOutputStream output = new ByteArrayOutputStream();
+				FileUtil.copyBytes(content, output);
+				return name + " " + filename + " " + contentType + " " + output;
+			}
+		});
+		request.parse();
+
+		assertEquals("file1 f.txt text/plain streamed contents", request.getInput("file1"));
+		assertEquals("value", request.getInput("key"));
+	}
+
+	public void testBodiesOfAnyTypeAreParsedAsInputs() throws Exception
+	{
+		Request request = bodyRequest("text/plain", "key=value");
+		request.parse();
+
+		assertEquals("key=value", request.getBody());
+		assertEquals("value", request.getInput("key"));
+	}
+
+	public void testBodyIsReadThroughTheGivenBufferPool() throws Exception
+	{
+		BufferPool pool = new BufferPool(1024, 1);
+		Request request = bodyRequest("text/plain", "key=value");
+		request.setBufferPool(pool);
+		request.parse();
+
+		assertEquals("key=value", request.getBody());
+		assertEquals(1, pool.getMisses());
+		assertEquals(1, pool.getPooledCount());
+	}
+
+	public void testStreamingBodyIsLeftInTheStream() throws Exception
+	{
+		String text = "POST /ingest HTTP/1.1\r\n" +
+		  "Content-Length: 11\r\n" +
+		  "Content-Type: application/octet-stream\r\n" +
+		  "\r\n" +
+		  "hello world" +
+		  "GET /next HTTP/1.1\r\n\r\n";
+		BufferedInputStream input = new BufferedInputStream(new ByteArrayInputStream(text.getBytes()));
+		Request request = new Request(input);
+		request.setStreamingBody(true);
+		request.parse();
+
+		assertEquals("", request.getBody());
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		FileUtil.copyBytes(request.getBodyStream(), body);
+		assertEquals("hello world", body.toString());
+
+		Request next = new Request(input);
+		next.parse();
+		assertEquals("next", next.getResource());
+	}
+
+	public void testFormBodyIsParsedWhenStreaming() throws Exception
+	{
+		Request request = bodyRequest("application/x-www-form-urlencoded", "key=value");
+		request.setStreamingBody(true);
+		request.parse();
+
+		assertEquals("value", request.getInput("key"));
+		assertEquals("key=value", request.getBody());
+	}
+
+	public void testBodiesLargerThanTheLimitAreRefused() throws Exception
+	{
+		Request request = bodyRequest("text/plain", "0123456789");
+		request.setMaxBodySize(9);
+		try
+		{
+			request.parse();
+			fail("should have thrown HttpException");
+		}
+		catch(HttpException e)
+		{
+			assertEquals(413, e.getStatus());
+		}
+
+		request = bodyRequest("text/plain", "0123456789");
+		request.setMaxBodySize(10);
+		request.parse();
+		assertEquals("0123456789", request.getBody());
+
+		request = bodyRequest("text/plain", "0123456789");
+		request.setMaxBodySize(-1);
+		request.parse();
+		assertEquals("0123456789", request.getBody());
+	}
+
+	public void testOnlyFormBodiesAreParsedWhenStreaming() throws Exception
+	{
+		Request request = bodyRequest(null, "key=value");
+		request.setStreamingBody(true);
+		request.parse();
+
+		assertEquals(null, request.getInput("key"));
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		FileUtil.copyBytes(request.getBodyStream(), body);
+		assertEquals("key=value", body.toString());
+	}
+
+	public void testUnreadStreamingBodyIsSkipped() throws Exception
+	{
+		Request request = bodyRequest("text/plain", "0123456789");
+		request.setStreamingBody(true);
+		request.parse();
+		assertEquals('0', request.getBodyStream().read());
+
+		assertFalse(request.skipUnreadBody(8));
+		assertTrue(request.skipUnreadBody(9));
+		assertEquals(-1, request.getBodyStream().read());
+	}
+
+	public void testStreamingBodyCutShortIsAnError() throws Exception
+	{
+		String text = "POST /ingest HTTP/1.1\r\nContent-Length: 100\r\nContent-Type: text/plain\r\n\r\ntruncated";
+		Request request = new Request(new ByteArrayInputStream(text.getBytes()));
+		request.setStreamingBody(true);
+		request.parse();
+
+		try
+		{
+			FileUtil.copyBytes(request.getBodyStream(), new ByteArrayOutputStream());
+			fail("should have thrown");
+		}
+		catch(IOException e)
+		{
+			assertEquals("The entity body ended 91 bytes short of its Content-Length", e.getMessage());
+		}
+	}
+
+	public void testChunkedFormBody() throws Exception
+	{
+		String text = "POST /form HTTP/1.1\r\n" +
+		  "Transfer-Encoding: chunked\r\n" +
+		  "\r\n" +
+		  "6\r\nkey1=v\r\n" +
+		  "d\r\nalue1&key2=va\r\n" +
+		  "4\r\nlue2\r\n" +
+		  "0\r\n\r\n";
+		request = new Request(new ByteArrayInputStream(text.getBytes()));
+		request.parse();
+
+		assertTrue(request.isChunked());
+		assertEquals("key1=value1&key2=value2", request.getBody());
+		checkInputs();
+		assertEquals(text.length(), request.numberOfBytesParsed());
+	}
+
+	public void testChunkedBodyLargerThanTheLimitIsRefused() throws Exception
+	{
+		String text = "POST /form HTTP/1.1\r\n" +
+		  "Transfer-Encoding: chunked\r\n" +
+		  "\r\n" +
+		  "6\r\nkey1=v\r\n" +
+		  "6\r\nalue1&\r\n" +
+		  "0\r\n\r\n";
+		request = new Request(new ByteArrayInputStream(text.getBytes()));
+		request.setMaxBodySize(11);
+		try
+		{
+			request.parse();
+			fail("should have thrown HttpException");
+		}
+		catch(HttpException e)
+		{
+			assertEquals(413, e.getStatus());
+		}
+	}
+
+	public void testChunkedMultipartContent() throws Exception
+	{
+		String content = "--bob\r\n" +
+		  "Content-Disposition: form-data; name=\"file1\"; filename=\"f.txt\"\r\n" +
+		  "\r\n" +
+		  "chunked contents\r\n" +
+		  "--bob--\r\n";
+		String text = "POST /upload HTTP/1.1\r\n" +
+		  "Transfer-Encoding: chunked\r\n" +
+		  "Content-Type: multipart/form-data; boundary=bob\r\n" +
+		  "\r\n" +
+		  "20\r\n" + content.substring(0, 32) + "\r\n" +
+		  Integer.toHexString(content.length() - 32) + "\r\n" + content.substring(32) + "\r\n" +
+		  "0\r\n\r\n";
+		request = new Request(new ByteArrayInputStream(text.getBytes()));
+		request.parse();
+
+		UploadedFile file = (UploadedFile) request.getInput("file1");
+		assertEquals("chunked contents", new String(file.getBytes()));
+	}
+
+	public void testChunkedStreamingBodyAndTrailers() throws Exception
+	{
+		String text = "POST /ingest HTTP/1.1\r\n" +
+		  "Transfer-Encoding: chunked\r\n" +
+		  "Content-Type: text/plain\r\n" +
+		  "Trailer: Record-Count\r\n" +
+		  "\r\n" +
+		  "8\r\nline one\r\n" +
+		  "9\r\nline two\n\r\n" +
+		  "0\r\n" +
+		  "Record-Count: 2\r\n" +
+		  "\r\n";
+		request = new Request(new ByteArrayInputStream(text.getBytes()));
+		request.setStreamingBody(true);
+		request.parse();
+
+		assertNull(request.getTrailer("Record-Count"));
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		FileUtil.copyBytes(request.getBodyStream(), body);
+		assertEquals("line oneline two\n", body.toString());
+		assertEquals("2", request.getTrailer("Record-Count"));
+		assertNull(request.getHeader("Record-Count"));
+	}
+
+	public void testUnsupportedTransferCodingsAreRejected() throws Exception
+	{
+		String text = "POST /ingest HTTP/1.1\r\nTransfer-Encoding: gzip, chunked\r\n\r\n";
+		request = new Request(new ByteArrayInputStream(text.getBytes()));
+		try
+		{
+			request.parse();
+			fail("should have thrown HttpException");
+		}
+		catch(HttpException e)
+		{
+			assertEquals("The gzip, chunked transfer-coding is not supported", e.getMessage());
+			assertEquals(411, e.getStatus());
+		}
+	}
+
+	private Request bodyRequest(String contentType, String body) throws Exception
+	{
+		String text = "POST /ingest HTTP/1.1\r\n" +
+		  "Content-Length: " + body.length() + "\r\n" +
+		  (contentType == null ? "" : "Content-Type: " + contentType + "\r\n") +
+		  "\r\n" +
+		  body;
+		return new Request(new ByteArrayInputStream(text.getBytes()));
+	}
+
+	private Request uploadRequest(String fileContent) throws Exception
+	{
+		String content = "--bob\r\n" +
+		  "Content-Disposition: form-data; name=\"key\"\r\n" +
+		  "\r\n" +
+		  "value\r\n" +
+		  "--bob\r\n" +
+		  "Content-Disposition: form-data; name=\"file1\"; filename=\"f.txt\"\r\n" +
+		  "Content-Type: text/plain\r\n" +
+		  "\r\n" +
+		  fileContent + "\r\n" +
+		  "--bob--\r\n";
+		String text = "POST /upload HTTP/1.1\r\n" +
+		  "Content-Length: " + content.length() + "\r\n" +
+		  "Content-Type: multipart/form-data; boundary=bob\r\n" +
+		  "\r\n" +
+		  content;
+		return new Request(new ByteArrayInputStream(text.getBytes()));
+	}
+
 	public void testCanGetCredentials() throws Exception
 	{
 		startParsing();
@@ -458,4 +850,22 @@ public class RequestTest extends TestCase
 
 		assertEquals("TEST_COMPUTER", request.getRemoteHostName());
 	}
+
+	public void testRemoteHostNameIsLookedUpWhenAsked() throws Exception
+	{
+		InetAddress address = InetAddress.getByAddress("TEST_COMPUTER", new byte[]{10, 0, 0, 1});
+		request.setRemoteHost(address, null);
+
+		assertEquals("10.0.0.1", request.getRemoteAddress());
+		assertEquals("TEST_COMPUTER", request.getRemoteHostName());
+	}
+
+	public void testRemoteHostNameComesFromTheCache() throws Exception
+	{
+		HostNameCache cache = new HostNameCache(10, 60000);
+		cache.getHostName(InetAddress.getByAddress("CACHED", new byte[]{10, 0, 0, 1}));
+		request.setRemoteHost(InetAddress.getByAddress("TEST_COMPUTER", new byte[]{10, 0, 0, 1}), cache);
+
+		assertEquals("CACHED", request.getRemoteHostName());
+	}
 }
@@ -3,6 +3,10 @@
 
 package mmhttp.protocol;
 
+import mmhttp.util.BufferPool;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 import java.util.*;
 import java.text.*;
 
@@ -14,22 +18,26 @@ public abstract class Response
   public static final String DEFAULT_CONTENT_TYPE = "text/html; charset=utf-8";
 
 	protected static final String CRLF = "\r\n";
+	private static final Charset UTF8 = Charset.forName("UTF-8");
 
   /**
-   * HTTP Protocol fluff.
+   * HTTP Protocol fluff.  To format a date for a header, HttpDate is cheaper.
    * @return an HTTP date format
+   * @see HttpDate
    */
   public static SimpleDateFormat makeStandardHttpDateFormat()
   {
     //SimpleDateFormat is not thread safe, so we need to create each instance independently.
-    SimpleDateFormat df = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss z");
+    SimpleDateFormat df = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss z", Locale.US);
     df.setTimeZone(TimeZone.getTimeZone("GMT"));
     return df;
   }
 
   private int status = 200;
-	private HashMap headers = new HashMap(17);
+	private HashMap<String, String> headers = new HashMap<String, String>(17);
   private String contentType = DEFAULT_CONTENT_TYPE;
+  private String contentEncoding;
+  private BufferPool bufferPool = BufferPool.getShared();
 
   /**
    * Empty constructor.
@@ -61,6 +69,14 @@ public abstract class Response
    */
 	public abstract int getContentSize();
 
+  /**
+   * @return false if the content size can't be known until all the content is sent
+   */
+	protected boolean isContentSizeKnown()
+	{
+		return true;
+	}
+
   /**
    * @return the status
    */
@@ -84,11 +100,35 @@ public abstract class Response
    */
 	public String makeHttpHeaders()
 	{
-		StringBuffer text = new StringBuffer();
-		text.append("HTTP/1.1 ").append(status).append(" ").append(getReasonPhrase()).append(CRLF);
-		makeHeaders(text);
-		text.append(CRLF);
-		return text.toString();
+		ByteBuffer bytes = makeHttpHeaderBuffer();
+		return new String(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining(), UTF8);
+	}
+
+  /**
+   * Build the headers portion of the response as bytes, ready to be sent.
+   * @return headers bytes
+   */
+	public byte[] makeHttpHeaderBytes()
+	{
+		ByteBuffer buffer = makeHttpHeaderBuffer();
+		byte[] bytes = new byte[buffer.remaining()];
+		buffer.get(bytes);
+		return bytes;
+	}
+
+  /**
+   * Like makeHttpHeaderBytes(), without the copy.  The bytes are written into a buffer that the calling thread reuses
+   * for every response, so the ByteBuffer is only good until the thread builds another.
+   * @return headers bytes
+   */
+	ByteBuffer makeHttpHeaderBuffer()
+	{
+		HeaderWriter writer = HeaderWriter.forThisThread();
+		writer.writeStatusLine(status);
+		for(Map.Entry<String, String> header : headers.entrySet())
+			writer.writeHeader(header.getKey(), header.getValue());
+		writer.writeEnd();
+		return writer.toByteBuffer();
 	}
 
   /**
@@ -108,6 +148,41 @@ public abstract class Response
 		contentType = type;
 	}
 
+  /**
+   * @return the coding, "gzip" or "deflate", that the content will be compressed with, or null
+   */
+	public String getContentEncoding()
+	{
+		return contentEncoding;
+	}
+
+  /**
+   * Has the content compressed, as it's sent, with the coding, "gzip" or "deflate".  Sets the Content-Encoding header.
+   * Normally the server calls this when the client accepts compressed content.
+   * @param encoding
+   * @see Compression
+   */
+	public void setContentEncoding(String encoding)
+	{
+		contentEncoding = encoding;
+		addHeader("Content-Encoding", encoding);
+	}
+
+  /**
+   * Content that must be copied on its way to the sender is copied through buffers from this pool.  The server sets its
+   * own pool before the response is sent.  Default: BufferPool.getShared().
+   * @param pool
+   */
+	public void setBufferPool(BufferPool pool)
+	{
+		bufferPool = pool;
+	}
+
+	public BufferPool getBufferPool()
+	{
+		return bufferPool;
+	}
+
   /**
    * Configures this response to be a redirect to the specified URL.
    * @param location
@@ -137,6 +212,15 @@ public abstract class Response
 		addHeader("Last-Modified", date);
 	}
 
+  /**
+   * Like setLastModifiedHeader(String), formatting the date with HttpDate.
+   * @param date
+   */
+	public void setLastModifiedHeader(Date date)
+	{
+		setLastModifiedHeader(HttpDate.format(date));
+	}
+
   /**
    * Gives the response an expiration data.  Sets the Expires header.
    * @param date
@@ -146,6 +230,15 @@ public abstract class Response
 		addHeader("Expires", date);
 	}
 
+  /**
+   * Like setExpiresHeader(String), formatting the date with HttpDate.
+   * @param date
+   */
+	public void setExpiresHeader(Date date)
+	{
+		setExpiresHeader(HttpDate.format(date));
+	}
+
   /**
    * Add an header to the response.
    * @param key
@@ -163,7 +256,7 @@ public abstract class Response
    */
 	public String getHeader(String key)
 	{
-		return (String) headers.get(key);
+		return headers.get(key);
 	}
 
   /**
@@ -176,18 +269,10 @@ public abstract class Response
 		return value.getBytes("UTF-8");
 	}
 
-	private void makeHeaders(StringBuffer text)
-	{
-		for(Iterator iterator = headers.keySet().iterator(); iterator.hasNext();)
-		{
-			String key = (String) iterator.next();
-			String value = (String) headers.get(key);
-			text.append(key).append(": ").append(value).append(CRLF);
-		}
-	}
-
 	protected void addStandardHeaders()
 	{
+		if(getHeader("Date") == null)
+			addHeader("Date", HttpDate.now());
 		addHeader("Content-Type", getContentType());
 		addSpecificHeaders();
 	}
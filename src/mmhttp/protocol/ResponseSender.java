@@ -4,7 +4,8 @@
 package mmhttp.protocol;
 
 /**
- * Implementers of this interface are responsible for sending responses over a socket.
+ * Implementers of this interface are responsible for sending responses over a socket.  Those that can send more
+ * efficiently implement BulkResponseSender as well.
  *
  * TODO MdM - Having a second look at this, I'm not sure it's really worth keeping around.  
  */
@@ -0,0 +1,173 @@
+//- Copyright ©2009 Micah Martin.  All Rights Reserved
+//- MMHTTP and all included source files are distributed under terms of the GNU LGPL.
+
+package mmhttp.protocol;
+
+import mmhttp.util.BufferPool;
+
+import java.io.EOFException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Helpers for implementers and users of ResponseSender.
+ */
+public class ResponseSenderUtil
+{
+  /**
+   * @param sender
+   * @return the sender itself if it's a BulkResponseSender, otherwise an adapter that sends everything through its
+   * send(byte[]) method.  The adapter sends gathered buffers as one array and holds nothing back, so its flush() does
+   * nothing.
+   */
+  public static BulkResponseSender bulk(ResponseSender sender)
+  {
+    if(sender instanceof BulkResponseSender)
+      return (BulkResponseSender) sender;
+    return new Adapter(sender);
+  }
+
+  /**
+   * Sends part of a file through the sender's send(byte[], int, int) method, using a buffer from the shared
+   * BufferPool.  For senders that can't transfer files directly to their socket.
+   *
+   * @param file
+   * @param position - where to start in the file
+   * @param count - number of bytes to send
+   * @param sender
+   * @throws Exception
+   */
+  public static void copy(FileChannel file, long position, long count, BulkResponseSender sender) throws Exception
+  {
+    copy(file, position, count, sender, BufferPool.getShared());
+  }
+
+  /**
+   * Like copy(FileChannel, long, long, BulkResponseSender), using a buffer from the given pool.
+   */
+  public static void copy(FileChannel file, long position, long count, BulkResponseSender sender, BufferPool pool) throws Exception
+  {
+    byte[] bytes = pool.acquire();
+    try
+    {
+      ByteBuffer buffer = ByteBuffer.wrap(bytes);
+      while(count > 0)
+      {
+        buffer.clear();
+        if(count < buffer.capacity())
+          buffer.limit((int) count);
+        int bytesRead = file.read(buffer, position);
+        if(bytesRead == -1)
+          throw new EOFException("The file ended " + count + " bytes short");
+        sender.send(bytes, 0, bytesRead);
+        position += bytesRead;
+        count -= bytesRead;
+      }
+    }
+    finally
+    {
+      pool.release(bytes);
+    }
+  }
+
+  /**
+   * Sends the remaining bytes of each buffer, in order, through the sender's send(byte[], int, int) method.  The
+   * bytes of heap buffers are sent from their backing arrays without copying.  Each buffer's position is advanced to
+   * its limit.  For senders that can't write buffers directly to their socket.
+   *
+   * @param buffers
+   * @param sender
+   * @throws Exception
+   */
+  public static void send(ByteBuffer[] buffers, BulkResponseSender sender) throws Exception
+  {
+    for(ByteBuffer buffer : buffers)
+    {
+      if(!buffer.hasRemaining())
+        continue;
+      if(buffer.hasArray())
+      {
+        sender.send(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        buffer.position(buffer.limit());
+      }
+      else
+        sendCopied(buffer, sender);
+    }
+  }
+
+  /**
+   * @param buffers
+   * @return the total number of bytes remaining in the buffers
+   */
+  public static long remaining(ByteBuffer[] buffers)
+  {
+    long remaining = 0;
+    for(ByteBuffer buffer : buffers)
+      remaining += buffer.remaining();
+    return remaining;
+  }
+
+  private static void sendCopied(ByteBuffer buffer, BulkResponseSender sender) throws Exception
+  {
+    BufferPool pool = BufferPool.getShared();
+    byte[] bytes = pool.acquire();
+    try
+    {
+      while(buffer.hasRemaining())
+      {
+        int length = Math.min(bytes.length, buffer.remaining());
+        buffer.get(bytes, 0, length);
+        sender.send(bytes, 0, length);
+      }
+    }
+    finally
+    {
+      pool.release(bytes);
+    }
+  }
+
+  private static class Adapter implements BulkResponseSender
+  {
+    private ResponseSender sender;
+
+    public Adapter(ResponseSender sender)
+    {
+      this.sender = sender;
+    }
+
+    public void send(byte[] bytes) throws Exception
+    {
+      sender.send(bytes);
+    }
+
+    public void send(byte[] bytes, int offset, int length) throws Exception
+    {
+      // The array may be reused once this returns, so the sender gets a copy it can keep.
+      sender.send(Arrays.copyOfRange(bytes, offset, offset + length));
+    }
+
+    public void send(FileChannel file, long position, long count) throws Exception
+    {
+      copy(file, position, count, this);
+    }
+
+    public void send(ByteBuffer... buffers) throws Exception
+    {
+      byte[] bytes = new byte[(int) remaining(buffers)];
+      ByteBuffer joined = ByteBuffer.wrap(bytes);
+      for(ByteBuffer buffer : buffers)
+        joined.put(buffer);
+      sender.send(bytes);
+    }
+
+    public void flush() throws Exception
+    {
+    }
+
+    public void close() throws Exception
+    {
+      sender.close();
+    }
+  }
+}
@@ -3,6 +3,7 @@
 
 package mmhttp.protocol;
 
+import java.io.IOException;
 import java.nio.ByteBuffer;
 
 /**
@@ -12,6 +13,7 @@ import java.nio.ByteBuffer;
 public class SimpleResponse extends Response
 {
 	private byte[] content = new byte[0];
+	private boolean contentEncoded;
 
   /**
    * Default constructor with no configuration.
@@ -42,14 +44,17 @@ public class SimpleResponse extends Response
 	}
 
   /**
-   * Converts the response into HTTP compliant bytes and sends them through the ResponseSender.
+   * Converts the response into HTTP compliant bytes and sends them through the ResponseSender.  The headers and the
+   * content are sent together, without being copied into one array.  If a content encoding is set, the content is
+   * compressed first.
    * @param sender
    * @throws Exception
    */
 	public void readyToSend(ResponseSender sender) throws Exception
 	{
-		byte[] bytes = getBytes();
-		sender.send(bytes);
+		encodeContent();
+		addStandardHeaders();
+		ResponseSenderUtil.bulk(sender).send(makeHttpHeaderBuffer(), ByteBuffer.wrap(content));
 		sender.close();
 	}
 
@@ -60,7 +65,7 @@ public class SimpleResponse extends Response
    */
 	public void setContent(String value) throws Exception
 	{
-		content = getEncodedBytes(value);
+		setContent(getEncodedBytes(value));
 	}
 
   /**
@@ -70,6 +75,18 @@ public class SimpleResponse extends Response
 	public void setContent(byte[] value)
 	{
 		content = value;
+		contentEncoded = false;
+	}
+
+  /**
+   * Sets content that is already compressed with the response's content encoding, so that it isn't compressed again
+   * when sent.  Call setContentEncoding() first.
+   * @param value
+   */
+	public void setEncodedContent(byte[] value)
+	{
+		content = value;
+		contentEncoded = true;
 	}
 
   /**
@@ -81,7 +98,7 @@ public class SimpleResponse extends Response
 	}
 
   /**
-   * @return the raw bytes of the response body.
+   * @return the raw bytes of the response body.  Once the response is sent with a content encoding, they're compressed.
    */
 	public byte[] getContentBytes()
 	{
@@ -103,13 +120,30 @@ public class SimpleResponse extends Response
    */
 	public byte[] getBytes()
 	{
+		try
+		{
+			encodeContent();
+		}
+		catch(IOException e)
+		{
+			throw new RuntimeException(e);
+		}
 		addStandardHeaders();
-		byte[] headerBytes = makeHttpHeaders().getBytes();
-		ByteBuffer bytes = ByteBuffer.allocate(headerBytes.length + getContentSize());
+		ByteBuffer headerBytes = makeHttpHeaderBuffer();
+		ByteBuffer bytes = ByteBuffer.allocate(headerBytes.remaining() + getContentSize());
 		bytes.put(headerBytes).put(content);
 		return bytes.array();
 	}
 
+	private void encodeContent() throws IOException
+	{
+		if(getContentEncoding() != null && !contentEncoded)
+		{
+			content = Compression.compress(content, getContentEncoding());
+			contentEncoded = true;
+		}
+	}
+
   /**
    * @return the size of the content (body).  Used in the Content-Length header.
    */
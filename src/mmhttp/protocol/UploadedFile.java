@@ -5,17 +5,26 @@ package mmhttp.protocol;
 
 import mmhttp.util.FileUtil;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 
 /**
  * When parsing a request that contains uploaded files, the file data will be bundled up in instance of this class.  The
- * actual file content is stored in a temporary file. 
+ * actual file content is stored in a temporary file, or, for small files, in memory.  getFile() writes content held in
+ * memory to a temp file when it's first called; getInputStream() and getBytes() read the content wherever it is.
  */
 public class UploadedFile
 {
 	private String name;
 	private String type;
 	private File file;
+	private byte[] content;
+	private File directory;
 
   /**
    * @param name
@@ -29,6 +38,20 @@ public class UploadedFile
 		this.file = file;
 	}
 
+  /**
+   * @param name
+   * @param type
+   * @param content
+   * @param directory - where a temp file is created, should getFile() be called.  null for the system's temp directory.
+   */
+	public UploadedFile(String name, String type, byte[] content, File directory)
+	{
+		this.name = name;
+		this.type = type;
+		this.content = content;
+		this.directory = directory;
+	}
+
   /**
    * @return the file's name
    */
@@ -46,13 +69,78 @@ public class UploadedFile
 	}
 
   /**
-   * @return the File, which points to the temp file where the content is stored.
+   * @return the File, which points to the temp file where the content is stored.  Content held in memory is written to
+   * a temp file first.
    */
 	public File getFile()
 	{
+		if(file == null && content != null)
+		{
+			try
+			{
+				File tempFile = File.createTempFile("FitNesse", ".uploadedFile", directory);
+				OutputStream output = new FileOutputStream(tempFile);
+				try
+				{
+					output.write(content);
+				}
+				finally
+				{
+					output.close();
+				}
+				file = tempFile;
+			}
+			catch(IOException e)
+			{
+				throw new RuntimeException("Could not write the uploaded file to a temp file", e);
+			}
+		}
 		return file;
 	}
 
+  /**
+   * @return true if the content is held in memory rather than in a file
+   */
+	public boolean isInMemory()
+	{
+		return content != null;
+	}
+
+  /**
+   * @return the number of bytes in the file
+   */
+	public long getSize()
+	{
+		if(content != null)
+			return content.length;
+		else
+			return file == null ? 0 : file.length();
+	}
+
+  /**
+   * @return a new stream of the file's content
+   * @throws IOException
+   */
+	public InputStream getInputStream() throws IOException
+	{
+		if(content != null)
+			return new ByteArrayInputStream(content);
+		else
+			return new FileInputStream(file);
+	}
+
+  /**
+   * @return the file's content
+   * @throws Exception
+   */
+	public byte[] getBytes() throws Exception
+	{
+		if(content != null)
+			return content;
+		else
+			return FileUtil.getFileBytes(file);
+	}
+
   /**
    * @return a human readable representation of the object.
    */
@@ -60,7 +148,7 @@ public class UploadedFile
 	{
 		try
 		{
-			return "name : " + getName() + "; type : " + getType() + "; content : " + FileUtil.getFileContent(file);
+			return "name : " + getName() + "; type : " + getType() + "; content : " + new String(getBytes());
 		}
 		catch(Exception e)
 		{
@@ -78,10 +166,12 @@ public class UploadedFile
 	}
 
   /**
-   * Deletes the temp file containing the uploaded file content. 
+   * Deletes the temp file containing the uploaded file content, and lets go of content held in memory.
    */
 	public void delete()
 	{
-		file.delete();
+		if(file != null)
+			file.delete();
+		content = null;
 	}
 }
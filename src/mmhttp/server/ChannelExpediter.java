@@ -0,0 +1,678 @@
+//- Copyright ©2009 Micah Martin.  All Rights Reserved
+//- MMHTTP and all included source files are distributed under terms of the GNU LGPL.
+
+package mmhttp.server;
+
+import mmhttp.protocol.BulkResponseSender;
+import mmhttp.protocol.HttpException;
+import mmhttp.protocol.IncrementalRequestParser;
+import mmhttp.protocol.Request;
+import mmhttp.protocol.RequestHeadParser;
+import mmhttp.protocol.Response;
+import mmhttp.protocol.ResponseSenderUtil;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * The Expediter of the SelectorService.  It plays the same role as the Expediter but never blocks a thread on its
+ * socket.  Incoming bytes are fed to an IncrementalRequestParser by the I/O loop until a complete request has
+ * arrived.  The request's entity body is then parsed and responded to on a worker thread.  Everything the Response
+ * sends is queued and written by the I/O loop.  If the workers are saturated the request is answered with the
+ * Server's 503 response instead.
+ *
+ * Entity bodies are held in memory until the request is complete, so those larger than the Server's maxBodySize are
+ * refused with 413, and those meant for a StreamingBodyResponder with 501.  Chunked bodies are decoded as they arrive.
+ *
+ * Only the I/O loop touches the channel.  Methods documented as "I/O loop only" must not be called by other threads.
+ */
+public class ChannelExpediter implements BulkResponseSender
+{
+  private static final int MAX_QUEUED_BYTES = 256 * 1024;
+
+  private SocketChannel channel;
+  private SelectionKey key;
+  private SelectorService.IoLoop loop;
+  private Server server;
+  private Executor workers;
+
+  private IncrementalRequestParser parser = new IncrementalRequestParser();
+  private ByteBuffer pending;
+  private boolean headChecked;
+  private long lastActivity;
+  private boolean dispatched;
+  private int requestCount;
+  private LinkedList<Object> outbound = new LinkedList<Object>();
+  private long lastWrite;
+  private boolean responseClosed;
+
+  private Request request;
+  private Response response;
+  private boolean keepAlive;
+  private int queuedBytes;
+  private byte[] writeBuffer;
+  private int writeBufferLength;
+  private volatile boolean closed;
+
+  ChannelExpediter(SocketChannel channel, SelectionKey key, SelectorService.IoLoop loop, Server server, Executor workers)
+  {
+    this.channel = channel;
+    this.key = key;
+    this.loop = loop;
+    this.server = server;
+    this.workers = workers;
+    parser.setMaxBodySize(server.maxBodySize);
+    lastActivity = System.currentTimeMillis();
+  }
+
+  /**
+   * Collects the bytes in a write buffer, which is queued to be written by the I/O loop when it fills, on flush(), or
+   * on close().  Queuing blocks while too many bytes are already waiting to be written so that a slow client can't
+   * cause large responses to pile up in memory.
+   *
+   * @param bytes
+   * @throws Exception
+   */
+  public void send(byte[] bytes) throws Exception
+  {
+    send(bytes, 0, bytes.length);
+  }
+
+  /**
+   * Like send(byte[]).  The bytes are copied, so the array may be reused as soon as this returns.
+   *
+   * @param bytes
+   * @param offset
+   * @param length
+   * @throws Exception
+   */
+  public void send(byte[] bytes, int offset, int length) throws Exception
+  {
+    if(length == 0)
+      return;
+    acquireWriteBuffer();
+    if(length > writeBuffer.length - writeBufferLength)
+      flush();
+    if(length >= writeBuffer.length)
+      queue(Arrays.copyOfRange(bytes, offset, offset + length));
+    else
+    {
+      System.arraycopy(bytes, offset, writeBuffer, writeBufferLength, length);
+      writeBufferLength += length;
+    }
+  }
+
+  /**
+   * Queues the contents of the write buffer to be written by the I/O loop.
+   *
+   * @throws Exception
+   */
+  public void flush() throws Exception
+  {
+    if(writeBufferLength == 0)
+      return;
+    queue(Arrays.copyOf(writeBuffer, writeBufferLength));
+    writeBufferLength = 0;
+  }
+
+  private void acquireWriteBuffer()
+  {
+    if(writeBuffer == null)
+      writeBuffer = server.getBufferPool().acquire();
+  }
+
+  private void queue(byte[] bytes) throws InterruptedException
+  {
+    final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+    int length = bytes.length;
+    synchronized(this)
+    {
+      while(queuedBytes > MAX_QUEUED_BYTES && !closed)
+        wait();
+      if(closed)
+        return;
+      queuedBytes += length;
+    }
+    loop.execute(new Runnable()
+    {
+      public void run()
+      {
+        enqueue(buffer);
+      }
+    });
+  }
+
+  /**
+   * Queues the part of the file to be transferred to the socket by the I/O loop, and waits until it has been.
+   *
+   * @param file
+   * @param position
+   * @param count
+   * @throws Exception
+   */
+  public void send(FileChannel file, long position, long count) throws Exception
+  {
+    if(count <= 0)
+      return;
+    flush();
+    transfer(new FileRegion(file, position, count));
+  }
+
+  /**
+   * Buffers that fit in the write buffer are copied into it.  Larger ones are queued, behind the contents of the write
+   * buffer, to be written by the I/O loop with gathering writes, and this waits until they have been.
+   *
+   * @param buffers
+   * @throws Exception
+   */
+  public void send(ByteBuffer... buffers) throws Exception
+  {
+    long count = ResponseSenderUtil.remaining(buffers);
+    if(count == 0)
+      return;
+    acquireWriteBuffer();
+    if(count <= writeBuffer.length - writeBufferLength)
+    {
+      ResponseSenderUtil.send(buffers, this);
+      return;
+    }
+    flush();
+    transfer(new BufferRegion(buffers, count));
+  }
+
+  private void transfer(final Region region) throws InterruptedException
+  {
+    loop.execute(new Runnable()
+    {
+      public void run()
+      {
+        enqueue(region);
+      }
+    });
+    synchronized(this)
+    {
+      while(!region.transferred && !closed)
+        wait();
+    }
+  }
+
+  /**
+   * Flushes the write buffer, logs the request and, once all queued bytes are written, either closes the connection or
+   * waits for the next request.
+   *
+   * @throws Exception
+   */
+  public void close() throws Exception
+  {
+    flush();
+    if(writeBuffer != null)
+    {
+      server.getBufferPool().release(writeBuffer);
+      writeBuffer = null;
+    }
+    if(request != null && server.logger != null)
+      server.logger.log(Expediter.makeLogData(channel.socket(), request, response));
+    loop.execute(new Runnable()
+    {
+      public void run()
+      {
+        responseClosed = true;
+        writeOutbound();
+      }
+    });
+  }
+
+  /**
+   * I/O loop only.  Reads whatever bytes are available and dispatches the request once complete.
+   */
+  void readable()
+  {
+    try
+    {
+      ByteBuffer buffer = loop.getReadBuffer();
+      buffer.clear();
+      int bytesRead = channel.read(buffer);
+      if(bytesRead == -1)
+      {
+        closeChannel();
+        return;
+      }
+      buffer.flip();
+      lastActivity = System.currentTimeMillis();
+      process(buffer);
+    }
+    catch(IOException e)
+    {
+      closeChannel();
+    }
+  }
+
+  /**
+   * I/O loop only.  Continues writing queued bytes.
+   */
+  void writable()
+  {
+    writeOutbound();
+  }
+
+  /**
+   * I/O loop only.  Closes idle connections and times out requests that stopped making progress.  A connection that
+   * hasn't started a request, whether fresh or kept alive, is closed without a response.  So is one whose client stops
+   * taking the response, which also wakes the worker waiting to queue more of it.
+   *
+   * @param now
+   */
+  void checkTimeouts(long now)
+  {
+    if(dispatched)
+    {
+      if(!outbound.isEmpty() && now - lastWrite > server.requestTimeout)
+        closeChannel();
+      return;
+    }
+    if(parser.numberOfBytesParsed() == 0 && pending == null)
+    {
+      long timeout = requestCount > 0 ? server.keepAliveTimeout : server.requestTimeout;
+      if(now - lastActivity > timeout)
+        closeChannel();
+    }
+    else if(now - lastActivity > server.requestTimeout)
+      respondWithError(408, new Exception("The client request has been unproductive for too long.  It has timed out and will now longer be processed"));
+  }
+
+  /**
+   * I/O loop only.
+   */
+  void closeChannel()
+  {
+    synchronized(this)
+    {
+      closed = true;
+      notifyAll();
+    }
+    key.cancel();
+    try
+    {
+      channel.close();
+    }
+    catch(IOException e)
+    {
+      // already gone
+    }
+  }
+
+  /**
+   * Feeds the bytes to the parser and dispatches the request once complete.  Bytes that arrive while a request is
+   * being responded to, pipelined requests, are kept until the response is finished.
+   */
+  private void process(ByteBuffer buffer)
+  {
+    try
+    {
+      while(!dispatched && !closed && buffer.hasRemaining())
+      {
+        int progress = parser.parse(buffer);
+        if(!headChecked && parser.isHeadComplete())
+        {
+          headChecked = true;
+          checkHead(parser.getHead());
+        }
+        if(progress == IncrementalRequestParser.COMPLETE)
+          dispatchRequest();
+      }
+    }
+    catch(HttpException e)
+    {
+      respondWithError(e.getStatus(), e);
+      return;
+    }
+    if(buffer.hasRemaining() && !closed)
+      keep(buffer);
+  }
+
+  /**
+   * Entity bodies are collected in memory before any Responder runs, so one can't be streamed to a
+   * StreamingBodyResponder.  Such requests are refused before their bodies are read.
+   */
+  private void checkHead(RequestHeadParser head) throws HttpException
+  {
+    if(head.getHeader("Content-Length") == null && head.getHeader("Transfer-Encoding") == null)
+      return;
+    if(StreamingBodyResponder.class.isAssignableFrom(server.responderFactory.responderClassFor(head.getResource())))
+      throw new HttpException("Entity bodies can't be streamed to a Responder by the nonBlocking transport", 501);
+  }
+
+  private void keep(ByteBuffer buffer)
+  {
+    if(pending == null)
+      pending = ByteBuffer.allocate(Math.max(1024, buffer.remaining()));
+    else if(pending.remaining() < buffer.remaining())
+    {
+      ByteBuffer bigger = ByteBuffer.allocate(Math.max(pending.position() + buffer.remaining(), pending.capacity() * 2));
+      pending.flip();
+      bigger.put(pending);
+      pending = bigger;
+    }
+    pending.put(buffer);
+  }
+
+  private void dispatchRequest()
+  {
+    final Request request;
+    try
+    {
+      request = parser.getRequest();
+    }
+    catch(Exception e)
+    {
+      respondWithError(500, e);
+      return;
+    }
+    parser.reset();
+    headChecked = false;
+    dispatch(new Runnable()
+    {
+      public void run()
+      {
+        respond(request);
+      }
+    });
+  }
+
+  private void dispatch(Runnable work)
+  {
+    dispatched = true;
+    requestCount++;
+    key.interestOps(0);
+    try
+    {
+      workers.execute(work);
+    }
+    catch(RejectedExecutionException e)
+    {
+      refuse();
+    }
+  }
+
+  private void refuse()
+  {
+    try
+    {
+      request = null;
+      keepAlive = false;
+      discardInput();
+      byte[] bytes = server.getServiceUnavailableResponse();
+      synchronized(this)
+      {
+        queuedBytes += bytes.length;
+      }
+      responseClosed = true;
+      enqueue(ByteBuffer.wrap(bytes));
+    }
+    catch(Exception e)
+    {
+      closeChannel();
+    }
+  }
+
+  private void respondWithError(final int status, final Exception error)
+  {
+    discardInput();
+    dispatch(new Runnable()
+    {
+      public void run()
+      {
+        request = null;
+        keepAlive = false;
+        try
+        {
+          response = Expediter.createErrorResponse(server, request, error);
+          response.setStatus(status);
+          response.readyToSend(ChannelExpediter.this);
+        }
+        catch(Throwable e)
+        {
+          e.printStackTrace();
+          abort();
+        }
+      }
+    });
+  }
+
+  private void discardInput()
+  {
+    parser.reset();
+    headChecked = false;
+    pending = null;
+  }
+
+  private void respond(Request request)
+  {
+    try
+    {
+      this.request = request;
+      request.setRemoteHost(((InetSocketAddress) channel.socket().getRemoteSocketAddress()).getAddress(), server.hostNameCache);
+      response = makeResponse(request);
+      response.setBufferPool(server.getBufferPool());
+      response.readyToSend(this);
+    }
+    catch(Throwable e)
+    {
+      e.printStackTrace();
+      abort();
+    }
+  }
+
+  private Response makeResponse(Request request) throws Exception
+  {
+    Responder responder;
+    try
+    {
+      responder = Expediter.prepareEntityBody(server, request);
+      request.parse();
+    }
+    catch(HttpException e)
+    {
+      keepAlive = false;
+      Response response = Expediter.createErrorResponse(server, request, e);
+      response.setStatus(e.getStatus());
+      return response;
+    }
+    catch(Exception e)
+    {
+      keepAlive = false;
+      return Expediter.createErrorResponse(server, request, e);
+    }
+
+    keepAlive = Expediter.shouldKeepAlive(server, request, requestCount);
+    try
+    {
+      return Expediter.createGoodResponse(server, request, responder, keepAlive);
+    }
+    catch(Exception e)
+    {
+      keepAlive = false;
+      Response response = new BuiltinErrorResponder(e).makeResponse(server, request);
+      response.addHeader("Connection", "close");
+      return response;
+    }
+  }
+
+  private void abort()
+  {
+    loop.execute(new Runnable()
+    {
+      public void run()
+      {
+        closeChannel();
+      }
+    });
+  }
+
+  /**
+   * I/O loop only.  The write timeout runs from when bytes start waiting to be written, or were last written.
+   */
+  private void enqueue(Object next)
+  {
+    if(outbound.isEmpty())
+      lastWrite = System.currentTimeMillis();
+    outbound.add(next);
+    writeOutbound();
+  }
+
+  private void writeOutbound()
+  {
+    if(closed)
+      return;
+    try
+    {
+      while(!outbound.isEmpty())
+      {
+        Object next = outbound.getFirst();
+        if(next instanceof Region)
+        {
+          Region region = (Region) next;
+          long remaining = region.remaining;
+          boolean done = region.transferTo(channel);
+          if(region.remaining < remaining)
+            lastWrite = System.currentTimeMillis();
+          if(!done)
+          {
+            key.interestOps(SelectionKey.OP_WRITE);
+            return;
+          }
+          transferred(region);
+        }
+        else
+        {
+          ByteBuffer buffer = (ByteBuffer) next;
+          int written = channel.write(buffer);
+          if(written > 0)
+            lastWrite = System.currentTimeMillis();
+          released(written);
+          if(buffer.hasRemaining())
+          {
+            key.interestOps(SelectionKey.OP_WRITE);
+            return;
+          }
+        }
+        outbound.removeFirst();
+      }
+      if(responseClosed)
+        finishResponse();
+      else
+        key.interestOps(0);
+    }
+    catch(IOException e)
+    {
+      closeChannel();
+    }
+  }
+
+  private synchronized void released(int bytes)
+  {
+    queuedBytes -= bytes;
+    notifyAll();
+  }
+
+  private synchronized void transferred(Region region)
+  {
+    region.transferred = true;
+    notifyAll();
+  }
+
+  private void finishResponse()
+  {
+    responseClosed = false;
+    if(!keepAlive)
+    {
+      closeChannel();
+      return;
+    }
+    dispatched = false;
+    lastActivity = System.currentTimeMillis();
+    key.interestOps(SelectionKey.OP_READ);
+    if(pending != null)
+    {
+      ByteBuffer kept = pending;
+      pending = null;
+      kept.flip();
+      process(kept);
+    }
+  }
+
+  /**
+   * Bytes that are written straight from where the sender keeps them.  The sender waits until they're transferred.
+   */
+  private static abstract class Region
+  {
+    protected long remaining;
+    private boolean transferred;
+
+    /**
+     * Transfers as much as the socket will take.
+     *
+     * @return true once the whole region has been transferred
+     */
+    protected abstract boolean transferTo(SocketChannel channel) throws IOException;
+  }
+
+  private static class FileRegion extends Region
+  {
+    private FileChannel file;
+    private long position;
+
+    private FileRegion(FileChannel file, long position, long count)
+    {
+      this.file = file;
+      this.position = position;
+      this.remaining = count;
+    }
+
+    protected boolean transferTo(SocketChannel channel) throws IOException
+    {
+      long sent;
+      do
+      {
+        sent = file.transferTo(position, remaining, channel);
+        if(sent == 0 && position >= file.size())
+          throw new IOException("The file shrank and the response can't be completed");
+        position += sent;
+        remaining -= sent;
+      }
+      while(remaining > 0 && sent > 0);
+      return remaining == 0;
+    }
+  }
+
+  private static class BufferRegion extends Region
+  {
+    private ByteBuffer[] buffers;
+
+    private BufferRegion(ByteBuffer[] buffers, long count)
+    {
+      this.buffers = buffers;
+      this.remaining = count;
+    }
+
+    protected boolean transferTo(SocketChannel channel) throws IOException
+    {
+      long written;
+      do
+      {
+        written = channel.write(buffers);
+        remaining -= written;
+      }
+      while(remaining > 0 && written > 0);
+      return remaining == 0;
+    }
+  }
+}
@@ -3,38 +3,61 @@
 
 package mmhttp.server;
 
+import mmhttp.protocol.BulkResponseSender;
+import mmhttp.protocol.Compression;
 import mmhttp.protocol.HttpException;
+import mmhttp.protocol.InputStreamResponse;
+import mmhttp.protocol.PartHandler;
 import mmhttp.protocol.Request;
 import mmhttp.protocol.Response;
-import mmhttp.protocol.ResponseSender;
+import mmhttp.protocol.ResponseSenderUtil;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
 import java.util.GregorianCalendar;
+import java.util.TimerTask;
 
 /**
  * This class fills a role in the restaurant metaphore.  In a restaurant, the expediter is a person who stands at the
  * window of the kitchen where she puts in orders, organizes, and adds the final touch on all the orders before they get
  * served.  The Expediter in this context takes a socket connection, oversees the parsing of the request, the building
  * of the response, and the sending of data.
+ *
+ * Requests are parsed on the connection's own thread.  The Server's RequestTimeoutMonitor keeps an eye on the
+ * parsing progress and answers with a 408 when the client stops sending.
+ *
+ * Connections are persistent when the client allows it.  After each response the Expediter waits, up to the
+ * Server's keepAliveTimeout, for the next request on the same socket.  When other connections are waiting for a
+ * thread, responses close the connection and idle connections are closed.
  */
-public class Expediter implements ResponseSender
+public class Expediter implements BulkResponseSender
 {
+	private static final long KEEP_ALIVE_CHECK_INTERVAL = 100;
+
 	private Socket socket;
 	private InputStream input;
 	private OutputStream output;
 	private Request request;
 	private Response response;
+	private Responder responder;
 	private Server server;
 	protected long requestParsingTimeLimit;
-	private long requestProgress;
-	private long requestParsingDeadline;
+	private boolean parsing;
+	private boolean timedOut;
 	private boolean hasError;
+	private boolean keepAlive;
+	private boolean responseComplete;
+	private int requestCount;
 
   /**
    * Constructs an Expediter with a fresh socket connection, and the Server from whence it came.
@@ -46,8 +69,8 @@ public class Expediter implements ResponseSender
 	{
 		this.server = server;
 		this.socket = socket;
-		input = socket.getInputStream();
-		output = socket.getOutputStream();
+		input = new BufferedInputStream(socket.getInputStream());
+		output = new BufferedOutputStream(socket.getOutputStream(), server.bufferSize);
 		requestParsingTimeLimit = 10000;
 	}
 
@@ -59,9 +82,20 @@ public class Expediter implements ResponseSender
 	{
 		try
 		{
-			Request request = makeRequest();
-			makeResponse(request);
-			sendResponse();
+			while(true)
+			{
+				Request request = makeRequest();
+				makeResponse(request);
+				sendResponse();
+				if(!keepAlive)
+					break;
+				waitForResponseToComplete();
+				if(!skipUnreadBody(request) || !awaitNextRequest())
+				{
+					socket.close();
+					break;
+				}
+			}
 		}
 		catch(SocketException se)
 		{
@@ -91,15 +125,43 @@ public class Expediter implements ResponseSender
 	}
 
   /**
-   * Writes the given bytes to the socket output stream.
+   * Writes the given bytes to the socket output stream.  Bytes are buffered until the response is closed, flush() is
+   * called, or the buffer fills.
    * @param bytes
    * @throws Exception
    */
 	public void send(byte[] bytes) throws Exception
+	{
+		send(bytes, 0, bytes.length);
+	}
+
+  /**
+   * Writes length bytes of the array, starting at offset, to the socket output stream.
+   * @param bytes
+   * @param offset
+   * @param length
+   * @throws Exception
+   */
+	public void send(byte[] bytes, int offset, int length) throws Exception
+	{
+		try
+		{
+			output.write(bytes, offset, length);
+		}
+		catch(IOException stopButtonPressed_probably)
+		{
+      //okay
+		}
+	}
+
+  /**
+   * Writes any buffered bytes to the socket.
+   * @throws Exception
+   */
+	public void flush() throws Exception
 	{
 		try
 		{
-			output.write(bytes);
 			output.flush();
 		}
 		catch(IOException stopButtonPressed_probably)
@@ -109,20 +171,91 @@ public class Expediter implements ResponseSender
 	}
 
   /**
-   * Logs the request and closes the socket.
+   * Transfers part of a file to the socket.  When the socket has a channel, the operating system moves the bytes
+   * directly from the file to the socket.  Otherwise they're copied through send(byte[]).
+   * @param file
+   * @param position
+   * @param count
+   * @throws Exception
+   */
+	public void send(FileChannel file, long position, long count) throws Exception
+	{
+		SocketChannel channel = socket.getChannel();
+		if(channel == null)
+		{
+			ResponseSenderUtil.copy(file, position, count, this, server.getBufferPool());
+			return;
+		}
+		flush();
+		try
+		{
+			while(count > 0)
+			{
+				long sent = file.transferTo(position, count, channel);
+				if(sent == 0 && position >= file.size())
+				{
+					socket.close(); // the file shrank and the response can't be completed
+					return;
+				}
+				position += sent;
+				count -= sent;
+			}
+		}
+		catch(IOException stopButtonPressed_probably)
+		{
+      //okay
+		}
+	}
+
+  /**
+   * Writes the buffers to the socket channel with gathering writes, after any buffered bytes.  Sockets without a
+   * channel get the buffers through the output stream.
+   *
+   * @param buffers
+   * @throws Exception
+   */
+	public void send(ByteBuffer... buffers) throws Exception
+	{
+		SocketChannel channel = socket.getChannel();
+		if(channel == null)
+		{
+			ResponseSenderUtil.send(buffers, this);
+			return;
+		}
+		flush();
+		try
+		{
+			long remaining = ResponseSenderUtil.remaining(buffers);
+			while(remaining > 0)
+				remaining -= channel.write(buffers);
+		}
+		catch(IOException stopButtonPressed_probably)
+		{
+      //okay
+		}
+	}
+
+  /**
+   * Logs the request and, unless the connection is persistent, closes the socket.
    * @throws Exception
    */
 	public void close() throws Exception
 	{
+		flush();
 		try
 		{
 			log(socket, request, response);
-			socket.close();
+			if(!keepAlive)
+				socket.close();
 		}
 		catch(IOException e)
 		{
 			e.printStackTrace();
 		}
+		finally
+		{
+			markResponseComplete();
+		}
 	}
 
   /**
@@ -142,10 +275,12 @@ public class Expediter implements ResponseSender
 	public Request makeRequest() throws Exception
 	{
 		request = new Request(input);
+		response = null;
+		hasError = false;
+		keepAlive = false;
+		responseComplete = false;
 
-		InetAddress remoteAddress = ((InetSocketAddress) socket.getRemoteSocketAddress()).getAddress();
-		request.setRemoteAddress(remoteAddress.getHostAddress());
-		request.setRemoteHostName(remoteAddress.getHostName());
+		request.setRemoteHost(((InetSocketAddress) socket.getRemoteSocketAddress()).getAddress(), server.hostNameCache);
 
 		return request;
 	}
@@ -156,6 +291,7 @@ public class Expediter implements ResponseSender
    */
 	public void sendResponse() throws Exception
 	{
+		response.setBufferPool(server.getBufferPool());
 		response.readyToSend(this);
 	}
 
@@ -163,13 +299,13 @@ public class Expediter implements ResponseSender
 	{
 		try
 		{
-			Thread parseThread = createParsingThread(request);
-			parseThread.start();
-
-			waitForRequest(request);
+			parseRequest(request);
 
 			if(!hasError)
+			{
+				keepAlive = shouldKeepAlive(request);
 				response = createGoodResponse(request);
+			}
 		}
 		catch(SocketException se)
 		{
@@ -177,11 +313,84 @@ public class Expediter implements ResponseSender
 		}
 		catch(Exception e)
 		{
+			keepAlive = false;
 			response = new BuiltinErrorResponder(e).makeResponse(server, request);
+			response.addHeader("Connection", "close");
 		}
 		return response;
 	}
 
+	private boolean shouldKeepAlive(Request request)
+	{
+		requestCount++;
+		return shouldKeepAlive(server, request, requestCount) && !server.hasWaitingConnections();
+	}
+
+	static boolean shouldKeepAlive(Server server, Request request, int requestCount)
+	{
+		return request.isKeepAlive() && requestCount < server.maxRequestsPerConnection;
+	}
+
+	private synchronized void markResponseComplete()
+	{
+		responseComplete = true;
+		notifyAll();
+	}
+
+	private synchronized void waitForResponseToComplete() throws InterruptedException
+	{
+		while(!responseComplete)
+			wait();
+	}
+
+	private boolean skipUnreadBody(Request request)
+	{
+		try
+		{
+			return request.skipUnreadBody(server.unreadBodyLimit);
+		}
+		catch(IOException e)
+		{
+			return false;
+		}
+	}
+
+  /**
+   * Waits for the next request, up to the keepAliveTimeout.  The wait is given up early once other connections are
+   * waiting for a thread, so that idle connections don't keep them waiting.
+   */
+	private boolean awaitNextRequest() throws Exception
+	{
+		long deadline = System.currentTimeMillis() + server.keepAliveTimeout;
+		try
+		{
+			while(true)
+			{
+				long remaining = deadline - System.currentTimeMillis();
+				if(remaining <= 0 || server.hasWaitingConnections())
+					return false;
+				socket.setSoTimeout((int) Math.min(remaining, KEEP_ALIVE_CHECK_INTERVAL));
+				try
+				{
+					input.mark(1);
+					if(input.read() == -1)
+						return false;
+					input.reset();
+					return true;
+				}
+				catch(SocketTimeoutException e)
+				{
+					// check again
+				}
+			}
+		}
+		finally
+		{
+			if(!socket.isClosed())
+				socket.setSoTimeout(0);
+		}
+	}
+
   /**
    * Creates the correct response object based on the request and authentication settings.
    * @param request
@@ -189,80 +398,148 @@ public class Expediter implements ResponseSender
    * @throws Exception
    */
 	public Response createGoodResponse(Request request) throws Exception
+	{
+		Responder prepared = responder != null ? responder : prepareEntityBody(server, request);
+		responder = null;
+		return createGoodResponse(server, request, prepared, keepAlive);
+	}
+
+  /**
+   * @param server
+   * @param request
+   * @param responder - the Responder returned by prepareEntityBody()
+   * @param keepAlive
+   * @return Response
+   * @throws Exception
+   */
+	static Response createGoodResponse(Server server, Request request, Responder responder, boolean keepAlive) throws Exception
 	{
 		Response response;
-		Responder responder = server.responderFactory.responderFor(request.getResource());
-		responder = server.authenticator.authenticate(server, request, responder);
+		if(!isAuthenticatedBeforeBody(request))
+			responder = server.authenticator.authenticate(server, request, responder);
 		response = responder.makeResponse(server, request);
 		response.addHeader("Server", server.name);
-		response.addHeader("Connection", "close");
+		response.addHeader("Connection", keepAlive ? "keep-alive" : "close");
+		if(server.precompressedFiles && response instanceof InputStreamResponse)
+			((InputStreamResponse) response).usePrecompressedFile(request.getHeader("Accept-Encoding"));
+		if(server.compression)
+			Compression.negotiate(request, response, server.compressionThreshold);
 		return response;
 	}
 
-	private void waitForRequest(Request request) throws InterruptedException
+  /**
+   * Readies a request whose head is parsed for its entity body.  Uploaded files are kept as the server is configured,
+   * unless the Responder is a PartHandler, in which case it's handed the files once the request is authenticated.  The
+   * entity body is left in the stream for a StreamingBodyResponder.
+   *
+   * The Responder is looked up here, once per request, and is to be passed on to createGoodResponse().
+   *
+   * @param server
+   * @param request
+   * @return the Responder for the request, already authenticated if isAuthenticatedBeforeBody()
+   * @throws Exception
+   */
+	static Responder prepareEntityBody(Server server, Request request) throws Exception
 	{
-		long now = System.currentTimeMillis();
-		requestParsingDeadline = now + requestParsingTimeLimit;
-		requestProgress = 0;
-		while(!hasError && !request.hasBeenParsed())
+		request.setUploadThreshold(server.uploadThreshold);
+		request.setUploadDirectory(server.uploadDirectory);
+		request.setMaxBodySize(server.maxBodySize);
+		request.setBufferPool(server.getBufferPool());
+		Responder responder = server.responderFactory.responderFor(request.getResource());
+		if(!request.hasEntityBody())
+			return responder;
+		if(responder instanceof StreamingBodyResponder)
+			request.setStreamingBody(true);
+		if(isAuthenticatedBeforeBody(request))
 		{
-			Thread.sleep(10);
-			if(timeIsUp(now) && parsingIsUnproductive(request))
-					reportError(408, new Exception("The client request has been unproductive for too long.  It has timed out and will now longer be processed"));
+			responder = server.authenticator.authenticate(server, request, responder);
+			if(responder instanceof PartHandler)
+				request.setPartHandler((PartHandler) responder);
 		}
+		return responder;
 	}
 
-	private boolean parsingIsUnproductive(Request request)
+  /**
+   * @return true for requests with multipart content, whose uploaded files may be handed to the Responder as they're
+   * parsed, so the Responder must be authenticated first
+   */
+	static boolean isAuthenticatedBeforeBody(Request request)
 	{
-		long updatedRequestProgress = request.numberOfBytesParsed();
-		if(updatedRequestProgress > requestProgress)
+		return request.hasEntityBody() && request.isMultipart();
+	}
+
+	private void parseRequest(Request request) throws Exception
+	{
+		responder = null;
+		TimerTask timeout = startParsing(request);
+		try
 		{
-			requestProgress = updatedRequestProgress;
-			return false;
+			request.parseHead();
+			responder = prepareEntityBody(server, request);
+			request.parse();
+			if(request.isStreamingBody())
+				socket.setSoTimeout((int) requestParsingTimeLimit);
 		}
-		else
-			return true;
+		catch(HttpException e)
+		{
+			if(finishParsing())
+				reportError(e.getStatus(), e);
+		}
+		catch(Exception e)
+		{
+			if(finishParsing())
+				reportError(e);
+		}
+		finally
+		{
+			timeout.cancel();
+		}
+		if(!finishParsing())
+			reportError(408, new Exception("The client request has been unproductive for too long.  It has timed out and will now longer be processed"));
 	}
 
-	private boolean timeIsUp(long now)
+	private synchronized TimerTask startParsing(Request request)
 	{
-		now = System.currentTimeMillis();
-		if(now > requestParsingDeadline)
+		parsing = true;
+		timedOut = false;
+		return server.getRequestTimeoutMonitor().watch(request, requestParsingTimeLimit, new Runnable()
 		{
-			requestParsingDeadline = now + requestParsingTimeLimit;
-			return true;
-		}
-		else
-			return false;
+			public void run()
+			{
+				requestTimedOut();
+			}
+		});
 	}
 
-	private Thread createParsingThread(final Request request)
-	{
-    return new Thread()
-    {
-      public synchronized void run()
-      {
-        try
-        {
-          request.parse();
-        }
-        catch(HttpException e)
-        {
-          reportError(400, e);
-        }
-        catch(Exception e)
-        {
-          reportError(e);
-        }
-      }
-    };
+	private synchronized boolean finishParsing()
+	{
+		parsing = false;
+		return !timedOut;
+	}
+
+	private void requestTimedOut()
+	{
+		synchronized(this)
+		{
+			if(!parsing)
+				return;
+			timedOut = true;
+		}
+		try
+		{
+			socket.shutdownInput(); // wakes the connection's thread, which answers with the 408
+		}
+		catch(IOException e)
+		{
+			// the socket is already closed
+		}
 	}
 
 	private void reportError(int status, Exception error)
 	{
 		try
 		{
-      response = server.responderFactory.getErrorResponder().makeResponse(server, request, error);
+			response = createErrorResponse(server, request, error);
 			response.setStatus(status);
 			hasError = true;
 		}
@@ -276,7 +553,7 @@ public class Expediter implements ResponseSender
 	{
 		try
 		{
-			response = server.responderFactory.getErrorResponder().makeResponse(server, request, e);
+			response = createErrorResponse(server, request, e);
 			hasError = true;
 		}
 		catch(Exception e1)
@@ -285,6 +562,13 @@ public class Expediter implements ResponseSender
 		}
 	}
 
+	static Response createErrorResponse(Server server, Request request, Exception error) throws Exception
+	{
+		Response response = server.responderFactory.getErrorResponder().makeResponse(server, request, error);
+		response.addHeader("Connection", "close");
+		return response;
+	}
+
   /**
    * Constructs a LogData object representing the loggable data of this request.
    * @param socket
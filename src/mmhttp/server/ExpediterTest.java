@@ -5,14 +5,22 @@ package mmhttp.server;
 
 import junit.framework.TestCase;
 import mmhttp.protocol.MockRequest;
+import mmhttp.protocol.PartHandler;
 import mmhttp.protocol.Request;
 import mmhttp.protocol.Response;
 import mmhttp.protocol.ResponseParser;
+import mmhttp.protocol.SimpleResponse;
 import mmsocketserver.MockSocket;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.PipedInputStream;
 import java.io.PipedOutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
 
 public class ExpediterTest extends TestCase
 {
@@ -20,7 +28,10 @@ public class ExpediterTest extends TestCase
 	private MockSocket socket;
 	private Server server;
 	private PipedInputStream clientInput;
-	private PipedOutputStream clientOutput;
+	private OutputStream clientOutput;
+	private InputStream clientIn;
+	private ServerSocket serverSocket;
+	private Socket client;
 	private ResponseParser response;
 
   public void setUp() throws Exception
@@ -32,6 +43,14 @@ public class ExpediterTest extends TestCase
 		expediter = new Expediter(socket, server);
 	}
 
+	public void tearDown() throws Exception
+	{
+		if(client != null)
+			client.close();
+		if(serverSocket != null)
+			serverSocket.close();
+	}
+
 	public void testSetsRemoteAddressOfRequest() throws Exception
 	{
 		Request request = expediter.makeRequest();
@@ -68,19 +87,38 @@ public class ExpediterTest extends TestCase
 		}
 	}
 
-  public void testIncompleteRequestsTimeOut() throws Exception
-  {
-	  final Expediter sender = preparePipedExpediter();
+	public void testSentBytesAreCoalescedUntilFlushed() throws Exception
+	{
+		final int[] writes = new int[1];
+		ByteArrayOutputStream written = new ByteArrayOutputStream()
+		{
+			public synchronized void write(byte[] bytes, int offset, int length)
+			{
+				writes[0]++;
+				super.write(bytes, offset, length);
+			}
+		};
+		expediter = new Expediter(new MockSocket(new ByteArrayInputStream(new byte[0]), written), server);
 
-	  Thread senderThread = makeSendingThread(sender);
-	  senderThread.start();
-		Thread parseResponseThread = makeParsingThread();
-		parseResponseThread.start();
-    Thread.sleep(sender.requestParsingTimeLimit + 100);
+		expediter.send("HTTP/1.1 200 OK\r\n\r\n".getBytes());
+		expediter.send("body".getBytes());
+		assertEquals(0, written.size());
 
-	  parseResponseThread.join();
+		expediter.flush();
+		assertEquals(1, writes[0]);
+		assertEquals("HTTP/1.1 200 OK\r\n\r\nbody", written.toString());
+	}
 
-	  assertEquals(408, response.getStatus());
+  public void testIncompleteRequestsTimeOut() throws Exception
+  {
+		Thread senderThread = startSocketExpediter(200);
+
+		clientOutput.write("GET /root HTTP/1.1\r\n".getBytes());
+		ResponseParser response = new ResponseParser(clientIn);
+		assertEquals(408, response.getStatus());
+		assertEquals(-1, clientIn.read());
+		senderThread.join(1000);
+		assertFalse(senderThread.isAlive());
   }
 
 	private Expediter preparePipedExpediter() throws Exception
@@ -142,6 +180,176 @@ public class ExpediterTest extends TestCase
 		assertEquals(200, response.getStatus());
 	}
 
+	public void testPersistentConnectionServesSeveralRequests() throws Exception
+	{
+		startSocketExpediter();
+
+		clientOutput.write("GET /root HTTP/1.1\r\n\r\n".getBytes());
+		ResponseParser first = new ResponseParser(clientIn);
+		assertEquals(200, first.getStatus());
+		assertEquals("keep-alive", first.getHeader("Connection"));
+
+		clientOutput.write("GET /root HTTP/1.1\r\nConnection: close\r\n\r\n".getBytes());
+		ResponseParser second = new ResponseParser(clientIn);
+		assertEquals(200, second.getStatus());
+		assertEquals("close", second.getHeader("Connection"));
+		assertEquals(-1, clientIn.read());
+	}
+
+	public void testHttp10ConnectionsCloseByDefault() throws Exception
+	{
+		startSocketExpediter();
+
+		clientOutput.write("GET /root HTTP/1.0\r\n\r\n".getBytes());
+		ResponseParser result = new ResponseParser(clientIn);
+		assertEquals("close", result.getHeader("Connection"));
+		assertEquals(-1, clientIn.read());
+	}
+
+	public void testMaxRequestsPerConnection() throws Exception
+	{
+		server.maxRequestsPerConnection = 2;
+		startSocketExpediter();
+
+		clientOutput.write("GET /root HTTP/1.1\r\n\r\n".getBytes());
+		assertEquals("keep-alive", new ResponseParser(clientIn).getHeader("Connection"));
+		clientOutput.write("GET /root HTTP/1.1\r\n\r\n".getBytes());
+		assertEquals("close", new ResponseParser(clientIn).getHeader("Connection"));
+		assertEquals(-1, clientIn.read());
+	}
+
+	public void testIdleConnectionIsClosedAfterKeepAliveTimeout() throws Exception
+	{
+		server.keepAliveTimeout = 100;
+		Thread senderThread = startSocketExpediter();
+
+		clientOutput.write("GET /root HTTP/1.1\r\n\r\n".getBytes());
+		assertEquals(200, new ResponseParser(clientIn).getStatus());
+		senderThread.join(1000);
+
+		assertFalse(senderThread.isAlive());
+		assertEquals(-1, clientIn.read());
+	}
+
+	public void testUploadsAreHandedToPartHandlerResponders() throws Exception
+	{
+		server.responderFactory.register("upload", new UploadResponder());
+		startSocketExpediter();
+
+		String content = "--bob\r\n" +
+		  "Content-Disposition: form-data; name=\"file\"; filename=\"f.txt\"\r\n" +
+		  "\r\n" +
+		  "uploaded\r\n" +
+		  "--bob--\r\n";
+		clientOutput.write(("POST /upload HTTP/1.1\r\n" +
+		  "Content-Length: " + content.length() + "\r\n" +
+		  "Content-Type: multipart/form-data; boundary=bob\r\n" +
+		  "\r\n" + content).getBytes());
+		assertEquals("8 bytes of f.txt", new ResponseParser(clientIn).getBody());
+
+		clientOutput.write("GET /root HTTP/1.1\r\nConnection: close\r\n\r\n".getBytes());
+		assertEquals(200, new ResponseParser(clientIn).getStatus());
+	}
+
+	public void testResponderIsMadeAndAuthenticatedOncePerRequest() throws Exception
+	{
+		server.responderFactory.register("upload", CountedUploadResponder.class);
+		final int[] authentications = new int[1];
+		server.authenticator = new PromiscuousAuthenticator()
+		{
+			public Responder authenticate(Server server, Request request, Responder privilegedResponder) throws Exception
+			{
+				authentications[0]++;
+				return super.authenticate(server, request, privilegedResponder);
+			}
+		};
+		CountedUploadResponder.made = 0;
+		startSocketExpediter();
+
+		String content = "--bob\r\n" +
+		  "Content-Disposition: form-data; name=\"file\"; filename=\"f.txt\"\r\n" +
+		  "\r\n" +
+		  "uploaded\r\n" +
+		  "--bob--\r\n";
+		clientOutput.write(("POST /upload HTTP/1.1\r\n" +
+		  "Content-Length: " + content.length() + "\r\n" +
+		  "Content-Type: multipart/form-data; boundary=bob\r\n" +
+		  "Connection: close\r\n" +
+		  "\r\n" + content).getBytes());
+		assertEquals("8 bytes of f.txt", new ResponseParser(clientIn).getBody());
+		assertEquals(1, CountedUploadResponder.made);
+		assertEquals(1, authentications[0]);
+	}
+
+	public void testStreamingBodyResponderReadsTheBody() throws Exception
+	{
+		server.responderFactory.register("ingest", new IngestResponder());
+		startSocketExpediter();
+
+		clientOutput.write(("POST /ingest HTTP/1.1\r\n" +
+		  "Content-Length: 10\r\n" +
+		  "Content-Type: text/plain\r\n" +
+		  "\r\n" +
+		  "0123456789").getBytes());
+		assertEquals("read 01234", new ResponseParser(clientIn).getBody());
+
+		clientOutput.write("GET /root HTTP/1.1\r\nConnection: close\r\n\r\n".getBytes());
+		assertEquals(200, new ResponseParser(clientIn).getStatus());
+	}
+
+	public void testChunkedBodiesAreStreamed() throws Exception
+	{
+		server.responderFactory.register("ingest", new IngestResponder());
+		startSocketExpediter();
+
+		clientOutput.write(("POST /ingest HTTP/1.1\r\n" +
+		  "Transfer-Encoding: chunked\r\n" +
+		  "Content-Type: text/plain\r\n" +
+		  "\r\n" +
+		  "3\r\n012\r\n" +
+		  "7\r\n3456789\r\n" +
+		  "0\r\n" +
+		  "\r\n").getBytes());
+		assertEquals("read 01234", new ResponseParser(clientIn).getBody());
+
+		clientOutput.write("GET /root HTTP/1.1\r\nConnection: close\r\n\r\n".getBytes());
+		assertEquals(200, new ResponseParser(clientIn).getStatus());
+	}
+
+	public void testConnectionIsClosedWhenTooMuchBodyIsLeftUnread() throws Exception
+	{
+		server.responderFactory.register("ingest", new IngestResponder());
+		server.unreadBodyLimit = 4;
+		startSocketExpediter();
+
+		clientOutput.write(("POST /ingest HTTP/1.1\r\n" +
+		  "Content-Length: 10\r\n" +
+		  "Content-Type: text/plain\r\n" +
+		  "\r\n" +
+		  "0123456789").getBytes());
+		assertEquals("read 01234", new ResponseParser(clientIn).getBody());
+		assertEquals(-1, clientIn.read());
+	}
+
+	private Thread startSocketExpediter() throws Exception
+	{
+		return startSocketExpediter(10000);
+	}
+
+	private Thread startSocketExpediter(long requestParsingTimeLimit) throws Exception
+	{
+		serverSocket = new ServerSocket(0);
+		client = new Socket("localhost", serverSocket.getLocalPort());
+		client.setSoTimeout(5000);
+		clientIn = client.getInputStream();
+		clientOutput = client.getOutputStream();
+		Expediter sender = new Expediter(serverSocket.accept(), server);
+		sender.setRequestParsingTimeLimit(requestParsingTimeLimit);
+		Thread senderThread = makeSendingThread(sender);
+		senderThread.start();
+		return senderThread;
+	}
+
 	private Thread makeSendingThread(final Expediter sender)
 	{
 		Thread senderThread = new Thread(new Runnable()
@@ -180,6 +388,49 @@ public class ExpediterTest extends TestCase
 		return parseResponseThread;
 	}
 
+	static class UploadResponder implements Responder, PartHandler
+	{
+		public Object handlePart(String name, String filename, String contentType, InputStream content) throws Exception
+		{
+			int size = 0;
+			while(content.read() != -1)
+				size++;
+			return size + " bytes of " + filename;
+		}
+
+		public Response makeResponse(Server server, Request request) throws Exception
+		{
+			SimpleResponse response = new SimpleResponse(200);
+			response.setContent((String) request.getInput("file"));
+			return response;
+		}
+	}
+
+	public static class CountedUploadResponder extends UploadResponder
+	{
+		public static int made;
+
+		public CountedUploadResponder()
+		{
+			made++;
+		}
+	}
+
+	static class IngestResponder implements StreamingBodyResponder
+	{
+		public Response makeResponse(Server server, Request request) throws Exception
+		{
+			byte[] bytes = new byte[5];
+			InputStream body = request.getBodyStream();
+			int count = 0;
+			while(count < bytes.length)
+				count += body.read(bytes, count, bytes.length - count);
+			SimpleResponse response = new SimpleResponse(200);
+			response.setContent("read " + new String(bytes) + request.getBody());
+			return response;
+		}
+	}
+
 	class StoneWallAuthenticator extends Authenticator
 	{
     public Responder authenticate(Server server, Request request, Responder privilegedResponder) throws Exception
@@ -0,0 +1,49 @@
+//- Copyright ©2009 Micah Martin.  All Rights Reserved
+//- MMHTTP and all included source files are distributed under terms of the GNU LGPL.
+
+package mmhttp.server;
+
+import mmhttp.protocol.InputStreamResponse;
+import mmhttp.protocol.Request;
+import mmhttp.protocol.Response;
+
+import java.io.File;
+import java.io.FileOutputStream;
+
+public class MockFileResponder implements Responder
+{
+  private File file;
+
+  public MockFileResponder(File file)
+  {
+    this.file = file;
+  }
+
+  public Response makeResponse(Server server, Request request) throws Exception
+  {
+    InputStreamResponse response = new InputStreamResponse();
+    response.setBody(file);
+    return response;
+  }
+
+  /**
+   * Creates a temporary file of the given size filled with the alphabet, over and over.
+   */
+  public static File createFile(int size) throws Exception
+  {
+    File file = File.createTempFile("MockFileResponder", ".test");
+    file.deleteOnExit();
+    FileOutputStream output = new FileOutputStream(file);
+    output.write(content(size).getBytes());
+    output.close();
+    return file;
+  }
+
+  public static String content(int size)
+  {
+    StringBuffer content = new StringBuffer(size);
+    for(int i = 0; i < size; i++)
+      content.append((char) ('a' + i % 26));
+    return content.toString();
+  }
+}
@@ -0,0 +1,144 @@
+//- Copyright ©2009 Micah Martin.  All Rights Reserved
+//- MMHTTP and all included source files are distributed under terms of the GNU LGPL.
+
+package mmhttp.server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A variation of SocketService that hands each accepted connection to an ExecutorService instead of starting a new
+ * Thread for it.  The ExecutorService decides what kind of thread serves the connection: platform threads from a
+ * pool, or virtual threads.
+ *
+ * Connections the ExecutorService rejects, because its queue is full, are turned away with the Server's 503 response.
+ * While connections wait in the queue, persistent connections give up their threads instead of idling in them until
+ * their next request.
+ *
+ * Connections are accepted through a ServerSocketChannel, so the sockets given to the Server have a channel.
+ */
+public class PooledSocketService
+{
+  private static final long ACCEPT_FAILURE_PAUSE = 100;
+
+  private Server server;
+  private ExecutorService executor;
+  private ServerSocketChannel serverChannel;
+  private Thread acceptThread;
+  private volatile boolean running;
+
+  /**
+   * Opens the server's port and starts accepting connections.
+   *
+   * @param server
+   * @param executor - runs Server.serve() for each connection
+   * @throws Exception
+   */
+  public PooledSocketService(Server server, ExecutorService executor) throws Exception
+  {
+    this.server = server;
+    this.executor = executor;
+    serverChannel = ServerSocketChannel.open();
+    serverChannel.socket().setReuseAddress(true);
+    serverChannel.socket().bind(new InetSocketAddress(server.host, server.port));
+    running = true;
+    acceptThread = new Thread(new Runnable()
+    {
+      public void run()
+      {
+        acceptConnections();
+      }
+    }, "MM-HTTP Acceptor");
+    acceptThread.start();
+  }
+
+  /**
+   * @return the port being listened to.  Handy when the Server was configured with port 0.
+   */
+  public int getLocalPort()
+  {
+    return serverChannel.socket().getLocalPort();
+  }
+
+  /**
+   * @return true until closed
+   */
+  public boolean isRunning()
+  {
+    return running;
+  }
+
+  /**
+   * Stops accepting connections and waits, up to 10 seconds, for the connections being served to complete.
+   *
+   * @throws Exception
+   */
+  public void close() throws Exception
+  {
+    running = false;
+    serverChannel.close();
+    acceptThread.join();
+    executor.shutdown();
+    if(!executor.awaitTermination(10, TimeUnit.SECONDS))
+      executor.shutdownNow();
+  }
+
+  /**
+   * @return true if accepted connections are waiting in the executor's queue for a thread
+   */
+  boolean hasWaitingConnections()
+  {
+    return executor instanceof ThreadPoolExecutor && !((ThreadPoolExecutor) executor).getQueue().isEmpty();
+  }
+
+  private void acceptConnections()
+  {
+    while(running)
+    {
+      try
+      {
+        final SocketChannel channel = serverChannel.accept();
+        try
+        {
+          executor.execute(new Runnable()
+          {
+            public void run()
+            {
+              server.serve(channel.socket());
+            }
+          });
+        }
+        catch(RejectedExecutionException e)
+        {
+          server.refuse(channel);
+        }
+      }
+      catch(IOException e)
+      {
+        if(!serverChannel.isOpen())
+          return;
+        // Running out of file descriptors, for one, fails every accept until some are closed.
+        e.printStackTrace();
+        pauseAfterAcceptFailure();
+      }
+    }
+  }
+
+  private void pauseAfterAcceptFailure()
+  {
+    try
+    {
+      Thread.sleep(ACCEPT_FAILURE_PAUSE);
+    }
+    catch(InterruptedException e)
+    {
+      // keep accepting
+    }
+  }
+}
@@ -0,0 +1,158 @@
+//- Copyright ©2009 Micah Martin.  All Rights Reserved
+//- MMHTTP and all included source files are distributed under terms of the GNU LGPL.
+
+package mmhttp.server;
+
+import mmhttp.protocol.ResponseParser;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.Executors;
+
+public class PooledSocketServiceTest extends Assert
+{
+  private Server server;
+  private PooledSocketService service;
+
+  @Before
+  public void setUp() throws Exception
+  {
+    server = new Server(0);
+    server.register("root", MockResponder.class);
+  }
+
+  @After
+  public void tearDown() throws Exception
+  {
+    if(service != null)
+      service.close();
+    server.stop();
+  }
+
+  @Test
+  public void shouldServeConnectionsWithTheExecutor() throws Exception
+  {
+    service = new PooledSocketService(server, Executors.newCachedThreadPool());
+    Socket client = new Socket("localhost", service.getLocalPort());
+    OutputStream output = client.getOutputStream();
+    output.write("GET /root HTTP/1.1\r\n\r\n".getBytes());
+    assertEquals(200, new ResponseParser(client.getInputStream()).getStatus());
+    output.write("GET /root HTTP/1.1\r\n\r\n".getBytes());
+    assertEquals(200, new ResponseParser(client.getInputStream()).getStatus());
+    client.close();
+  }
+
+  @Test
+  public void shouldTransferFilesToTheSocket() throws Exception
+  {
+    server.register("file", new MockFileResponder(MockFileResponder.createFile(1000000)));
+    service = new PooledSocketService(server, Executors.newCachedThreadPool());
+    Socket client = new Socket("localhost", service.getLocalPort());
+    OutputStream output = client.getOutputStream();
+    output.write("GET /file HTTP/1.1\r\n\r\n".getBytes());
+    ResponseParser response = new ResponseParser(client.getInputStream());
+    assertEquals("1000000", response.getHeader("Content-Length"));
+    assertEquals(MockFileResponder.content(1000000), response.getBody());
+
+    output.write("GET /root HTTP/1.1\r\n\r\n".getBytes());
+    assertEquals(200, new ResponseParser(client.getInputStream()).getStatus());
+    client.close();
+  }
+
+  @Test
+  public void shouldStopRunningWhenClosed() throws Exception
+  {
+    service = new PooledSocketService(server, Executors.newCachedThreadPool());
+    assertTrue(service.isRunning());
+    service.close();
+    assertFalse(service.isRunning());
+    service = null;
+  }
+
+  @Test
+  public void shouldTurnAwayConnectionsWhenTheQueueIsFull() throws Exception
+  {
+    server.workerThreads = 1;
+    server.workerQueueSize = 1;
+    server.retryAfter = 3;
+    service = new PooledSocketService(server, server.createWorkerExecutor());
+    Socket served = new Socket("localhost", service.getLocalPort());
+    Socket queued = new Socket("localhost", service.getLocalPort());
+    Socket refused = new Socket("localhost", service.getLocalPort());
+    refused.setSoTimeout(5000);
+
+    ResponseParser response = new ResponseParser(refused.getInputStream());
+    assertEquals(503, response.getStatus());
+    assertEquals("3", response.getHeader("Retry-After"));
+    assertEquals("close", response.getHeader("Connection"));
+    assertEquals(-1, refused.getInputStream().read());
+
+    refused.close();
+    queued.close();
+    served.close();
+  }
+
+  @Test
+  public void shouldCloseIdleConnectionsWhileOthersWait() throws Exception
+  {
+    ServerSocket probe = new ServerSocket(0);
+    server = new Server(probe.getLocalPort());
+    probe.close();
+    server.register("root", MockResponder.class);
+    server.workerThreads = 1;
+    server.workerQueueSize = 1;
+    server.start();
+    Socket idle = new Socket("localhost", server.port);
+    idle.setSoTimeout(5000);
+    idle.getOutputStream().write("GET /root HTTP/1.1\r\n\r\n".getBytes());
+    assertEquals("keep-alive", new ResponseParser(idle.getInputStream()).getHeader("Connection"));
+
+    Socket waiting = new Socket("localhost", server.port);
+    waiting.setSoTimeout(5000);
+    waiting.getOutputStream().write("GET /root HTTP/1.1\r\n\r\n".getBytes());
+    assertEquals(200, new ResponseParser(waiting.getInputStream()).getStatus());
+    assertEquals(-1, idle.getInputStream().read());
+
+    waiting.close();
+    idle.close();
+  }
+
+  @Test
+  public void shouldBeStartedByServerWhenTheQueueIsBounded() throws Exception
+  {
+    server.workerQueueSize = 10;
+    server.start();
+    assertTrue(server.isRunning());
+    server.stop();
+    assertFalse(server.isRunning());
+  }
+
+  @Test
+  public void virtualThreadsRequireSupportingJvm() throws Exception
+  {
+    server.virtualThreads = true;
+    if(Server.supportsVirtualThreads())
+    {
+      server.start();
+      assertTrue(server.isRunning());
+    }
+    else
+    {
+      try
+      {
+        server.start();
+        fail("should have thrown IllegalStateException");
+      }
+      catch(IllegalStateException e)
+      {
+        assertEquals("Virtual threads require Java 21 or later", e.getMessage());
+        assertFalse(server.isRunning());
+      }
+    }
+  }
+}
@@ -0,0 +1,72 @@
+//- Copyright ©2009 Micah Martin.  All Rights Reserved
+//- MMHTTP and all included source files are distributed under terms of the GNU LGPL.
+
+package mmhttp.server;
+
+import mmhttp.protocol.Request;
+
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * Keeps watch over requests while they are being parsed.  Rather than dedicating a thread to each request, a single
+ * timer thread is shared by all the connections of a Server.  Periodically it checks how many bytes of each request
+ * have been parsed.  A request that makes no progress for an entire period is considered unproductive and its timeout
+ * action is invoked.  Timeout actions run on the shared timer thread, so they must be quick and must not block; the
+ * 408 response is left for the connection's own thread to write.
+ */
+public class RequestTimeoutMonitor
+{
+  private Timer timer = new Timer("MM-HTTP Request Timeout Monitor", true);
+
+  /**
+   * Starts watching the request.  The returned TimerTask must be cancelled once parsing is finished.
+   *
+   * @param request
+   * @param timeLimit - milliseconds the request may go without progress
+   * @param timeoutAction - invoked, on the timer thread, when the request times out.  Must not block.
+   * @return the TimerTask doing the watching
+   */
+  public TimerTask watch(final Request request, long timeLimit, final Runnable timeoutAction)
+  {
+    TimerTask task = new TimerTask()
+    {
+      private long progress = 0;
+
+      public void run()
+      {
+        long updatedProgress = request.numberOfBytesParsed();
+        if(updatedProgress > progress)
+          progress = updatedProgress;
+        else
+        {
+          cancel();
+          runTimeoutAction(timeoutAction);
+        }
+      }
+    };
+    timer.schedule(task, timeLimit, timeLimit);
+    return task;
+  }
+
+  private void runTimeoutAction(Runnable timeoutAction)
+  {
+    try
+    {
+      timeoutAction.run();
+    }
+    catch(Throwable e)
+    {
+      // Anything escaping a TimerTask kills the Timer, and with it the timeouts of every other connection.
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Stops the timer thread.  Requests still being watched will no longer time out.
+   */
+  public void close()
+  {
+    timer.cancel();
+  }
+}
@@ -0,0 +1,112 @@
+//- Copyright ©2009 Micah Martin.  All Rights Reserved
+//- MMHTTP and all included source files are distributed under terms of the GNU LGPL.
+
+package mmhttp.server;
+
+import mmhttp.protocol.Request;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.TimerTask;
+
+public class RequestTimeoutMonitorTest extends Assert
+{
+  private RequestTimeoutMonitor monitor;
+  private PipedOutputStream output;
+  private Request request;
+  private boolean timedOut;
+  private Runnable timeoutAction = new Runnable()
+  {
+    public void run()
+    {
+      timedOut = true;
+    }
+  };
+
+  @Before
+  public void setUp() throws Exception
+  {
+    monitor = new RequestTimeoutMonitor();
+    output = new PipedOutputStream();
+    request = new Request(new PipedInputStream(output));
+  }
+
+  @After
+  public void tearDown() throws Exception
+  {
+    monitor.close();
+    output.close();
+  }
+
+  @Test
+  public void shouldTimeOutUnproductiveRequests() throws Exception
+  {
+    monitor.watch(request, 50, timeoutAction);
+    Thread.sleep(150);
+
+    assertTrue(timedOut);
+  }
+
+  @Test
+  public void shouldNotTimeOutCancelledWatches() throws Exception
+  {
+    TimerTask task = monitor.watch(request, 50, timeoutAction);
+    task.cancel();
+    Thread.sleep(150);
+
+    assertFalse(timedOut);
+  }
+
+  @Test
+  public void shouldKeepWatchingAfterATimeoutActionFails() throws Exception
+  {
+    monitor.watch(request, 20, new Runnable()
+    {
+      public void run()
+      {
+        throw new RuntimeException("failed timeout action");
+      }
+    });
+    Thread.sleep(100);
+    monitor.watch(request, 20, timeoutAction);
+    Thread.sleep(100);
+
+    assertTrue(timedOut);
+  }
+
+  @Test
+  public void shouldNotTimeOutWhileRequestMakesProgress() throws Exception
+  {
+    Thread parseThread = new Thread()
+    {
+      public void run()
+      {
+        try
+        {
+          request.parse();
+        }
+        catch(Exception e)
+        {
+        }
+      }
+    };
+    parseThread.start();
+    TimerTask task = monitor.watch(request, 100, timeoutAction);
+    byte[] bytes = "GET /something HTTP/1.1\r\n\r\n".getBytes();
+    for(byte aByte : bytes)
+    {
+      output.write(aByte);
+      output.flush();
+      Thread.sleep(20);
+    }
+    parseThread.join();
+    task.cancel();
+
+    assertFalse(timedOut);
+    assertTrue(request.hasBeenParsed());
+  }
+}
@@ -12,7 +12,8 @@ import mmhttp.protocol.MockRequest;
  *
  * <p>A Responder is responsible for generating a Response based on a Request. For any given request, a Responder
  * will be instantiated to respond to that request alone, then thrown to the garbage colletor. Therefor, instance
- * variable are only useful for handling one request.</p>
+ * variable are only useful for handling one request.  The exceptions are Responders that implement
+ * ReusableResponder.</p>
  *
  * <p>There are a few build-in Responders but, for interesting behavior, you will have to implement and register some
  * custom Responders of your own.</p>
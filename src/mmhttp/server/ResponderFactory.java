@@ -3,7 +3,9 @@
 
 package mmhttp.server;
 
-import java.lang.reflect.Constructor;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.util.regex.Pattern;
 import java.util.ArrayList;
 
@@ -13,13 +15,19 @@ import java.util.ArrayList;
  * <p>Every Server will have an instance of a ResponderFactory. The role of the ResponderFactory is to create a
  * Responder based on the resource requested. Users must therefore register their customer Responders along with a
  * regular expresion to describe resources that should be handled by the Responder.</p>
+ * <p/>
+ * <p>Most registrations are plain strings, or strings followed by ".*".  These are indexed in a RouteTrie so that
+ * finding a Responder doesn't get slower as Responders are added.  Only the remaining regular expressions are tried
+ * one after another, and only those whose leading literal characters match the resource.</p>
  *
  * @see Responder
  * @see Server
  */
 public class ResponderFactory
 {
-  private ArrayList<Registration> registrations = new ArrayList<Registration>();
+  private RouteTrie<Registration> routes = new RouteTrie<Registration>();
+  private ArrayList<Registration> patternRegistrations = new ArrayList<Registration>();
+  private int registrationCount;
 
   /**
    * Used in the event that none of the registered Responders match a request.  Default: NotFoundResponder
@@ -83,14 +91,17 @@ public class ResponderFactory
    * <p>The order in which Responder are registere is important. Since a given request may match multiple regular
    * expressions, the factory will follow a simple 'first come, first served' policy. That is the first registered
    * Responder to match the requested resource will be instantiated to process the request.</p>
+   * <p/>
+   * <p>The class must be a Responder with a public default constructor.  Classes that implement ReusableResponder are
+   * instantiated once per thread rather than once per request.</p>
    *
    * @param regex
    * @param klass
+   * @throws IllegalArgumentException if the class can't be instantiated as a Responder
    */
   public void register(String regex, Class klass)
   {
-    Pattern pattern = Pattern.compile(regex);
-    registrations.add(new ClassRegistration(pattern, klass));
+    add(regex, new ClassRegistration(Pattern.compile(regex), klass));
   }
 
   /**
@@ -102,8 +113,17 @@ public class ResponderFactory
    */
   public void register(String regex, Responder responder)
   {
-    Pattern pattern = Pattern.compile(regex);
-    registrations.add(new ResponderRegistration(pattern, responder));
+    add(regex, new ResponderRegistration(Pattern.compile(regex), responder));
+  }
+
+  private void add(String regex, Registration registration)
+  {
+    registration.order = registrationCount++;
+    if(!routes.add(regex, registration.order, registration))
+    {
+      registration.literalPrefix = RouteTrie.literalPrefix(regex);
+      patternRegistrations.add(registration);
+    }
   }
 
   /**
@@ -115,12 +135,15 @@ public class ResponderFactory
    */
   public Registration registrationFor(String resource)
   {
-    for(Registration registration : registrations)
+    RouteTrie.Route<Registration> route = routes.find(resource);
+    for(Registration registration : patternRegistrations)
     {
-      if(registration.pattern.matcher(resource).matches())
+      if(route != null && registration.order > route.order)
+        break;
+      if(resource.startsWith(registration.literalPrefix) && registration.pattern.matcher(resource).matches())
         return registration;
     }
-    return defaultRegistration;
+    return route != null ? route.value : defaultRegistration;
   }
 
   public Responder responderFor(String resource) throws Exception
@@ -129,6 +152,15 @@ public class ResponderFactory
     return registration.getResponder();
   }
 
+  /**
+   * @param resource
+   * @return the class of the Responder that would handle the resource.  No Responder is constructed.
+   */
+  public Class<?> responderClassFor(String resource)
+  {
+    return registrationFor(resource).getResponderClass();
+  }
+
   public ErrorResponder getErrorResponder()
   {
     try
@@ -144,6 +176,8 @@ public class ResponderFactory
   private abstract static class Registration
   {
     public Pattern pattern;
+    private int order;
+    private String literalPrefix;
 
     public Registration(Pattern pattern)
     {
@@ -152,22 +186,66 @@ public class ResponderFactory
 
     public abstract Responder getResponder() throws Exception;
 
+    public abstract Class<?> getResponderClass();
+
   }
 
   private static class ClassRegistration extends Registration
   {
     public Class klass;
+    private MethodHandle constructor;
+    private ThreadLocal<Responder> reusableResponders;
 
     public ClassRegistration(Pattern pattern, Class klass)
     {
       super(pattern);
       this.klass = klass;
+      if(!Responder.class.isAssignableFrom(klass))
+        throw new IllegalArgumentException(klass.getName() + " is not a Responder");
+      try
+      {
+        constructor = MethodHandles.publicLookup().findConstructor(klass, MethodType.methodType(void.class)).asType(MethodType.methodType(Responder.class));
+      }
+      catch(Exception e)
+      {
+        throw new IllegalArgumentException(klass.getName() + " does not have a public default constructor", e);
+      }
+      if(ReusableResponder.class.isAssignableFrom(klass))
+        reusableResponders = new ThreadLocal<Responder>();
     }
 
     public Responder getResponder() throws Exception
     {
-      Constructor constructor = klass.getConstructor();
-      return (Responder) constructor.newInstance();
+      if(reusableResponders == null)
+        return newResponder();
+      Responder responder = reusableResponders.get();
+      if(responder == null)
+      {
+        responder = newResponder();
+        reusableResponders.set(responder);
+      }
+      return responder;
+    }
+
+    public Class<?> getResponderClass()
+    {
+      return klass;
+    }
+
+    private Responder newResponder() throws Exception
+    {
+      try
+      {
+        return (Responder) constructor.invokeExact();
+      }
+      catch(Exception e)
+      {
+        throw e;
+      }
+      catch(Throwable e)
+      {
+        throw new Exception(e);
+      }
     }
   }
 
@@ -185,5 +263,10 @@ public class ResponderFactory
     {
       return responder;
     }
+
+    public Class<?> getResponderClass()
+    {
+      return responder.getClass();
+    }
   }
 }
@@ -41,4 +41,101 @@ public class ResponderFactoryTest extends Assert
     responder = factory.responderFor("blah");
     assertEquals(NotFoundResponder.class, responder.getClass());
   }
+
+  @Test
+  public void shouldMatchTheFirstRegisteredAmongLiteralsPrefixesAndPatterns() throws Exception
+  {
+    Responder literal = new NotFoundResponder();
+    Responder pattern = new NotFoundResponder();
+    Responder prefix = new NotFoundResponder();
+    factory.register("page\\d", pattern);
+    factory.register("page1", literal);
+    factory.register("page.*", prefix);
+
+    assertSame(pattern, factory.responderFor("page1"));
+    assertSame(prefix, factory.responderFor("pageX"));
+    assertSame(pattern, factory.responderFor("page2"));
+  }
+
+  @Test
+  public void shouldPreferEarlierLiteralsToLaterPatterns() throws Exception
+  {
+    Responder literal = new NotFoundResponder();
+    Responder pattern = new NotFoundResponder();
+    factory.register("page1", literal);
+    factory.register("page\\d", pattern);
+
+    assertSame(literal, factory.responderFor("page1"));
+    assertSame(pattern, factory.responderFor("page2"));
+  }
+
+  @Test
+  public void shouldRejectClassesThatCantBeInstantiated() throws Exception
+  {
+    try
+    {
+      factory.register("nope", NoDefaultConstructorResponder.class);
+      fail("should have thrown IllegalArgumentException");
+    }
+    catch(IllegalArgumentException e)
+    {
+      assertEquals(NoDefaultConstructorResponder.class.getName() + " does not have a public default constructor", e.getMessage());
+    }
+
+    try
+    {
+      factory.register("nope", String.class);
+      fail("should have thrown IllegalArgumentException");
+    }
+    catch(IllegalArgumentException e)
+    {
+      assertEquals("java.lang.String is not a Responder", e.getMessage());
+    }
+  }
+
+  @Test
+  public void shouldReuseReusableRespondersWithinAThread() throws Exception
+  {
+    factory.register("reusable", ReusableMockResponder.class);
+    final Responder first = factory.responderFor("reusable");
+    assertSame(first, factory.responderFor("reusable"));
+
+    final Responder[] other = new Responder[1];
+    Thread thread = new Thread()
+    {
+      public void run()
+      {
+        try
+        {
+          other[0] = factory.responderFor("reusable");
+        }
+        catch(Exception e)
+        {
+          e.printStackTrace();
+        }
+      }
+    };
+    thread.start();
+    thread.join();
+    assertNotNull(other[0]);
+    assertNotSame(first, other[0]);
+  }
+
+  @Test
+  public void shouldInstantiateOtherRespondersEveryTime() throws Exception
+  {
+    factory.register("mock", MockResponder.class);
+    assertNotSame(factory.responderFor("mock"), factory.responderFor("mock"));
+  }
+
+  public static class NoDefaultConstructorResponder extends MockResponder
+  {
+    public NoDefaultConstructorResponder(String name)
+    {
+    }
+  }
+
+  public static class ReusableMockResponder extends MockResponder implements ReusableResponder
+  {
+  }
 }
@@ -0,0 +1,17 @@
+//- Copyright ©2009 Micah Martin.  All Rights Reserved
+//- MMHTTP and all included source files are distributed under terms of the GNU LGPL.
+
+package mmhttp.server;
+
+/**
+ * <p>A marker for Responder classes whose instances may handle more than one request.</p>
+ *
+ * <p>Normally the ResponderFactory instantiates a registered Responder class for every request.  Instances of
+ * ReusableResponder classes are instead kept, one per thread, and used for each request that thread handles.  An
+ * instance is never used by two threads, but any instance variables must be reset at the start of makeResponse().</p>
+ *
+ * @see ResponderFactory
+ */
+public interface ReusableResponder extends Responder
+{
+}
@@ -0,0 +1,170 @@
+//- Copyright ©2009 Micah Martin.  All Rights Reserved
+//- MMHTTP and all included source files are distributed under terms of the GNU LGPL.
+
+package mmhttp.server;
+
+import java.util.HashMap;
+
+/**
+ * An index of the routes, registered as regular expressions, that are really just literal strings or literal prefixes
+ * followed by ".*".  Such routes are stored in a trie so that finding the routes matching a resource takes time
+ * proportional to the length of the resource rather than the number of routes.
+ *
+ * Every route has an order.  When several routes match, the one with the lowest order wins.
+ *
+ * @see ResponderFactory
+ */
+public class RouteTrie<T>
+{
+  private static final String METACHARACTERS = "\\^$.|?*+()[]{}";
+
+  private Node<T> root = new Node<T>();
+
+  /**
+   * Adds the regular expression if it's a literal or a literal prefix.
+   *
+   * @param regex
+   * @param order - the rank of this route among all routes
+   * @param value
+   * @return false if the regular expression is neither literal nor prefix, in which case it's not added
+   */
+  public boolean add(String regex, int order, T value)
+  {
+    StringBuffer literal = new StringBuffer();
+    boolean prefix = false;
+    int length = regex.length();
+    for(int i = 0; i < length; i++)
+    {
+      char c = regex.charAt(i);
+      if(c == '.' && i == length - 2 && regex.charAt(i + 1) == '*')
+      {
+        prefix = true;
+        break;
+      }
+      else if(c == '\\')
+      {
+        if(i == length - 1 || Character.isLetterOrDigit(regex.charAt(i + 1)))
+          return false;
+        literal.append(regex.charAt(++i));
+      }
+      else if(METACHARACTERS.indexOf(c) != -1)
+        return false;
+      else
+        literal.append(c);
+    }
+
+    Node<T> node = root;
+    for(int i = 0; i < literal.length(); i++)
+      node = node.child(literal.charAt(i));
+    Route<T> route = new Route<T>(order, value);
+    if(prefix && node.prefix == null)
+      node.prefix = route;
+    else if(!prefix && node.exact == null)
+      node.exact = route;
+    return true;
+  }
+
+  /**
+   * Any resource matched by the regular expression must start with this prefix.  Useful to rule out regular
+   * expressions without running them.
+   *
+   * @param regex
+   * @return the literal characters leading the regular expression, perhaps ""
+   */
+  public static String literalPrefix(String regex)
+  {
+    if(regex.indexOf('|') != -1)
+      return "";
+    StringBuffer literal = new StringBuffer();
+    int length = regex.length();
+    for(int i = 0; i < length; i++)
+    {
+      char c = regex.charAt(i);
+      int next = i + 1;
+      if(c == '\\')
+      {
+        if(next == length || Character.isLetterOrDigit(regex.charAt(next)))
+          break;
+        c = regex.charAt(next++);
+      }
+      else if(METACHARACTERS.indexOf(c) != -1)
+        break;
+      if(next < length && "?*{".indexOf(regex.charAt(next)) != -1)
+        break;
+      literal.append(c);
+      i = next - 1;
+    }
+    return literal.toString();
+  }
+
+  /**
+   * Finds the lowest ordered route matching the resource.
+   *
+   * @param resource
+   * @return the route, or null if none match
+   */
+  public Route<T> find(String resource)
+  {
+    Route<T> match = null;
+    Node<T> node = root;
+    int length = resource.length();
+    int lastLineTerminator = lastLineTerminator(resource);
+    for(int i = 0; node != null; i++)
+    {
+      if(node.prefix != null && (match == null || node.prefix.order < match.order) && i > lastLineTerminator)
+        match = node.prefix;
+      if(i == length)
+      {
+        if(node.exact != null && (match == null || node.exact.order < match.order))
+          match = node.exact;
+        break;
+      }
+      node = node.children == null ? null : node.children.get(resource.charAt(i));
+    }
+    return match;
+  }
+
+  // ".*" doesn't match line terminators unless the pattern is compiled with DOTALL.
+  private static int lastLineTerminator(String resource)
+  {
+    for(int i = resource.length() - 1; i >= 0; i--)
+    {
+      char c = resource.charAt(i);
+      if(c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029')
+        return i;
+    }
+    return -1;
+  }
+
+  public static class Route<T>
+  {
+    public final int order;
+    public final T value;
+
+    private Route(int order, T value)
+    {
+      this.order = order;
+      this.value = value;
+    }
+  }
+
+  private static class Node<T>
+  {
+    private HashMap<Character, Node<T>> children;
+    private Route<T> exact;
+    private Route<T> prefix;
+
+    private Node<T> child(char c)
+    {
+      if(children == null)
+        children = new HashMap<Character, Node<T>>();
+      Node<T> child = children.get(c);
+      if(child == null)
+      {
+        child = new Node<T>();
+        children.put(c, child);
+      }
+      return child;
+    }
+  }
+}
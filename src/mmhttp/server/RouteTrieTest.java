@@ -0,0 +1,99 @@
+//- Copyright ©2009 Micah Martin.  All Rights Reserved
+//- MMHTTP and all included source files are distributed under terms of the GNU LGPL.
+
+package mmhttp.server;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RouteTrieTest extends Assert
+{
+  private RouteTrie<String> trie;
+
+  @Before
+  public void setUp() throws Exception
+  {
+    trie = new RouteTrie<String>();
+  }
+
+  private String find(String resource)
+  {
+    RouteTrie.Route<String> route = trie.find(resource);
+    return route == null ? null : route.value;
+  }
+
+  @Test
+  public void shouldMatchLiteralRoutesExactly() throws Exception
+  {
+    assertTrue(trie.add("files", 0, "files"));
+
+    assertEquals("files", find("files"));
+    assertEquals(null, find("files/more"));
+    assertEquals(null, find("file"));
+  }
+
+  @Test
+  public void shouldMatchPrefixRoutes() throws Exception
+  {
+    assertTrue(trie.add("files/.*", 0, "files"));
+
+    assertEquals("files", find("files/"));
+    assertEquals("files", find("files/some/file.txt"));
+    assertEquals(null, find("files"));
+  }
+
+  @Test
+  public void shouldUnescapeLiterals() throws Exception
+  {
+    assertTrue(trie.add("page\\.html", 0, "page"));
+
+    assertEquals("page", find("page.html"));
+    assertEquals(null, find("page_html"));
+  }
+
+  @Test
+  public void shouldRefuseOtherRegularExpressions() throws Exception
+  {
+    assertFalse(trie.add("page.html", 0, "x"));
+    assertFalse(trie.add("abc\\d{3}", 0, "x"));
+    assertFalse(trie.add("a|b", 0, "x"));
+    assertFalse(trie.add("files/.*\\.txt", 0, "x"));
+    assertFalse(trie.add("\\.*", 0, "x"));
+    assertEquals(null, find("page.html"));
+  }
+
+  @Test
+  public void shouldPreferTheLowestOrder() throws Exception
+  {
+    trie.add("a/.*", 1, "a prefix");
+    trie.add("a/b", 2, "a/b");
+    trie.add(".*", 3, "everything");
+    trie.add("a/b", 4, "later a/b");
+
+    assertEquals("a prefix", find("a/b"));
+    assertEquals("everything", find("b"));
+    assertEquals(1, trie.find("a/c").order);
+  }
+
+  @Test
+  public void prefixesDontMatchLineTerminatorsLikeRegularExpressions() throws Exception
+  {
+    trie.add("a.*", 0, "a");
+
+    assertEquals(null, find("ab\nc"));
+  }
+
+  @Test
+  public void shouldFindTheLiteralPrefixOfRegularExpressions() throws Exception
+  {
+    assertEquals("abc", RouteTrie.literalPrefix("abc\\d{3}"));
+    assertEquals("files/", RouteTrie.literalPrefix("files/.*\\.txt"));
+    assertEquals("page.", RouteTrie.literalPrefix("page\\.(html)"));
+    assertEquals("ab", RouteTrie.literalPrefix("abc?"));
+    assertEquals("ab", RouteTrie.literalPrefix("abc*d"));
+    assertEquals("abc", RouteTrie.literalPrefix("abc+d"));
+    assertEquals("", RouteTrie.literalPrefix("a|b"));
+    assertEquals("", RouteTrie.literalPrefix("(?i)abc"));
+  }
+}
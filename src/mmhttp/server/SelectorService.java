@@ -0,0 +1,293 @@
+//- Copyright ©2009 Micah Martin.  All Rights Reserved
+//- MMHTTP and all included source files are distributed under terms of the GNU LGPL.
+
+package mmhttp.server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A non-blocking alternative to SocketService.  Where SocketService dedicates a thread to every connection, the
+ * SelectorService watches all of its connections with a handful of I/O loops, one per Server.ioThreads.  Each loop
+ * owns a Selector and reads whatever bytes arrive on its connections.  Once a complete request has arrived, it's handed
+ * to the Server's worker executor which invokes the Responders.  Idle keep-alive connections therefore cost a
+ * SelectionKey and a small buffer rather than a thread.
+ *
+ * Responses are written back by the I/O loops as the sockets become writable.
+ *
+ * @see ChannelExpediter
+ */
+public class SelectorService
+{
+  private static final long TIMEOUT_CHECK_INTERVAL = 100;
+  private static final long ACCEPT_FAILURE_PAUSE = 100;
+
+  private Server server;
+  private ServerSocketChannel serverChannel;
+  private ExecutorService workers;
+  private IoLoop[] loops;
+  private Thread acceptThread;
+  private volatile boolean running;
+
+  /**
+   * Opens the server's port and starts the accepting thread and I/O loops.
+   *
+   * @param server
+   * @throws Exception
+   */
+  public SelectorService(Server server) throws Exception
+  {
+    this.server = server;
+    serverChannel = ServerSocketChannel.open();
+    serverChannel.socket().setReuseAddress(true);
+    serverChannel.socket().bind(new InetSocketAddress(server.host, server.port));
+    workers = server.createWorkerExecutor();
+    running = true;
+
+    loops = new IoLoop[Math.max(1, server.ioThreads)];
+    for(int i = 0; i < loops.length; i++)
+    {
+      loops[i] = new IoLoop();
+      loops[i].start("MM-HTTP I/O Loop " + i);
+    }
+
+    acceptThread = new Thread(new Runnable()
+    {
+      public void run()
+      {
+        acceptConnections();
+      }
+    }, "MM-HTTP Acceptor");
+    acceptThread.start();
+  }
+
+  /**
+   * @return the port being listened to.  Handy when the Server was configured with port 0.
+   */
+  public int getLocalPort()
+  {
+    return serverChannel.socket().getLocalPort();
+  }
+
+  /**
+   * @return true until closed
+   */
+  public boolean isRunning()
+  {
+    return running;
+  }
+
+  /**
+   * Stops accepting connections, closes the open ones, and waits for the worker threads to complete.
+   *
+   * @throws Exception
+   */
+  public void close() throws Exception
+  {
+    running = false;
+    serverChannel.close();
+    acceptThread.join();
+    for(IoLoop loop : loops)
+      loop.stop();
+    workers.shutdown();
+    workers.awaitTermination(10, TimeUnit.SECONDS);
+  }
+
+  private void acceptConnections()
+  {
+    int next = 0;
+    while(running)
+    {
+      try
+      {
+        SocketChannel channel = serverChannel.accept();
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        loops[next++ % loops.length].register(channel);
+      }
+      catch(IOException e)
+      {
+        if(!serverChannel.isOpen())
+          return;
+        // Running out of file descriptors, for one, fails every accept until some are closed.
+        e.printStackTrace();
+        pauseAfterAcceptFailure();
+      }
+    }
+  }
+
+  private void pauseAfterAcceptFailure()
+  {
+    try
+    {
+      Thread.sleep(ACCEPT_FAILURE_PAUSE);
+    }
+    catch(InterruptedException e)
+    {
+      // keep accepting
+    }
+  }
+
+  /**
+   * A thread with a Selector.  Every operation on the channels of its connections is performed on this thread.  Other
+   * threads get work done here by way of execute().
+   */
+  class IoLoop implements Runnable
+  {
+    private Selector selector;
+    private Thread thread;
+    private ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+    private ByteBuffer readBuffer = ByteBuffer.allocateDirect(16 * 1024);
+    private volatile boolean looping = true;
+
+    IoLoop() throws IOException
+    {
+      selector = Selector.open();
+    }
+
+    void start(String name)
+    {
+      thread = new Thread(this, name);
+      thread.start();
+    }
+
+    void stop() throws InterruptedException
+    {
+      looping = false;
+      selector.wakeup();
+      thread.join();
+    }
+
+    /**
+     * Queues the task to be run on this loop's thread.
+     */
+    void execute(Runnable task)
+    {
+      tasks.add(task);
+      selector.wakeup();
+    }
+
+    ByteBuffer getReadBuffer()
+    {
+      return readBuffer;
+    }
+
+    void register(final SocketChannel channel)
+    {
+      execute(new Runnable()
+      {
+        public void run()
+        {
+          try
+          {
+            SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+            key.attach(new ChannelExpediter(channel, key, IoLoop.this, server, workers));
+          }
+          catch(IOException e)
+          {
+            closeQuietly(channel);
+          }
+        }
+      });
+    }
+
+    public void run()
+    {
+      long lastTimeoutCheck = System.currentTimeMillis();
+      while(looping)
+      {
+        try
+        {
+          selector.select(TIMEOUT_CHECK_INTERVAL);
+          runTasks();
+          processSelectedKeys();
+          long now = System.currentTimeMillis();
+          if(now - lastTimeoutCheck >= TIMEOUT_CHECK_INTERVAL)
+          {
+            checkTimeouts(now);
+            lastTimeoutCheck = now;
+          }
+        }
+        catch(Exception e)
+        {
+          e.printStackTrace();
+        }
+      }
+      closeAll();
+    }
+
+    private void runTasks()
+    {
+      Runnable task;
+      while((task = tasks.poll()) != null)
+        task.run();
+    }
+
+    private void processSelectedKeys()
+    {
+      Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+      while(keys.hasNext())
+      {
+        SelectionKey key = keys.next();
+        keys.remove();
+        ChannelExpediter expediter = (ChannelExpediter) key.attachment();
+        if(expediter == null)
+          continue;
+        if(key.isValid() && key.isWritable())
+          expediter.writable();
+        if(key.isValid() && key.isReadable())
+          expediter.readable();
+      }
+    }
+
+    private void checkTimeouts(long now)
+    {
+      for(SelectionKey key : selector.keys())
+      {
+        ChannelExpediter expediter = (ChannelExpediter) key.attachment();
+        if(expediter != null && key.isValid())
+          expediter.checkTimeouts(now);
+      }
+    }
+
+    private void closeAll()
+    {
+      runTasks();
+      for(SelectionKey key : selector.keys())
+      {
+        ChannelExpediter expediter = (ChannelExpediter) key.attachment();
+        if(expediter != null)
+          expediter.closeChannel();
+      }
+      try
+      {
+        selector.close();
+      }
+      catch(IOException e)
+      {
+        e.printStackTrace();
+      }
+    }
+  }
+
+  private static void closeQuietly(SocketChannel channel)
+  {
+    try
+    {
+      channel.close();
+    }
+    catch(IOException e)
+    {
+      // already gone
+    }
+  }
+}
@@ -0,0 +1,404 @@
+//- Copyright ©2009 Micah Martin.  All Rights Reserved
+//- MMHTTP and all included source files are distributed under terms of the GNU LGPL.
+
+package mmhttp.server;
+
+import mmhttp.protocol.ChunkedResponse;
+import mmhttp.protocol.Request;
+import mmhttp.protocol.Response;
+import mmhttp.protocol.ResponseParser;
+import mmhttp.protocol.SimpleResponse;
+import mmhttp.util.MappedFileCache;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.Socket;
+import java.util.concurrent.CountDownLatch;
+
+public class SelectorServiceTest extends Assert
+{
+  private Server server;
+  private SelectorService service;
+  private Socket client;
+  private InputStream input;
+  private OutputStream output;
+
+  @Before
+  public void setUp() throws Exception
+  {
+    server = new Server(0);
+    server.ioThreads = 2;
+    server.workerThreads = 2;
+    server.register("root", MockResponder.class);
+    server.register("echo", new EchoResponder());
+    server.register("chunks", new ChunkingResponder());
+  }
+
+  @After
+  public void tearDown() throws Exception
+  {
+    if(client != null)
+      client.close();
+    if(service != null)
+      service.close();
+  }
+
+  private void connect() throws Exception
+  {
+    service = new SelectorService(server);
+    client = new Socket("localhost", service.getLocalPort());
+    client.setSoTimeout(5000);
+    input = client.getInputStream();
+    output = client.getOutputStream();
+  }
+
+  @Test
+  public void shouldServeARequest() throws Exception
+  {
+    connect();
+    output.write("GET /root HTTP/1.1\r\n\r\n".getBytes());
+
+    ResponseParser response = new ResponseParser(input);
+    assertEquals(200, response.getStatus());
+    assertEquals("keep-alive", response.getHeader("Connection"));
+  }
+
+  @Test
+  public void shouldServeSeveralRequestsOnOneConnection() throws Exception
+  {
+    connect();
+    output.write("GET /root HTTP/1.1\r\n\r\n".getBytes());
+    assertEquals(200, new ResponseParser(input).getStatus());
+    output.write("GET /nothing HTTP/1.1\r\nConnection: close\r\n\r\n".getBytes());
+    ResponseParser response = new ResponseParser(input);
+
+    assertEquals(404, response.getStatus());
+    assertEquals("close", response.getHeader("Connection"));
+    assertEquals(-1, input.read());
+  }
+
+  @Test
+  public void shouldAnswerPipelinedRequestsInOrder() throws Exception
+  {
+    connect();
+    output.write("GET /echo?value=one HTTP/1.1\r\n\r\nGET /echo?value=two HTTP/1.1\r\n\r\n".getBytes());
+
+    assertEquals("one", new ResponseParser(input).getBody());
+    assertEquals("two", new ResponseParser(input).getBody());
+  }
+
+  @Test
+  public void shouldAssembleRequestsArrivingInPieces() throws Exception
+  {
+    connect();
+    String request = "POST /echo HTTP/1.1\r\nContent-Length: 11\r\n\r\nvalue=three";
+    for(byte aByte : request.getBytes())
+    {
+      output.write(aByte);
+      output.flush();
+      Thread.sleep(2);
+    }
+
+    assertEquals("three", new ResponseParser(input).getBody());
+  }
+
+  @Test
+  public void shouldAssembleChunkedRequests() throws Exception
+  {
+    connect();
+    output.write(("POST /echo HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\n" +
+      "6\r\nvalue=\r\n5\r\nthree\r\n0\r\n\r\n" +
+      "GET /echo?value=four HTTP/1.1\r\n\r\n").getBytes());
+
+    assertEquals("three", new ResponseParser(input).getBody());
+    assertEquals("four", new ResponseParser(input).getBody());
+  }
+
+  @Test
+  public void shouldRefuseBodiesLargerThanTheLimit() throws Exception
+  {
+    server.maxBodySize = 10;
+    connect();
+    output.write("POST /echo HTTP/1.1\r\nContent-Length: 11\r\n\r\n".getBytes());
+
+    assertEquals(413, new ResponseParser(input).getStatus());
+    assertEquals(-1, input.read());
+  }
+
+  @Test
+  public void shouldRefuseBodiesForStreamingResponders() throws Exception
+  {
+    server.register("ingest", new ExpediterTest.IngestResponder());
+    connect();
+    output.write("POST /ingest HTTP/1.1\r\nContent-Length: 10\r\n\r\n".getBytes());
+
+    assertEquals(501, new ResponseParser(input).getStatus());
+    assertEquals(-1, input.read());
+  }
+
+  @Test
+  public void shouldSendChunkedResponsesFromOtherThreads() throws Exception
+  {
+    connect();
+    output.write("GET /chunks HTTP/1.1\r\n\r\n".getBytes());
+
+    ResponseParser response = new ResponseParser(input);
+    assertEquals("onetwo", response.getBody());
+  }
+
+  @Test
+  public void shouldTransferFilesToTheChannel() throws Exception
+  {
+    server.register("file", new MockFileResponder(MockFileResponder.createFile(1000000)));
+    connect();
+    output.write("GET /file HTTP/1.1\r\n\r\nGET /root HTTP/1.1\r\n\r\n".getBytes());
+
+    assertEquals(MockFileResponder.content(1000000), new ResponseParser(input).getBody());
+    assertEquals(200, new ResponseParser(input).getStatus());
+  }
+
+  @Test
+  public void shouldWriteLargeContentBehindItsHeaders() throws Exception
+  {
+    final String content = MockFileResponder.content(1000000);
+    server.register("large", new Responder()
+    {
+      public Response makeResponse(Server server, Request request) throws Exception
+      {
+        return new SimpleResponse(200, content);
+      }
+    });
+    connect();
+    output.write("GET /large HTTP/1.1\r\n\r\nGET /root HTTP/1.1\r\n\r\n".getBytes());
+
+    assertEquals(content, new ResponseParser(input).getBody());
+    assertEquals(200, new ResponseParser(input).getStatus());
+  }
+
+  @Test
+  public void shouldCompressResponsesWhenEnabled() throws Exception
+  {
+    server.compression = true;
+    server.register("large", new Responder()
+    {
+      public Response makeResponse(Server server, Request request) throws Exception
+      {
+        return new SimpleResponse(200, MockFileResponder.content(100000));
+      }
+    });
+    connect();
+    output.write("GET /large HTTP/1.1\r\nAccept-Encoding: gzip\r\n\r\nGET /large HTTP/1.1\r\n\r\n".getBytes());
+
+    ResponseParser compressed = new ResponseParser(input);
+    assertEquals("gzip", compressed.getHeader("Content-Encoding"));
+    assertEquals("Accept-Encoding", compressed.getHeader("Vary"));
+    assertTrue(Integer.parseInt(compressed.getHeader("Content-Length")) < 10000);
+    ResponseParser plain = new ResponseParser(input);
+    assertFalse(plain.hasHeader("Content-Encoding"));
+    assertEquals("100000", plain.getHeader("Content-Length"));
+  }
+
+  @Test
+  public void shouldSendMappedFiles() throws Exception
+  {
+    File file = MockFileResponder.createFile(1000000);
+    StaticFileResponder responder = new StaticFileResponder(file.getParentFile(), "mapped/");
+    responder.mappedFiles = new MappedFileCache(10000000, 10000000);
+    server.register("mapped/.*", responder);
+    connect();
+    output.write(("GET /mapped/" + file.getName() + " HTTP/1.1\r\n\r\nGET /root HTTP/1.1\r\n\r\n").getBytes());
+
+    assertEquals(MockFileResponder.content(1000000), new ResponseParser(input).getBody());
+    assertEquals(200, new ResponseParser(input).getStatus());
+    assertEquals(1, responder.mappedFiles.getMappedFileCount());
+  }
+
+  @Test
+  public void shouldRejectMalformedRequests() throws Exception
+  {
+    connect();
+    output.write("DELETE /root HTTP/1.1\r\n\r\n".getBytes());
+
+    assertEquals(400, new ResponseParser(input).getStatus());
+    assertEquals(-1, input.read());
+  }
+
+  @Test
+  public void shouldTimeOutUnproductiveRequests() throws Exception
+  {
+    server.requestTimeout = 200;
+    connect();
+    output.write("GET /root HTTP/1.1\r\n".getBytes());
+
+    assertEquals(408, new ResponseParser(input).getStatus());
+    assertEquals(-1, input.read());
+  }
+
+  @Test
+  public void shouldCloseConnectionsThatSendNothing() throws Exception
+  {
+    server.requestTimeout = 200;
+    connect();
+
+    assertEquals(-1, input.read());
+  }
+
+  @Test
+  public void shouldCloseTheConnectionWhenAFileShrinks() throws Exception
+  {
+    final File file = MockFileResponder.createFile(1000000);
+    server.register("shrinking", new Responder()
+    {
+      public Response makeResponse(Server server, Request request) throws Exception
+      {
+        Response response = new MockFileResponder(file).makeResponse(server, request);
+        RandomAccessFile shrinker = new RandomAccessFile(file, "rw");
+        shrinker.setLength(1000);
+        shrinker.close();
+        return response;
+      }
+    });
+    connect();
+    output.write("GET /shrinking HTTP/1.1\r\n\r\n".getBytes());
+
+    byte[] buffer = new byte[64 * 1024];
+    int total = 0;
+    int count;
+    while((count = input.read(buffer)) != -1)
+      total += count;
+    assertTrue(total < 1000000);
+  }
+
+  @Test
+  public void shouldCloseConnectionsWhoseClientsStopReading() throws Exception
+  {
+    server.workerThreads = 1;
+    server.requestTimeout = 200;
+    server.register("file", new MockFileResponder(MockFileResponder.createFile(20000000)));
+    connect();
+    output.write("GET /file HTTP/1.1\r\n\r\n".getBytes());
+    Thread.sleep(500);
+
+    Socket next = new Socket("localhost", service.getLocalPort());
+    next.setSoTimeout(5000);
+    try
+    {
+      next.getOutputStream().write("GET /root HTTP/1.1\r\n\r\n".getBytes());
+      assertEquals(200, new ResponseParser(next.getInputStream()).getStatus());
+    }
+    finally
+    {
+      next.close();
+    }
+  }
+
+  @Test
+  public void shouldCloseIdleConnections() throws Exception
+  {
+    server.keepAliveTimeout = 200;
+    connect();
+    output.write("GET /root HTTP/1.1\r\n\r\n".getBytes());
+    assertEquals(200, new ResponseParser(input).getStatus());
+
+    assertEquals(-1, input.read());
+  }
+
+  @Test
+  public void shouldTurnAwayRequestsWhenTheWorkersAreSaturated() throws Exception
+  {
+    server.ioThreads = 1;
+    server.workerThreads = 1;
+    server.workerQueueSize = 1;
+    GateResponder gate = new GateResponder();
+    server.register("gate", gate);
+    connect();
+    Socket queued = new Socket("localhost", service.getLocalPort());
+    Socket refused = new Socket("localhost", service.getLocalPort());
+    refused.setSoTimeout(5000);
+    try
+    {
+      output.write("GET /gate HTTP/1.1\r\n\r\n".getBytes());
+      gate.entered.await();
+      queued.getOutputStream().write("GET /root HTTP/1.1\r\n\r\n".getBytes());
+      Thread.sleep(100);
+      refused.getOutputStream().write("GET /root HTTP/1.1\r\n\r\n".getBytes());
+
+      ResponseParser response = new ResponseParser(refused.getInputStream());
+      assertEquals(503, response.getStatus());
+      assertEquals("5", response.getHeader("Retry-After"));
+      assertEquals(-1, refused.getInputStream().read());
+    }
+    finally
+    {
+      gate.open.countDown();
+      refused.close();
+      queued.close();
+    }
+    assertEquals(200, new ResponseParser(input).getStatus());
+  }
+
+  @Test
+  public void shouldBeStartedByServer() throws Exception
+  {
+    server.nonBlocking = true;
+    server.port = 0;
+    server.start();
+    assertTrue(server.isRunning());
+    server.stop();
+    assertFalse(server.isRunning());
+  }
+
+  public static class EchoResponder implements Responder
+  {
+    public Response makeResponse(Server server, Request request) throws Exception
+    {
+      return new SimpleResponse(200, (String) request.getInput("value"));
+    }
+  }
+
+  public static class GateResponder implements Responder
+  {
+    public CountDownLatch entered = new CountDownLatch(1);
+    public CountDownLatch open = new CountDownLatch(1);
+
+    public Response makeResponse(Server server, Request request) throws Exception
+    {
+      entered.countDown();
+      open.await();
+      return new SimpleResponse(200, "through");
+    }
+  }
+
+  public static class ChunkingResponder implements Responder
+  {
+    public Response makeResponse(Server server, Request request) throws Exception
+    {
+      final ChunkedResponse response = new ChunkedResponse();
+      new Thread()
+      {
+        public void run()
+        {
+          try
+          {
+            while(!response.isReadyToSend())
+              Thread.sleep(1);
+            response.add("one");
+            response.add("two");
+            response.closeAll();
+          }
+          catch(Exception e)
+          {
+            e.printStackTrace();
+          }
+        }
+      }.start();
+      return response;
+    }
+  }
+}
@@ -8,6 +8,22 @@ import mmsocketserver.SocketServer;
 
 import java.net.Socket;
 import java.net.InetAddress;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import mmhttp.protocol.HttpDate;
+import mmhttp.protocol.Response;
+import mmhttp.protocol.SimpleResponse;
+import mmhttp.util.BufferPool;
+import mmhttp.util.HostNameCache;
 
 /**
  * This is where the action begins.  The Server implements the SocketService.  Imagine a restaurant.  A restaurant
@@ -15,11 +31,20 @@ import java.net.InetAddress;
  * provides an HTTP service and the Server serves each socket connecting for the service.
  *
  * When started the Server will start listening to the specified port on a new Thread.  Every connection will be
- * processed in a separate thread.
+ * processed in a separate thread, which also parses the requests.  Alternatively, with nonBlocking set, all
+ * connections are multiplexed over a few I/O threads by a SelectorService.  With virtualThreads set, connections
+ * are served on virtual threads.  HTTP/1.1 connections are kept open for subsequent requests as configured by
+ * keepAliveTimeout and maxRequestsPerConnection.
  */
 public class Server implements SocketServer
 {
   private SocketService theService;
+  private SelectorService selectorService;
+  private PooledSocketService pooledService;
+  private byte[] serviceUnavailableResponse;
+  private String serviceUnavailableDate;
+  private RequestTimeoutMonitor requestTimeoutMonitor;
+  private BufferPool bufferPool;
 
   /**
    * A Logger object that will log each request.  Defaults to null;
@@ -49,6 +74,99 @@ public class Server implements SocketServer
    * Time to wait, in milliseconds, for a request to parse. Default: 10000.
    */
   public long requestTimeout = 10000;
+  /**
+   * Time to wait, in milliseconds, for the next request on a persistent connection before closing it. Default: 15000.
+   */
+  public long keepAliveTimeout = 15000;
+  /**
+   * Maximum number of requests served on a single persistent connection. A value of 1 disables persistent
+   * connections. Default: 100.
+   */
+  public int maxRequestsPerConnection = 100;
+  /**
+   * When true, connections are served by a SelectorService using non-blocking I/O rather than a thread per
+   * connection.  Entity bodies are then collected in memory, so they can be no larger than maxBodySize and can't be
+   * streamed to a StreamingBodyResponder.  Default: false.
+   */
+  public boolean nonBlocking = false;
+  /**
+   * Number of I/O loops, each with its own thread and Selector, used when nonBlocking.  Default: number of processors.
+   */
+  public int ioThreads = Runtime.getRuntime().availableProcessors();
+  /**
+   * Number of threads invoking Responders when nonBlocking, or serving connections when workerQueueSize is set.
+   * Default: 16.
+   */
+  public int workerThreads = 16;
+  /**
+   * When greater than 0, work is admitted to the pool of workerThreads through a queue of this size.  Work arriving
+   * while the queue is full is turned away with a 503 Service Unavailable response.  Without nonBlocking, each
+   * connection occupies a worker thread until it closes.  Does not apply to virtualThreads.  Default: 0, unbounded.
+   */
+  public int workerQueueSize = 0;
+  /**
+   * Seconds a client turned away with a 503 is asked to wait before retrying.  Sent in the Retry-After header.
+   * Default: 5.
+   */
+  public int retryAfter = 5;
+  /**
+   * Remembers the host names of clients so that Request.getRemoteHostName() doesn't repeat slow reverse DNS lookups.
+   * Host names are only looked up when asked for.  Default: null, no caching.
+   */
+  public HostNameCache hostNameCache;
+  /**
+   * Size, in bytes, of each connection's output buffer.  Request and response bodies are copied through buffers from a
+   * pool of this server's own, as are the write buffers of nonBlocking, and this is their size as well.  Default: 16K.
+   */
+  public int bufferSize = 16 * 1024;
+  /**
+   * Number of idle buffers the server's pool keeps for reuse.  Default: 64.
+   * @see #getBufferPool
+   */
+  public int pooledBuffers = 64;
+  /**
+   * Uploaded files of up to this many bytes are kept in memory.  Larger files are written to temp files.  Default: 64K.
+   * @see mmhttp.protocol.PartHandler
+   */
+  public int uploadThreshold = 64 * 1024;
+  /**
+   * Where the temp files of uploaded files are created.  Default: null, the system's temp directory.
+   */
+  public File uploadDirectory;
+  /**
+   * When a StreamingBodyResponder leaves no more than this many bytes of an entity body unread, they're skipped so the
+   * connection can be kept alive.  With more left, the connection is closed.  Default: 1M.
+   */
+  public long unreadBodyLimit = 1024 * 1024;
+  /**
+   * The largest entity body, in bytes, the server reads into memory.  Requests with larger bodies are answered with 413
+   * Request Entity Too Large.  Bodies left in the stream for a StreamingBodyResponder and multipart content aren't
+   * limited, except with nonBlocking, where every entity body is collected in memory.  -1 means no limit, leaving
+   * nonBlocking bounded only by the largest array.  Default: -1.
+   */
+  public long maxBodySize = -1;
+  /**
+   * When true, textual responses are compressed with gzip or deflate for HTTP/1.1 clients that accept it.
+   * Default: false.
+   * @see mmhttp.protocol.Compression
+   */
+  public boolean compression = false;
+  /**
+   * Responses whose content is known to be smaller than this many bytes aren't worth compressing.  Default: 1024.
+   */
+  public int compressionThreshold = 1024;
+  /**
+   * When true, files sent with InputStreamResponse.setBody(File) are replaced by a precompressed sibling, such as
+   * "app.js.gz" or "app.js.br", for clients that accept its coding.  Default: false.
+   * @see mmhttp.protocol.InputStreamResponse#usePrecompressedFile
+   */
+  public boolean precompressedFiles = false;
+  /**
+   * When true, each connection is served on a virtual thread, and so are the Responders of the nonBlocking
+   * transport.  Blocking I/O in Responders then ties up no platform thread.  Requires Java 21 or later; on older JVMs
+   * start() throws IllegalStateException.  Default: false.
+   */
+  public boolean virtualThreads = false;
   /**
    * InetAddress to specify specific interfaces.  Defaults to null, which will listen to all interfaces.
    */
@@ -128,7 +246,12 @@ public class Server implements SocketServer
    */
   public void start() throws Exception
   {
-    theService = new SocketService(port, this, host);
+    if(nonBlocking)
+      selectorService = new SelectorService(this);
+    else if(virtualThreads || workerQueueSize > 0)
+      pooledService = new PooledSocketService(this, createWorkerExecutor());
+    else
+      theService = new SocketService(port, this, host);
   }
 
   /**
@@ -142,6 +265,24 @@ public class Server implements SocketServer
       theService.close();
       theService = null;
     }
+    if(selectorService != null)
+    {
+      selectorService.close();
+      selectorService = null;
+    }
+    if(pooledService != null)
+    {
+      pooledService.close();
+      pooledService = null;
+    }
+    synchronized(this)
+    {
+      if(requestTimeoutMonitor != null)
+      {
+        requestTimeoutMonitor.close();
+        requestTimeoutMonitor = null;
+      }
+    }
   }
 
   /**
@@ -167,7 +308,144 @@ public class Server implements SocketServer
    */
   public boolean isRunning()
   {
-    return theService != null;
+    return theService != null || selectorService != null || pooledService != null;
+  }
+
+  /**
+   * Creates the ExecutorService that does the work: virtual threads if virtualThreads is set, otherwise a pool of
+   * workerThreads.  The pool's queue is bounded by workerQueueSize, when set, and rejects work once full.
+   * @return ExecutorService
+   * @throws Exception
+   */
+  public ExecutorService createWorkerExecutor() throws Exception
+  {
+    int threads = Math.max(1, workerThreads);
+    if(virtualThreads)
+      return newVirtualThreadExecutor();
+    else if(workerQueueSize > 0)
+    {
+      ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(workerQueueSize));
+      executor.allowCoreThreadTimeOut(true);
+      return executor;
+    }
+    else
+      return Executors.newFixedThreadPool(threads);
+  }
+
+  /**
+   * The response given to clients turned away because the server is overloaded: a 503 with a Retry-After header.  It's
+   * built at most once a second, to keep its Date header current, so that refusing work costs next to nothing.
+   * @return the complete HTTP response
+   * @throws Exception
+   */
+  public synchronized byte[] getServiceUnavailableResponse() throws Exception
+  {
+    String date = HttpDate.now();
+    if(serviceUnavailableResponse == null || !date.equals(serviceUnavailableDate))
+    {
+      String reason = Response.getReasonPhrase(503);
+      SimpleResponse response = new SimpleResponse(503, "<html><head><title>" + reason + "</title></head><body>" + reason + "</body></html>");
+      response.addHeader("Retry-After", String.valueOf(retryAfter));
+      response.addHeader("Server", name);
+      response.addHeader("Connection", "close");
+      response.addHeader("Date", date);
+      serviceUnavailableResponse = response.getBytes();
+      serviceUnavailableDate = date;
+    }
+    return serviceUnavailableResponse;
+  }
+
+  /**
+   * Turns away a connection with the 503 response.  This runs on the thread accepting connections, so nothing here
+   * waits on the client.  The response is written without blocking, and whatever of the request has already arrived
+   * is discarded so that closing the connection doesn't reset it before the response is read.
+   * @param channel
+   */
+  void refuse(SocketChannel channel)
+  {
+    try
+    {
+      channel.configureBlocking(false);
+      channel.write(ByteBuffer.wrap(getServiceUnavailableResponse()));
+      ByteBuffer discarded = ByteBuffer.allocate(1024);
+      for(int i = 0; i < 16 && channel.read(discarded) > 0; i++)
+        discarded.clear();
+    }
+    catch(Exception e)
+    {
+      // The client is gone.  Nothing more to do.
+    }
+    finally
+    {
+      try
+      {
+        channel.close();
+      }
+      catch(IOException e)
+      {
+        // already gone
+      }
+    }
+  }
+
+  /**
+   * @return the pool of the buffers this server's connections copy and write through, created according to bufferSize
+   * and pooledBuffers when first needed
+   */
+  public synchronized BufferPool getBufferPool()
+  {
+    if(bufferPool == null)
+      bufferPool = new BufferPool(bufferSize, pooledBuffers);
+    return bufferPool;
+  }
+
+  /**
+   * @return true when accepted connections are waiting for a worker thread.  Persistent connections then give up their
+   * threads rather than wait in them for another request.
+   */
+  boolean hasWaitingConnections()
+  {
+    PooledSocketService service = pooledService;
+    return service != null && service.hasWaitingConnections();
+  }
+
+  private static ExecutorService newVirtualThreadExecutor() throws Exception
+  {
+    try
+    {
+      Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+      return (ExecutorService) factory.invoke(null);
+    }
+    catch(NoSuchMethodException e)
+    {
+      throw new IllegalStateException("Virtual threads require Java 21 or later");
+    }
+  }
+
+  /**
+   * @return true if this JVM supports virtual threads.
+   */
+  public static boolean supportsVirtualThreads()
+  {
+    try
+    {
+      Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+      return true;
+    }
+    catch(NoSuchMethodException e)
+    {
+      return false;
+    }
+  }
+
+  /**
+   * @return the RequestTimeoutMonitor shared by all connections.  Created on first use.
+   */
+  public synchronized RequestTimeoutMonitor getRequestTimeoutMonitor()
+  {
+    if(requestTimeoutMonitor == null)
+      requestTimeoutMonitor = new RequestTimeoutMonitor();
+    return requestTimeoutMonitor;
   }
 
   /**
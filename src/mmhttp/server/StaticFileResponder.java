@@ -0,0 +1,349 @@
+//- Copyright ©2009 Micah Martin.  All Rights Reserved
+//- MMHTTP and all included source files are distributed under terms of the GNU LGPL.
+
+package mmhttp.server;
+
+import mmhttp.protocol.Compression;
+import mmhttp.protocol.HttpDate;
+import mmhttp.protocol.InputStreamResponse;
+import mmhttp.protocol.MappedFileResponse;
+import mmhttp.protocol.Request;
+import mmhttp.protocol.Response;
+import mmhttp.protocol.SimpleResponse;
+import mmhttp.util.FileUtil;
+import mmhttp.util.MappedFileCache;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Serves the files beneath a document root.  Register one instance for the resources it should serve:
+ *
+ * <pre>
+ *   server.register("static/.*", new StaticFileResponder(new File("public"), "static/"));
+ * </pre>
+ *
+ * The resource, less the prefix, is the path of the file within the document root.  Resources that would lead outside
+ * the document root are not found.  Directories are served by their index file.
+ *
+ * Small files are kept in memory, in a cache of the most recently used files bounded by their total size.  A cached
+ * file is checked against the disk at most once every revalidateInterval milliseconds and reloaded if its modification
+ * time or size has changed.  When the server compresses responses, the compressed content of a cached file is cached
+ * with it, once for each coding, and counts toward the cache's size.  Files too large to cache are sent with
+ * InputStreamResponse.setBody(File), which transfers them straight from the file to the socket.  Alternatively, given a
+ * MappedFileCache, files too large for the heap cache are kept mapped and sent with MappedFileResponse, sparing the
+ * opens and reads of frequently requested files.  Mapped files aren't replaced by precompressed siblings.
+ *
+ * Responses carry Last-Modified, and a request whose If-Modified-Since matches it gets a 304 Not Modified.
+ */
+public class StaticFileResponder implements Responder
+{
+  private static final Map<String, String> contentTypes = new HashMap<String, String>();
+
+  static
+  {
+    contentTypes.put("html", Response.DEFAULT_CONTENT_TYPE);
+    contentTypes.put("htm", Response.DEFAULT_CONTENT_TYPE);
+    contentTypes.put("css", "text/css; charset=utf-8");
+    contentTypes.put("js", "application/javascript; charset=utf-8");
+    contentTypes.put("json", "application/json");
+    contentTypes.put("txt", "text/plain; charset=utf-8");
+    contentTypes.put("xml", "application/xml");
+    contentTypes.put("svg", "image/svg+xml");
+    contentTypes.put("png", "image/png");
+    contentTypes.put("gif", "image/gif");
+    contentTypes.put("jpg", "image/jpeg");
+    contentTypes.put("jpeg", "image/jpeg");
+    contentTypes.put("ico", "image/x-icon");
+    contentTypes.put("webp", "image/webp");
+    contentTypes.put("woff", "font/woff");
+    contentTypes.put("woff2", "font/woff2");
+    contentTypes.put("pdf", "application/pdf");
+    contentTypes.put("zip", "application/zip");
+    contentTypes.put("wasm", "application/wasm");
+  }
+
+  /**
+   * Files larger than this many bytes aren't cached.  Default: 64K.
+   */
+  public int maxCachedFileSize = 64 * 1024;
+  /**
+   * The total size, in bytes, of the files kept in the cache.  Default: 16M.
+   */
+  public long maxCacheSize = 16 * 1024 * 1024;
+  /**
+   * Milliseconds a cached file is trusted before it's checked against the disk again.  Default: 1000.
+   */
+  public long revalidateInterval = 1000;
+  /**
+   * The file served for a directory.  Default: "index.html".
+   */
+  public String indexFile = "index.html";
+  /**
+   * When set, files too large for the heap cache are mapped into memory by this cache, if it will take them.
+   * Default: null, no mapping.
+   */
+  public MappedFileCache mappedFiles;
+
+  private File root;
+  private String rootPath;
+  private String prefix;
+  private LinkedHashMap<File, CachedFile> cache = new LinkedHashMap<File, CachedFile>(16, 0.75f, true);
+  private long cachedBytes;
+
+  /**
+   * Serves resources as paths within the document root.
+   * @param root
+   * @throws IOException
+   */
+  public StaticFileResponder(File root) throws IOException
+  {
+    this(root, "");
+  }
+
+  /**
+   * Serves resources starting with the prefix, less the prefix, as paths within the document root.
+   * @param root
+   * @param prefix - such as "static/"
+   * @throws IOException
+   */
+  public StaticFileResponder(File root, String prefix) throws IOException
+  {
+    this.root = root.getCanonicalFile();
+    rootPath = this.root.getPath() + File.separator;
+    this.prefix = prefix;
+  }
+
+  public Response makeResponse(Server server, Request request) throws Exception
+  {
+    File file = fileFor(request.getResource());
+    if(file == null)
+      return new NotFoundResponder().makeResponse(server, request);
+
+    CachedFile cached = cachedFile(file);
+    if(cached == null)
+    {
+      if(!file.isFile())
+        return new NotFoundResponder().makeResponse(server, request);
+      if(file.length() <= maxCachedFileSize)
+        cached = load(file);
+    }
+
+    String lastModified = cached != null ? cached.lastModified : HttpDate.format(file.lastModified());
+    if(lastModified.equals(request.getHeader("If-Modified-Since")))
+    {
+      SimpleResponse response = new SimpleResponse(304);
+      response.setLastModifiedHeader(lastModified);
+      return response;
+    }
+
+    if(cached != null)
+    {
+      SimpleResponse response = new SimpleResponse(200);
+      response.setContent(cached.content);
+      response.setContentType(cached.contentType);
+      response.setLastModifiedHeader(lastModified);
+      if(server != null && server.compression)
+      {
+        Compression.negotiate(request, response, server.compressionThreshold);
+        if(response.getContentEncoding() != null)
+          response.setEncodedContent(compressed(file, cached, response.getContentEncoding()));
+      }
+      return response;
+    }
+
+    ByteBuffer mapped = mappedFiles == null ? null : mappedFiles.get(file);
+    if(mapped != null)
+    {
+      MappedFileResponse response = new MappedFileResponse(mapped);
+      response.setContentType(contentTypeOf(file));
+      response.setLastModifiedHeader(lastModified);
+      return response;
+    }
+    else
+    {
+      InputStreamResponse response = new InputStreamResponse();
+      response.setBody(file);
+      response.setContentType(contentTypeOf(file));
+      response.setLastModifiedHeader(lastModified);
+      return response;
+    }
+  }
+
+  /**
+   * @return the number of files in the cache
+   */
+  public synchronized int getCachedFileCount()
+  {
+    return cache.size();
+  }
+
+  /**
+   * @return the total size of the files in the cache
+   */
+  public synchronized long getCachedBytes()
+  {
+    return cachedBytes;
+  }
+
+  /**
+   * @param resource
+   * @return the file the resource names, or null if the resource doesn't name a file beneath the document root
+   * @throws IOException
+   */
+  File fileFor(String resource) throws IOException
+  {
+    if(resource == null || !resource.startsWith(prefix))
+      return null;
+    String path;
+    try
+    {
+      path = URLDecoder.decode(resource.substring(prefix.length()).replace("+", "%2B"), "UTF-8");
+    }
+    catch(IllegalArgumentException e)
+    {
+      return null;
+    }
+    if(path.indexOf('\0') != -1)
+      return null;
+    for(String segment : path.split("[/\\\\]"))
+    {
+      if("..".equals(segment))
+        return null;
+    }
+
+    File file = new File(root, path);
+    if(file.isDirectory())
+      file = new File(file, indexFile);
+    File canonical = file.getCanonicalFile();
+    if(!canonical.getPath().startsWith(rootPath))
+      return null;
+    return canonical;
+  }
+
+  private CachedFile cachedFile(File file)
+  {
+    CachedFile cached;
+    synchronized(this)
+    {
+      cached = cache.get(file);
+    }
+    if(cached == null)
+      return null;
+    long now = System.currentTimeMillis();
+    if(now - cached.checkedAt < revalidateInterval)
+      return cached;
+    // The disk is checked without holding the lock, so a slow stat doesn't hold up requests for other files.
+    if(cached.isCurrent(file))
+    {
+      cached.checkedAt = now;
+      return cached;
+    }
+    synchronized(this)
+    {
+      if(cache.get(file) == cached)
+        remove(file);
+    }
+    return null;
+  }
+
+  private byte[] compressed(File file, CachedFile cached, String encoding) throws Exception
+  {
+    synchronized(this)
+    {
+      byte[] compressed = cached.compressed.get(encoding);
+      if(compressed != null)
+        return compressed;
+    }
+    byte[] compressed = Compression.compress(cached.content, encoding);
+    synchronized(this)
+    {
+      if(cache.get(file) == cached && !cached.compressed.containsKey(encoding))
+      {
+        cached.compressed.put(encoding, compressed);
+        cachedBytes += compressed.length;
+        trim();
+      }
+    }
+    return compressed;
+  }
+
+  private CachedFile load(File file) throws Exception
+  {
+    long checkedAt = System.currentTimeMillis();
+    long modified = file.lastModified();
+    byte[] content = FileUtil.getFileBytes(file);
+    CachedFile cached = new CachedFile(content, modified, contentTypeOf(file), checkedAt);
+    synchronized(this)
+    {
+      remove(file);
+      cache.put(file, cached);
+      cachedBytes += content.length;
+      trim();
+    }
+    return cached;
+  }
+
+  private void trim()
+  {
+    Iterator<CachedFile> eldest = cache.values().iterator();
+    while(cachedBytes > maxCacheSize && eldest.hasNext())
+    {
+      cachedBytes -= eldest.next().size();
+      eldest.remove();
+    }
+  }
+
+  private void remove(File file)
+  {
+    CachedFile removed = cache.remove(file);
+    if(removed != null)
+      cachedBytes -= removed.size();
+  }
+
+  private static String contentTypeOf(File file)
+  {
+    String name = file.getName();
+    int dot = name.lastIndexOf('.');
+    String type = dot == -1 ? null : contentTypes.get(name.substring(dot + 1).toLowerCase());
+    return type == null ? "application/octet-stream" : type;
+  }
+
+  private static class CachedFile
+  {
+    private final byte[] content;
+    private final long modified;
+    private final String lastModified;
+    private final String contentType;
+    private final HashMap<String, byte[]> compressed = new HashMap<String, byte[]>(4);
+    private volatile long checkedAt;
+
+    private CachedFile(byte[] content, long modified, String contentType, long checkedAt)
+    {
+      this.content = content;
+      this.modified = modified;
+      this.lastModified = HttpDate.format(modified);
+      this.contentType = contentType;
+      this.checkedAt = checkedAt;
+    }
+
+    private boolean isCurrent(File file)
+    {
+      return file.lastModified() == modified && file.length() == content.length;
+    }
+
+    private long size()
+    {
+      long size = content.length;
+      for(byte[] bytes : compressed.values())
+        size += bytes.length;
+      return size;
+    }
+  }
+}
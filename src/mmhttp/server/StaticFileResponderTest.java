@@ -0,0 +1,191 @@
+//- Copyright ©2009 Micah Martin.  All Rights Reserved
+//- MMHTTP and all included source files are distributed under terms of the GNU LGPL.
+
+package mmhttp.server;
+
+import mmhttp.protocol.HttpDate;
+import mmhttp.protocol.InputStreamResponse;
+import mmhttp.protocol.MappedFileResponse;
+import mmhttp.protocol.MockRequest;
+import mmhttp.protocol.Response;
+import mmhttp.protocol.SimpleResponse;
+import mmhttp.util.FileUtil;
+import mmhttp.util.MappedFileCache;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+
+public class StaticFileResponderTest extends Assert
+{
+  private File root;
+  private StaticFileResponder responder;
+
+  @Before
+  public void setUp() throws Exception
+  {
+    root = new File("testStaticRoot");
+    new File(root, "docs").mkdirs();
+    FileUtil.createFile(new File(root, "page.html"), "<html>page</html>");
+    FileUtil.createFile(new File(root, "docs/index.html"), "index");
+    FileUtil.createFile(new File(root, "docs/style.css"), "body {}");
+    FileUtil.createFile(new File(root, "with space.txt"), "spaced");
+    FileUtil.createFile("testStaticSecret.txt", "secret");
+    responder = new StaticFileResponder(root);
+  }
+
+  @After
+  public void tearDown() throws Exception
+  {
+    FileUtil.deleteFileSystemDirectory(root);
+    FileUtil.deleteFile("testStaticSecret.txt");
+  }
+
+  private Response get(String resource) throws Exception
+  {
+    return responder.makeResponse(null, new MockRequest(resource));
+  }
+
+  @Test
+  public void shouldServeFiles() throws Exception
+  {
+    SimpleResponse response = (SimpleResponse) get("page.html");
+
+    assertEquals(200, response.getStatus());
+    assertEquals("<html>page</html>", response.getContent());
+    assertEquals("text/html; charset=utf-8", response.getContentType());
+    assertEquals(HttpDate.format(new File(root, "page.html").lastModified()), response.getHeader("Last-Modified"));
+    assertEquals("text/css; charset=utf-8", get("docs/style.css").getContentType());
+    assertEquals("spaced", ((SimpleResponse) get("with%20space.txt")).getContent());
+  }
+
+  @Test
+  public void shouldServeIndexFilesForDirectories() throws Exception
+  {
+    assertEquals("index", ((SimpleResponse) get("docs")).getContent());
+    assertEquals("index", ((SimpleResponse) get("docs/")).getContent());
+  }
+
+  @Test
+  public void shouldNotFindMissingFiles() throws Exception
+  {
+    assertEquals(404, get("missing.html").getStatus());
+    assertEquals(404, get("").getStatus());
+  }
+
+  @Test
+  public void shouldNotLeaveTheDocumentRoot() throws Exception
+  {
+    assertEquals(404, get("../testStaticSecret.txt").getStatus());
+    assertEquals(404, get("docs/../../testStaticSecret.txt").getStatus());
+    assertEquals(404, get("%2e%2e/testStaticSecret.txt").getStatus());
+    assertEquals(404, get("..%5ctestStaticSecret.txt").getStatus());
+    assertEquals(404, get(new File("testStaticSecret.txt").getAbsolutePath()).getStatus());
+  }
+
+  @Test
+  public void shouldServeResourcesBeneathAPrefix() throws Exception
+  {
+    responder = new StaticFileResponder(root, "static/");
+
+    assertEquals("<html>page</html>", ((SimpleResponse) get("static/page.html")).getContent());
+    assertEquals(404, get("page.html").getStatus());
+  }
+
+  @Test
+  public void shouldCacheSmallFiles() throws Exception
+  {
+    get("page.html");
+    get("page.html");
+    get("docs/style.css");
+
+    assertEquals(2, responder.getCachedFileCount());
+    assertEquals(24, responder.getCachedBytes());
+  }
+
+  @Test
+  public void shouldCacheCompressedContentForEachCoding() throws Exception
+  {
+    Server server = new Server();
+    server.compression = true;
+    server.compressionThreshold = 0;
+    MockRequest request = new MockRequest("page.html");
+    request.setHttpVersion("HTTP/1.1");
+    request.addHeader("Accept-Encoding", "gzip");
+
+    SimpleResponse first = (SimpleResponse) responder.makeResponse(server, request);
+    SimpleResponse second = (SimpleResponse) responder.makeResponse(server, request);
+    second.getBytes();
+    request.addHeader("Accept-Encoding", "deflate");
+    SimpleResponse deflated = (SimpleResponse) responder.makeResponse(server, request);
+
+    assertEquals("gzip", first.getContentEncoding());
+    assertSame(first.getContentBytes(), second.getContentBytes());
+    assertEquals("deflate", deflated.getContentEncoding());
+    long compressedBytes = first.getContentBytes().length + deflated.getContentBytes().length;
+    assertEquals(17 + compressedBytes, responder.getCachedBytes());
+  }
+
+  @Test
+  public void shouldReloadChangedFiles() throws Exception
+  {
+    File page = new File(root, "page.html");
+    get("page.html");
+    FileUtil.createFile(page, "changed");
+    page.setLastModified(page.lastModified() + 2000);
+
+    assertEquals("<html>page</html>", ((SimpleResponse) get("page.html")).getContent());
+    responder.revalidateInterval = 0;
+    assertEquals("changed", ((SimpleResponse) get("page.html")).getContent());
+    assertEquals(7, responder.getCachedBytes());
+  }
+
+  @Test
+  public void shouldEvictTheLeastRecentlyUsedFiles() throws Exception
+  {
+    responder.maxCacheSize = 25;
+    get("page.html");
+    get("docs/style.css");
+    get("page.html");
+    get("docs/index.html");
+
+    assertEquals(2, responder.getCachedFileCount());
+    assertEquals(22, responder.getCachedBytes());
+  }
+
+  @Test
+  public void shouldStreamLargeFiles() throws Exception
+  {
+    responder.maxCachedFileSize = 10;
+    Response response = get("page.html");
+
+    assertEquals(InputStreamResponse.class, response.getClass());
+    assertEquals(17, response.getContentSize());
+    assertEquals(0, responder.getCachedFileCount());
+  }
+
+  @Test
+  public void shouldMapLargeFilesWhenGivenAMappedFileCache() throws Exception
+  {
+    responder.maxCachedFileSize = 10;
+    responder.mappedFiles = new MappedFileCache(1024, 1024);
+    Response response = get("page.html");
+
+    assertEquals(MappedFileResponse.class, response.getClass());
+    assertEquals(17, response.getContentSize());
+    assertEquals(1, responder.mappedFiles.getMappedFileCount());
+  }
+
+  @Test
+  public void shouldAnswerConditionalRequests() throws Exception
+  {
+    MockRequest request = new MockRequest("page.html");
+    request.addHeader("If-Modified-Since", HttpDate.format(new File(root, "page.html").lastModified()));
+    Response response = responder.makeResponse(null, request);
+
+    assertEquals(304, response.getStatus());
+    assertEquals(0, response.getContentSize());
+  }
+}
@@ -0,0 +1,25 @@
+//- Copyright ©2009 Micah Martin.  All Rights Reserved
+//- MMHTTP and all included source files are distributed under terms of the GNU LGPL.
+
+package mmhttp.server;
+
+/**
+ * <p>A marker for Responder classes that read the entity bodies of their requests as they arrive.</p>
+ *
+ * <p>Normally a request's entity body is read into memory, as Request.getBody(), before the Responder is asked for a
+ * response.  The requests of a StreamingBodyResponder are instead handed over with their entity bodies still in the
+ * connection, to be read through Request.getBodyStream() or Request.getBodyChannel().  Bodies that are
+ * application/x-www-form-urlencoded, and multipart content, are still parsed into inputs.  A read of the body that
+ * waits longer than the Server's requestTimeout fails.</p>
+ *
+ * <p>Whatever the Responder leaves unread is skipped once the response is sent, if there's no more than the Server's
+ * unreadBodyLimit of it.  Otherwise the connection is closed.</p>
+ *
+ * <p>The nonBlocking transport collects entity bodies in memory before any Responder runs, so it can't stream them.
+ * It answers requests with entity bodies for a StreamingBodyResponder with 501 Not Implemented.</p>
+ *
+ * @see mmhttp.protocol.Request#setStreamingBody
+ */
+public interface StreamingBodyResponder extends Responder
+{
+}
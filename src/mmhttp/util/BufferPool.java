@@ -0,0 +1,121 @@
+//- Copyright ©2009 Micah Martin.  All Rights Reserved
+//- MMHTTP and all included source files are distributed under terms of the GNU LGPL.
+
+package mmhttp.util;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A pool of byte arrays for copying data between streams, files and sockets.  Copy loops acquire a buffer, use it, and
+ * release it when done so that large transfers don't allocate an array for every piece.
+ *
+ * The pool keeps up to maxPooled idle buffers.  Buffers acquired while the pool is empty are allocated, a miss, and
+ * buffers released while the pool is full are left to the garbage collector.
+ *
+ * There is a shared pool used by copy loops that aren't given a pool.  It's only replaced by calling setShared().  Each
+ * Server keeps a pool of its own, sized by its bufferSize and pooledBuffers, and hands it to the requests and responses
+ * of its connections.
+ */
+public class BufferPool
+{
+  private static volatile BufferPool shared = new BufferPool(16 * 1024, 64);
+
+  private int bufferSize;
+  private int maxPooled;
+  private ConcurrentLinkedQueue<byte[]> buffers = new ConcurrentLinkedQueue<byte[]>();
+  private AtomicInteger pooled = new AtomicInteger();
+  private AtomicLong hits = new AtomicLong();
+  private AtomicLong misses = new AtomicLong();
+
+  /**
+   * @return the pool used by copy loops that aren't given one
+   */
+  public static BufferPool getShared()
+  {
+    return shared;
+  }
+
+  public static void setShared(BufferPool pool)
+  {
+    shared = pool;
+  }
+
+  /**
+   * @param bufferSize - the length of each buffer
+   * @param maxPooled - the number of idle buffers kept
+   */
+  public BufferPool(int bufferSize, int maxPooled)
+  {
+    this.bufferSize = bufferSize;
+    this.maxPooled = maxPooled;
+  }
+
+  /**
+   * @return a buffer of getBufferSize() bytes.  Its contents are undefined.
+   */
+  public byte[] acquire()
+  {
+    byte[] buffer = buffers.poll();
+    if(buffer != null)
+    {
+      pooled.decrementAndGet();
+      hits.incrementAndGet();
+      return buffer;
+    }
+    misses.incrementAndGet();
+    return new byte[bufferSize];
+  }
+
+  /**
+   * Returns the buffer to the pool.  It must not be used afterwards.
+   *
+   * @param buffer
+   */
+  public void release(byte[] buffer)
+  {
+    if(buffer.length != bufferSize)
+      return;
+    if(pooled.incrementAndGet() > maxPooled)
+    {
+      pooled.decrementAndGet();
+      return;
+    }
+    buffers.offer(buffer);
+  }
+
+  public int getBufferSize()
+  {
+    return bufferSize;
+  }
+
+  public int getMaxPooled()
+  {
+    return maxPooled;
+  }
+
+  /**
+   * @return the number of idle buffers in the pool
+   */
+  public int getPooledCount()
+  {
+    return pooled.get();
+  }
+
+  /**
+   * @return the number of acquired buffers that came from the pool
+   */
+  public long getHits()
+  {
+    return hits.get();
+  }
+
+  /**
+   * @return the number of acquired buffers that had to be allocated
+   */
+  public long getMisses()
+  {
+    return misses.get();
+  }
+}
@@ -0,0 +1,59 @@
+//- Copyright ©2009 Micah Martin.  All Rights Reserved
+//- MMHTTP and all included source files are distributed under terms of the GNU LGPL.
+
+package mmhttp.util;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BufferPoolTest extends Assert
+{
+  private BufferPool pool;
+
+  @Before
+  public void setUp() throws Exception
+  {
+    pool = new BufferPool(100, 2);
+  }
+
+  @Test
+  public void shouldAllocateBuffersWhenEmpty() throws Exception
+  {
+    byte[] buffer = pool.acquire();
+
+    assertEquals(100, buffer.length);
+    assertEquals(0, pool.getHits());
+    assertEquals(1, pool.getMisses());
+  }
+
+  @Test
+  public void shouldReuseReleasedBuffers() throws Exception
+  {
+    byte[] buffer = pool.acquire();
+    pool.release(buffer);
+    assertEquals(1, pool.getPooledCount());
+
+    assertSame(buffer, pool.acquire());
+    assertEquals(1, pool.getHits());
+    assertEquals(0, pool.getPooledCount());
+  }
+
+  @Test
+  public void shouldKeepNoMoreThanMaxPooled() throws Exception
+  {
+    pool.release(new byte[100]);
+    pool.release(new byte[100]);
+    pool.release(new byte[100]);
+
+    assertEquals(2, pool.getPooledCount());
+  }
+
+  @Test
+  public void shouldIgnoreBuffersOfTheWrongSize() throws Exception
+  {
+    pool.release(new byte[50]);
+
+    assertEquals(0, pool.getPooledCount());
+  }
+}
@@ -146,9 +146,22 @@ public class FileUtil
 
 	public static void copyBytes(InputStream input, OutputStream output) throws Exception
 	{
-		StreamReader reader = new StreamReader(input);
-		while(!reader.isEof())
-			output.write(reader.readBytes(1000));
+		copyBytes(input, output, BufferPool.getShared());
+	}
+
+	public static void copyBytes(InputStream input, OutputStream output, BufferPool pool) throws Exception
+	{
+		byte[] buffer = pool.acquire();
+		try
+		{
+			int bytesRead;
+			while((bytesRead = input.read(buffer)) != -1)
+				output.write(buffer, 0, bytesRead);
+		}
+		finally
+		{
+			pool.release(buffer);
+		}
 	}
 
 	public static File createDir(String path)
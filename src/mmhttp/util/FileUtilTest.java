@@ -4,7 +4,10 @@
 package mmhttp.util;
 
 import junit.framework.TestCase;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.util.Arrays;
 
 public class FileUtilTest extends TestCase
 {
@@ -127,6 +130,18 @@ public class FileUtilTest extends TestCase
 		assertEquals("a" + separator + "b" + separator + "c", FileUtil.buildPath(new String[]{"a", "b", "c"}));
 	}
 
-}
 
+	public void testCopyBytesWithPooledBuffers() throws Exception
+	{
+		byte[] bytes = new byte[BufferPool.getShared().getBufferSize() * 3 + 7];
+		for(int i = 0; i < bytes.length; i++)
+			bytes[i] = (byte) i;
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		long acquired = BufferPool.getShared().getHits() + BufferPool.getShared().getMisses();
+
+		FileUtil.copyBytes(new ByteArrayInputStream(bytes), output);
 
+		assertTrue(Arrays.equals(bytes, output.toByteArray()));
+		assertEquals(acquired + 1, BufferPool.getShared().getHits() + BufferPool.getShared().getMisses());
+	}
+}
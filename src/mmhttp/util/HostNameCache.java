@@ -0,0 +1,91 @@
+//- Copyright ©2009 Micah Martin.  All Rights Reserved
+//- MMHTTP and all included source files are distributed under terms of the GNU LGPL.
+
+package mmhttp.util;
+
+import java.net.InetAddress;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Remembers the results of reverse DNS lookups.  Looking up the host name of an address can take seconds when the
+ * resolver is slow, so repeat clients shouldn't pay for it every time.  The cache holds at most maxEntries names,
+ * evicting the least recently used, and forgets each name after timeToLive milliseconds.
+ */
+public class HostNameCache
+{
+  private int maxEntries;
+  private long timeToLive;
+  private LinkedHashMap<String, Entry> entries;
+
+  /**
+   * @param maxEntries - the number of addresses remembered
+   * @param timeToLive - milliseconds before a name is looked up again
+   */
+  public HostNameCache(final int maxEntries, long timeToLive)
+  {
+    this.maxEntries = maxEntries;
+    this.timeToLive = timeToLive;
+    entries = new LinkedHashMap<String, Entry>(16, 0.75f, true)
+    {
+      protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest)
+      {
+        return size() > maxEntries;
+      }
+    };
+  }
+
+  /**
+   * Answers the cached host name of the address, looking it up if it's unknown or expired.  The lookup happens outside
+   * of any lock so that one slow lookup doesn't hold up others.
+   *
+   * @param address
+   * @return the host name, or the textual address if it has no name
+   */
+  public String getHostName(InetAddress address)
+  {
+    String key = address.getHostAddress();
+    long now = System.currentTimeMillis();
+    synchronized(this)
+    {
+      Entry entry = entries.get(key);
+      if(entry != null && entry.expiration > now)
+        return entry.hostName;
+    }
+
+    String hostName = address.getHostName();
+    synchronized(this)
+    {
+      entries.put(key, new Entry(hostName, now + timeToLive));
+    }
+    return hostName;
+  }
+
+  /**
+   * @return the number of names currently cached
+   */
+  public synchronized int size()
+  {
+    return entries.size();
+  }
+
+  /**
+   * @return the maximum number of names cached
+   */
+  public int getMaxEntries()
+  {
+    return maxEntries;
+  }
+
+  private static class Entry
+  {
+    private String hostName;
+    private long expiration;
+
+    private Entry(String hostName, long expiration)
+    {
+      this.hostName = hostName;
+      this.expiration = expiration;
+    }
+  }
+}
@@ -0,0 +1,49 @@
+//- Copyright ©2009 Micah Martin.  All Rights Reserved
+//- MMHTTP and all included source files are distributed under terms of the GNU LGPL.
+
+package mmhttp.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.net.InetAddress;
+
+public class HostNameCacheTest extends Assert
+{
+  private static InetAddress address(String name, int lastByte) throws Exception
+  {
+    return InetAddress.getByAddress(name, new byte[]{10, 0, 0, (byte) lastByte});
+  }
+
+  @Test
+  public void shouldRememberNames() throws Exception
+  {
+    HostNameCache cache = new HostNameCache(10, 60000);
+    assertEquals("first", cache.getHostName(address("first", 1)));
+    assertEquals("first", cache.getHostName(address("renamed", 1)));
+    assertEquals(1, cache.size());
+  }
+
+  @Test
+  public void shouldForgetExpiredNames() throws Exception
+  {
+    HostNameCache cache = new HostNameCache(10, 0);
+    assertEquals("first", cache.getHostName(address("first", 1)));
+    Thread.sleep(2);
+    assertEquals("renamed", cache.getHostName(address("renamed", 1)));
+  }
+
+  @Test
+  public void shouldEvictTheLeastRecentlyUsed() throws Exception
+  {
+    HostNameCache cache = new HostNameCache(2, 60000);
+    cache.getHostName(address("one", 1));
+    cache.getHostName(address("two", 2));
+    cache.getHostName(address("one", 1));
+    cache.getHostName(address("three", 3));
+
+    assertEquals(2, cache.size());
+    assertEquals("one", cache.getHostName(address("renamed", 1)));
+    assertEquals("renamed", cache.getHostName(address("renamed", 2)));
+  }
+}
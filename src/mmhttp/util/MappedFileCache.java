@@ -0,0 +1,169 @@
+//- Copyright ©2009 Micah Martin.  All Rights Reserved
+//- MMHTTP and all included source files are distributed under terms of the GNU LGPL.
+
+package mmhttp.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Keeps files mapped into memory, so they can be sent again and again without being opened or read.  The mapped bytes
+ * live outside the Java heap, in the operating system's page cache.
+ *
+ * The cache holds mappings totalling at most maxMappedSize bytes, evicting the least recently used.  A mapping is
+ * checked against its file's modification time and size at most once every revalidateInterval milliseconds, and
+ * replaced if the file has changed.
+ *
+ * Java offers no safe way to unmap a file, so evicted and replaced mappings are dropped, and unmapped once the garbage
+ * collector finds them unused.  Responses still sending from an old mapping finish undisturbed.  Change files by
+ * replacing them, writing a new file and renaming it over the old, rather than rewriting them in place: a mapped file
+ * that shrinks under a reader can't be read.
+ */
+public class MappedFileCache
+{
+  /**
+   * Milliseconds a mapping is trusted before its file is checked again.  Default: 1000.
+   */
+  public long revalidateInterval = 1000;
+
+  private long maxMappedSize;
+  private long maxFileSize;
+  private LinkedHashMap<File, Mapping> mappings = new LinkedHashMap<File, Mapping>(16, 0.75f, true);
+  private long mappedBytes;
+
+  /**
+   * @param maxMappedSize - the total size, in bytes, of the files kept mapped
+   * @param maxFileSize - files larger than this aren't mapped.  At most Integer.MAX_VALUE.
+   */
+  public MappedFileCache(long maxMappedSize, long maxFileSize)
+  {
+    this.maxMappedSize = maxMappedSize;
+    this.maxFileSize = Math.min(maxFileSize, Integer.MAX_VALUE);
+  }
+
+  /**
+   * Answers the mapped contents of the file, mapping it if it isn't already.  Mapping, and checking whether a mapping
+   * is still current, happen outside of any lock.
+   *
+   * @param file
+   * @return a read-only buffer of the whole file, for the caller alone, or null if the file doesn't exist or is too
+   * large to map
+   * @throws IOException
+   */
+  public ByteBuffer get(File file) throws IOException
+  {
+    long now = System.currentTimeMillis();
+    Mapping cached;
+    synchronized(this)
+    {
+      cached = mappings.get(file);
+      if(cached != null && now - cached.checkedAt < revalidateInterval)
+        return cached.buffer.duplicate();
+    }
+    if(cached != null && cached.isCurrent(file))
+    {
+      synchronized(this)
+      {
+        cached.checkedAt = now;
+      }
+      return cached.buffer.duplicate();
+    }
+
+    if(!file.isFile() || file.length() > maxFileSize)
+    {
+      if(cached != null)
+        replace(file, cached, null);
+      return null;
+    }
+    Mapping mapping = map(file, now);
+    replace(file, cached, mapping);
+    return mapping.buffer.duplicate();
+  }
+
+  /**
+   * Swaps in the replacement, unless another thread has already replaced the stale mapping.  Evicts the least recently
+   * used mappings once there are too many bytes mapped.
+   */
+  private synchronized void replace(File file, Mapping stale, Mapping replacement)
+  {
+    if(mappings.get(file) != stale)
+      return;
+    remove(file);
+    if(replacement == null)
+      return;
+    mappings.put(file, replacement);
+    mappedBytes += replacement.size;
+    Iterator<Mapping> eldest = mappings.values().iterator();
+    while(mappedBytes > maxMappedSize && eldest.hasNext())
+    {
+      mappedBytes -= eldest.next().size;
+      eldest.remove();
+    }
+  }
+
+  /**
+   * @return the number of files mapped
+   */
+  public synchronized int getMappedFileCount()
+  {
+    return mappings.size();
+  }
+
+  /**
+   * @return the total size of the files mapped
+   */
+  public synchronized long getMappedBytes()
+  {
+    return mappedBytes;
+  }
+
+  private void remove(File file)
+  {
+    Mapping removed = mappings.remove(file);
+    if(removed != null)
+      mappedBytes -= removed.size;
+  }
+
+  private static Mapping map(File file, long now) throws IOException
+  {
+    long modified = file.lastModified();
+    RandomAccessFile input = new RandomAccessFile(file, "r");
+    try
+    {
+      FileChannel channel = input.getChannel();
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      return new Mapping(buffer, modified, now);
+    }
+    finally
+    {
+      input.close(); // the mapping remains valid
+    }
+  }
+
+  private static class Mapping
+  {
+    private final MappedByteBuffer buffer;
+    private final long size;
+    private final long modified;
+    private long checkedAt;
+
+    private Mapping(MappedByteBuffer buffer, long modified, long checkedAt)
+    {
+      this.buffer = buffer;
+      this.size = buffer.capacity();
+      this.modified = modified;
+      this.checkedAt = checkedAt;
+    }
+
+    private boolean isCurrent(File file)
+    {
+      return file.lastModified() == modified && file.length() == size;
+    }
+  }
+}
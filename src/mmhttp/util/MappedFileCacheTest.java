@@ -0,0 +1,114 @@
+//- Copyright ©2009 Micah Martin.  All Rights Reserved
+//- MMHTTP and all included source files are distributed under terms of the GNU LGPL.
+
+package mmhttp.util;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+
+public class MappedFileCacheTest extends Assert
+{
+  private MappedFileCache cache;
+  private File one = new File("testMappedOne.txt");
+  private File two = new File("testMappedTwo.txt");
+
+  @Before
+  public void setUp() throws Exception
+  {
+    cache = new MappedFileCache(30, 20);
+    FileUtil.createFile(one, "one is ten");
+    FileUtil.createFile(two, "two is 10!");
+  }
+
+  @After
+  public void tearDown() throws Exception
+  {
+    FileUtil.deleteFile(one);
+    FileUtil.deleteFile(two);
+  }
+
+  private static String text(ByteBuffer buffer)
+  {
+    byte[] bytes = new byte[buffer.remaining()];
+    buffer.get(bytes);
+    return new String(bytes);
+  }
+
+  @Test
+  public void shouldMapFiles() throws Exception
+  {
+    ByteBuffer first = cache.get(one);
+    ByteBuffer second = cache.get(one);
+
+    assertEquals("one is ten", text(first));
+    assertEquals("one is ten", text(second));
+    assertTrue(second.isReadOnly());
+    assertEquals(1, cache.getMappedFileCount());
+    assertEquals(10, cache.getMappedBytes());
+  }
+
+  @Test
+  public void shouldNotMapMissingOrLargeFiles() throws Exception
+  {
+    FileUtil.createFile(two, "this is more than twenty bytes");
+
+    assertNull(cache.get(new File("testMappedMissing.txt")));
+    assertNull(cache.get(two));
+    assertEquals(0, cache.getMappedFileCount());
+  }
+
+  @Test
+  public void shouldEvictTheLeastRecentlyUsedMappings() throws Exception
+  {
+    File three = new File("testMappedThree.txt");
+    FileUtil.createFile(three, "three: 10!");
+    try
+    {
+      cache = new MappedFileCache(25, 20);
+      cache.get(one);
+      cache.get(two);
+      cache.get(one);
+      cache.get(three);
+
+      assertEquals(2, cache.getMappedFileCount());
+      assertEquals(20, cache.getMappedBytes());
+    }
+    finally
+    {
+      FileUtil.deleteFile(three);
+    }
+  }
+
+  @Test
+  public void shouldRemapChangedFiles() throws Exception
+  {
+    ByteBuffer old = cache.get(one);
+    File replacement = new File("testMappedReplacement.txt");
+    FileUtil.createFile(replacement, "one is now longer");
+    replacement.setLastModified(one.lastModified() + 2000);
+    one.delete();
+    replacement.renameTo(one);
+
+    cache.revalidateInterval = 0;
+    assertEquals("one is now longer", text(cache.get(one)));
+    assertEquals("one is ten", text(old));
+    assertEquals(17, cache.getMappedBytes());
+  }
+
+  @Test
+  public void shouldDropTheMappingsOfDeletedFiles() throws Exception
+  {
+    cache.get(one);
+    one.delete();
+
+    cache.revalidateInterval = 0;
+    assertNull(cache.get(one));
+    assertEquals(0, cache.getMappedFileCount());
+    assertEquals(0, cache.getMappedBytes());
+  }
+}